@@ -0,0 +1,219 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmBenchmarks.java
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the simulation hot paths: a whole time step, the reaction
+ * lookup, the per-atom reaction and move, and the flood.
+ * 
+ * Every benchmark reports its own time and an atomUpdates counter, the
+ * number of atoms it went through, so runs on different grids and engines
+ * compare as atom-updates/sec. Add -prof gc for the allocation rate.
+ * 
+ * java -jar target/benchmarks.jar -prof gc
+ * java -jar target/benchmarks.jar doTimeStep -p size=1024 -p threads=4
+ * java -jar target/benchmarks.jar react -p chemistry=interpreted,compiled
+ * 
+ * The forks log with log4j-benchmarks.properties, warnings only, so nothing
+ * timed includes logging.
+ * 
+ * This lives in org.squirm.chem because the chemistry and doCataclysm are
+ * package level.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmarks.properties")
+public class SquirmBenchmarks {
+
+    /**
+     * a generated world and its chemistry, rebuilt for every iteration so the
+     * iterations all start from the same state
+     */
+    @State(Scope.Thread)
+    public static class World {
+
+        @Param({ "50", "256", "1024", "4096" })
+        public int size;
+
+        @Param({ "0.1", "0.3", "0.5" })
+        public double density;
+
+        /** one of SquirmReactionSets.VARIANTS */
+        @Param({ "0", "1", "5", "9" })
+        public int rules;
+
+        /** interpreted or compiled */
+        @Param({ "interpreted" })
+        public String chemistry;
+
+        /** 0 for the strict order sweep, otherwise tiles on this many threads */
+        @Param({ "0" })
+        public int threads;
+
+        /** the world is made from this, the same for every iteration */
+        @Param({ "1" })
+        public long seed;
+
+        SquirmGrid grid;
+        SquirmWorld world;
+        SquirmChemistry reactions;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            if ("compiled".equals(chemistry))
+                reactions = new SquirmCompiledChemistry();
+            else if ("interpreted".equals(chemistry))
+                reactions = new SquirmChemistry();
+            else
+                throw new Error("SquirmBenchmarks::setUp : unknown chemistry " + chemistry);
+            SquirmReactionSets.addReactions(reactions, rules);
+
+            // one replicator per 64x64 squares, the rest raw material
+            grid = new SquirmWorldGenerator(seed).setDensity(density)
+                    .addSeedString("e8-a1-b1-c1-f1", Math.max(1, size * size / 4096)).newGrid(size, size);
+            world = grid.getWorld();
+            if (threads > 0)
+                grid.setThreads(threads, SquirmGrid.DEFAULT_TILE);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            // release the pool, if any
+            grid.setThreads(1);
+        }
+    }
+
+    /** atoms gone through, reported by JMH as a rate next to the score */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long atomUpdates;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            atomUpdates = 0;
+        }
+    }
+
+    // ----------------------------------------------------------
+
+    /** SquirmGrid.doTimeStep, react, move and age for every awake atom */
+    @Benchmark
+    public int doTimeStep(final World w, final Counters counters) {
+        w.grid.doTimeStep(w.reactions);
+        final int n = w.grid.getSteppedLastStep();
+        counters.atomUpdates += n;
+        return n;
+    }
+
+    /** SquirmChemistry.react on every atom, with its unbonded neighbours */
+    @Benchmark
+    public int react(final World w, final Counters counters) {
+        final SquirmWorld world = w.world;
+        final SquirmChemistry chemistry = w.reactions;
+        final int n_order = world.getOrderLength();
+        int n = 0;
+        for (int i = 0; i < n_order; i++) {
+            final int sq = world.getSquare(world.getOrderId(i));
+            if (sq < 0)
+                continue;
+            chemistry.react(world, sq, world.occupiedMask(sq) & ~world.getBonds(sq));
+            n++;
+        }
+        counters.atomUpdates += n;
+        return n;
+    }
+
+    /** SquirmCell.makeReactions on every atom */
+    @Benchmark
+    public int makeReactions(final World w, final Counters counters) {
+        final SquirmWorld world = w.world;
+        final int n_order = world.getOrderLength();
+        int n = 0;
+        for (int i = 0; i < n_order; i++) {
+            final int sq = world.getSquare(world.getOrderId(i));
+            if (sq < 0)
+                continue;
+            SquirmCell.makeReactions(w.reactions, world, sq);
+            n++;
+        }
+        counters.atomUpdates += n;
+        return n;
+    }
+
+    /** SquirmCell.makeMove on every atom */
+    @Benchmark
+    public int makeMove(final World w, final Counters counters) {
+        final SquirmWorld world = w.world;
+        final SquirmRandom random = w.grid.getRandom();
+        final int n_order = world.getOrderLength();
+        int n = 0;
+        for (int i = 0; i < n_order; i++) {
+            final int sq = world.getSquare(world.getOrderId(i));
+            if (sq < 0)
+                continue;
+            SquirmCell.makeMove(world, sq, random);
+            n++;
+        }
+        counters.atomUpdates += n;
+        return n;
+    }
+
+    /**
+     * SquirmGrid.doCataclysm, once per iteration: a flood empties half the
+     * world, so only the first one on a fresh world is representative
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public int doCataclysm(final World w, final Counters counters) {
+        final int n = w.world.getAtomCount();
+        w.grid.doCataclysm();
+        counters.atomUpdates += n;
+        return w.world.getAtomCount();
+    }
+
+} // End of the class //
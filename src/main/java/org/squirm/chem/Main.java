@@ -41,13 +41,29 @@ public class Main {
      */
     public static void main(final String [] args) {        
         LOGGER.info(">>> Running");
-        final Squirm frame = new Squirm();
+        // Main [--flat-out] [--size N] [--stats]
+        boolean flat_out = false;
+        boolean stats = false;
+        int size = 50;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--flat-out"))
+                flat_out = true;
+            else if (args[i].equals("--stats"))
+                stats = true;
+            else if (args[i].equals("--size") && i + 1 < args.length)
+                size = Integer.parseInt(args[++i]);
+        }
+        final Squirm frame = new Squirm(size, size);
         frame.setTitle("Squirm Artificial Chemistry");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLocation(20, 20);    
         frame.setPreferredSize(new Dimension(800, 600));
         frame.setResizable(false);
         frame.setFocusable(true);        
+        if (stats)
+            frame.enableStats();
+        if (flat_out)
+            frame.setFlatOut(true, 30);
         frame.setVisible(true);  
         frame.init();
         frame.start();        
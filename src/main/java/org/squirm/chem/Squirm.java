@@ -23,11 +23,18 @@
 package org.squirm.chem;
 
 import java.awt.Color;
-import java.awt.Event;
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 
 import javax.swing.JFrame;
+import javax.swing.Timer;
 
 import org.apache.log4j.Logger;
 
@@ -45,24 +52,67 @@ public class Squirm extends JFrame implements Runnable {
      */
     private Thread m_Squirm = null;
 
+    protected SquirmEngine engine;
+
     protected SquirmGrid squirmGrid;
 
+    /** the latest world the engine has published, for drawing */
+    protected SquirmFrameExchange frames;
+
+    /** the part of the world on screen */
+    protected SquirmViewport viewport;
+
+    /** frames are drawn into this, only the squares that changed */
+    protected SquirmRaster raster;
+
+    /** the frame painted last, what the mouse points at is looked up in it */
+    private SquirmFrame shown = null;
+
+    /** zoomed out, frames are counted into this instead */
+    protected SquirmDensity density;
+
+    /** step and paint times, if asked for, see enableStats() */
+    protected SquirmStats stats = null;
+
     private static SquirmChemistry chemistry;
 
-    protected final int grid_size_x = 50;
-    protected final int grid_size_y = 50;
+    // which reaction-set do you want? (see SquirmReactionSets)
+    private static final int typeOfReactionAllowedEditableFromSrc = 0;
+
+    protected final int grid_size_x;
+    protected final int grid_size_y;
     protected final int drawing_size_x = 800;
     protected final int drawing_size_y = 600;
-    protected final float scale = drawing_size_x / (float) grid_size_x;
+
+    // where a drag started, on screen and in the world
+    private int drag_x, drag_y;
+    private int drag_origin_x, drag_origin_y;
+
+    // where the mouse was last seen, zooming is about it
+    private int pointer_x = drawing_size_x / 2, pointer_y = drawing_size_y / 2;
 
     protected Image offscreenImage = null;
     protected Graphics off_g = null;
 
-    private static final int FAST = 1;
     private int delay = 240;
     private boolean paused = false;
     private int draw_every = 1;
 
+    // flat out, the simulation doesn't wait for drawing: it steps as fast as
+    // it can and a timer repaints from the latest frame
+    private boolean flat_out = false;
+    private int frames_per_second = 30;
+    private Timer render_timer = null;
+
+    // timer ticks to let go by because the last frame took longer than one
+    private int frames_to_skip = 0;
+    private long frame_nanos = 0;
+
+    // steps/sec for the overlay, measured from the frames drawn
+    private int rate_step = 0;
+    private long rate_time = 0;
+    private double steps_per_second = 0;
+
     // When an internal error has occurred this string is set to report the
     // problem
     private String error_msg;
@@ -80,14 +130,89 @@ public class Squirm extends JFrame implements Runnable {
      * Squirm Class Constructor
      */
     public Squirm() {
+        this(50, 50);
+    }
+
+    /**
+     * a grid x by y squares, zoomed to fit across the window
+     */
+    public Squirm(int x, int y) {
+        grid_size_x = x;
+        grid_size_y = y;
+        viewport = new SquirmViewport(grid_size_x, grid_size_y, drawing_size_x, drawing_size_y);
         try {
-            squirmGrid = new SquirmGrid(grid_size_x, grid_size_y);
-            chemistry = new SquirmChemistry();
+            final SquirmConfig config = new SquirmConfig();
+            config.setSize(grid_size_x, grid_size_y);
+            config.setReactionSet(typeOfReactionAllowedEditableFromSrc);
+            engine = SquirmEngine.create(config);
+            squirmGrid = engine.getGrid();
+            chemistry = engine.getChemistry();
+            frames = engine.getFrames();
         } catch (Error e) {
             error_thrown = true;
             error_msg = e.getMessage();
         }
         error_msg = new String();
+        addInputListeners();
+    }
+
+    /**
+     * MOUSE AND KEY SUPPORT: moving the mouse inspects the atom under it,
+     * dragging pans the view, the wheel and + and - zoom about the mouse
+     */
+    private void addInputListeners() {
+        final MouseAdapter mouse = new MouseAdapter() {
+            public void mouseMoved(final MouseEvent e) {
+                inspect(e.getX(), e.getY());
+            }
+
+            public void mousePressed(final MouseEvent e) {
+                pointer_x = e.getX();
+                pointer_y = e.getY();
+                drag_x = e.getX();
+                drag_y = e.getY();
+                drag_origin_x = viewport.getOriginX();
+                drag_origin_y = viewport.getOriginY();
+            }
+
+            public void mouseDragged(final MouseEvent e) {
+                pointer_x = e.getX();
+                pointer_y = e.getY();
+                viewport.setOrigin(drag_origin_x, drag_origin_y);
+                viewport.pan(e.getX() - drag_x, e.getY() - drag_y);
+                repaint();
+            }
+
+            public void mouseWheelMoved(final MouseWheelEvent e) {
+                pointer_x = e.getX();
+                pointer_y = e.getY();
+                // wheel away from the user zooms in
+                zoom(-e.getWheelRotation());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+        addKeyListener(new KeyAdapter() {
+            public void keyTyped(final KeyEvent e) {
+                final char key = e.getKeyChar();
+                if (key == '+' || key == '=')
+                    zoom(1);
+                else if (key == '-')
+                    zoom(-1);
+            }
+        });
+    }
+
+    /**
+     * time the steps and the painting and publish them over JMX (see
+     * SquirmStats); call before start()
+     */
+    public void enableStats() {
+        if (engine != null) {
+            stats = engine.getStats();
+            stats.register();
+        }
     }
 
     public void togglePaused() {
@@ -106,6 +231,17 @@ public class Squirm extends JFrame implements Runnable {
         squirmGrid.setFloodPeriod(period);
     }
 
+    /**
+     * step without sleeping and draw fps frames a second, or go back to
+     * drawing every draw_every steps with a delay in between
+     */
+    public void setFlatOut(boolean on, int fps) {
+        if (fps <= 0)
+            throw new Error("Squirm::setFlatOut : frames per second must be positive");
+        flat_out = on;
+        frames_per_second = fps;
+    }
+
     public void setDrawOnlyEvery(int every) {
         draw_every = every;
     }
@@ -121,10 +257,12 @@ public class Squirm extends JFrame implements Runnable {
         final SquirmReaction r = new SquirmReaction(us_type.toCharArray()[0], us_state, current_bond,
                 them_type.toCharArray()[0], them_state, future_us_state, future_bond, future_them_state);
         chemistry.addReaction(r);
+        showReaction(r);
+    }
 
+    private void showReaction(final SquirmReaction r) {
         // DEBUG: show each received reaction
-        final String msg = us_type + us_state + (current_bond ? "-" : " ") + them_type + them_state + " => " + us_type
-        + future_us_state + (future_bond ? "-" : " ") + them_type + future_them_state + "; ";
+        final String msg = r + "; ";
         error_msg += msg;
         final String addReaction = msg;
         LOGGER.info("Adding reaction allowed on the grid (init) : " + addReaction);        
@@ -160,134 +298,10 @@ public class Squirm extends JFrame implements Runnable {
             off_g = offscreenImage.getGraphics();
         }
 
-        // ------------ manually added reactions --------------------------
-
-        // DEBUG: add some reactions directly (have disabled the javascript
-        // interface)
-
-        removeAllReactions();
-
-        // which reaction-set do you want?
-        final int typeOfReactionAllowedEditableFromSrc = 0;
-        switch (typeOfReactionAllowedEditableFromSrc) {
-        case 0: {
-            // new slimline replication reactions (for: e8-a1-b1-...-f1)
-            addReaction("e", 8, false, "e", 0, 4, true, 3); // R1
-            addReaction("x", 4, true,  "y", 1, 2, true, 5); // R2
-            addReaction("x", 5, false, "x", 0, 7, true, 6); // R3
-            addReaction("x", 3, false, "y", 6, 2, true, 3); // R4
-            addReaction("x", 7, true,  "y", 3, 4, true, 3); // R5
-            addReaction("f", 4, true,  "f", 3, 8, false, 8); // R6
-            addReaction("x", 2, true,  "y", 8, 9, true, 1); // R7
-            addReaction("x", 9, true,  "y", 9, 8, false, 8); // R8
-            break;
-        }
-        case 1: {
-            // genes as instructions (for: e1-a1-b1-...-f1)
-            addReaction("e", 1, false, "e", 0, 4, true, 3); // R1
-            addReaction("x", 4, true,  "y", 1, 2, true, 5); // R2
-            addReaction("x", 5, false, "x", 0, 7, true, 6); // R3
-            addReaction("x", 3, false, "y", 6, 2, true, 3); // R4
-            addReaction("x", 7, true,  "y", 3, 4, true, 3); // R5
-            addReaction("f", 4, true,  "f", 3, 8, false, 8); // R6
-            addReaction("x", 2, true,  "y", 8, 9, true, 10); // R7
-            addReaction("x", 9, true,  "y", 9, 8, false, 8); // R8
-
-            addReaction("f", 10, true, "x", 10, 1, true, 11); // R9
-            addReaction("x", 12, true, "y", 10, 1, true, 11); // R10
-            addReaction("e", 8, true,  "x", 12, 1, true, 1); // R11
-
-            // some catalysing reactions to try
-            addReaction("a", 11, false, "b", 0, 12, false, 1); // R12?
-            addReaction("b", 11, false, "a", 0, 12, false, 0); // R13?
-            addReaction("c", 11, false, "d", 0, 12, false, 0); // R14?
-            addReaction("d", 11, false, "d", 0, 12, false, 0); // R15?
-            break;
-        }
-        case 5: // Variant 5 replication reactions
-        {
-            // -- the reactions for self-replicating strings --
-            addReaction("e", 1, false, "e", 0, 4, true, 10); // R1
-            addReaction("x", 4, true, "y", 1, 2, true, 5); // R2
-            addReaction("x", 5, false, "x", 0, 7, true, 6); // R3
-            addReaction("x", 10, false, "y", 6, 3, true, 10); // R4
-            addReaction("x", 7, true, "y", 10, 4, true, 10); // R5
-            addReaction("f", 4, true, "f", 10, 8, false, 8); // R6
-            addReaction("x", 2, true, "y", 8, 9, true, 1); // R7
-            addReaction("x", 3, true, "y", 8, 9, true, 1); // R8
-            addReaction("x", 9, true, "y", 9, 8, false, 8); // R9
-            addReaction("e", 8, true, "x", 1, 1, true, 1); // R10
-            break;
-        }
-        case 9: // Variant 9 replication and membrane reactions
-        {
-            // pre-duplication hurdles (to slow things down)
-            addReaction("e", 1, false, "d", 0, 37, false, 0);
-            addReaction("e", 37, false, "c", 0, 38, false, 0);
-            // start of duplication
-            addReaction("e", 38, false, "a", 11, 5, true, 10); // R8 // was 4,
-            // not 11 (slows
-            // down+tidies)
-            addReaction("a", 10, true, "a", 4, 10, true, 11); // R9
-            addReaction("a", 11, false, "e", 6, 13, true, 3); // R10
-            // mid-duplication
-            addReaction("x", 4, true, "y", 1, 2, true, 5); // R1
-            addReaction("x", 5, false, "x", 0, 7, true, 6); // R2
-            addReaction("x", 3, false, "y", 6, 2, true, 3); // R3
-            addReaction("x", 7, true, "x", 3, 4, true, 3); // R4
-            // start of splitting
-            addReaction("f", 4, false, "a", 4, 8, true, 10); // R7a
-            addReaction("f", 3, false, "a", 11, 8, false, 12); // R7b
-            // mid-splitting
-            addReaction("x", 8, true, "y", 8, 9, false, 9); // R5
-            addReaction("x", 9, true, "y", 2, 1, true, 8); // R6
-
-            // start of pulling
-            addReaction("a", 10, true, "f", 1, 19, true, 12); // R18
-            addReaction("a", 12, false, "f", 11, 20, true, 21); // R19
-            addReaction("a", 19, true, "f", 21, 19, true, 11); // R20
-            addReaction("a", 20, false, "x", 13, 15, true, 14); // R21
-            // mid-pulling
-            addReaction("x", 12, true, "y", 1, 11, true, 13); // R12
-            addReaction("a", 9, false, "x", 13, 15, true, 14); // R13
-            addReaction("a", 15, true, "x", 11, 16, false, 17); // R14
-            addReaction("a", 16, true, "x", 14, 9, true, 12); // R15
-            addReaction("x", 17, true, "y", 11, 1, true, 11); // R16
-            // end of pulling
-            addReaction("x", 12, true, "e", 9, 11, true, 13); // R17
-
-            // membranes join
-            addReaction("a", 15, true, "e", 12, 22, false, 13); // R23
-            addReaction("a", 22, true, "a", 19, 22, true, 25); // R23b
-            addReaction("a", 25, true, "f", 1, 26, false, 1); // R23c
-            addReaction("a", 26, false, "a", 10, 24, true, 23); // R24
-
-            // membranes separate
-            addReaction("a", 22, true, "a", 24, 11, false, 4); // R25 // tried
-            // with 11 here
-            // instead of 4
-            addReaction("a", 14, true, "a", 23, 27, false, 28); // R26
-
-            // gene-strings are released into their new membranes
-            addReaction("a", 27, true, "e", 9, 4, false, 1); // R27
-            addReaction("a", 28, true, "e", 13, 30, false, 29); // R28
-            addReaction("e", 29, true, "x", 17, 1, true, 1); // R29
-            addReaction("a", 30, true, "a", 11, 4, true, 4); // R31
-
-            // synthesis of a31's through contact of a0 with x1 or x2 (pretty
-            // liberal)
-            addReaction("x", 1, false, "a", 0, 1, false, 31); // R32
-            addReaction("x", 2, false, "a", 0, 2, false, 31); // R32b
-
-            // membrane growth
-            addReaction("a", 4, false, "a", 31, 33, true, 32); // R33
-            addReaction("a", 33, true, "a", 4, 34, true, 35); // R34
-            addReaction("a", 35, false, "a", 32, 36, true, 4); // R35
-            addReaction("a", 36, true, "a", 34, 4, false, 4); // R36
-            break;
-        }
-        }
-
+        // the engine was created with the reaction set, just report it
+        error_msg = "";
+        for (final SquirmReaction r : chemistry.getReactions())
+            showReaction(r);
     }
 
     /**
@@ -304,12 +318,36 @@ public class Squirm extends JFrame implements Runnable {
         if (off_g == null) {
             return;
         }
-        // Clear the background
-        off_g.setColor(Color.white);
-        off_g.fillRect(0, 0, drawing_size_x, drawing_size_y);
+        final long start = System.nanoTime();
+        // Draw the cells, from a copy so that stepping can carry on
+        final SquirmFrame frame = frames.latest();
+        shown = frame;
+        if (viewport.isDensity()) {
+            if (density == null)
+                density = new SquirmDensity(grid_size_x, grid_size_y, drawing_size_x, drawing_size_y);
+            density.setBlock(viewport.getBlock());
+            density.update(frame);
+            density.render(viewport.getOriginX(), viewport.getOriginY());
+            off_g.drawImage(density.getImage(), 0, 0, null);
+        } else {
+            // only the atoms in view are drawn
+            if (raster == null || raster.getSquarePixels() != viewport.getSquarePixels())
+                raster = new SquirmRaster(viewport.getSquaresX(), viewport.getSquaresY(),
+                        viewport.getSquarePixels());
+            raster.render(frame, viewport.getOriginX(), viewport.getOriginY());
+            off_g.drawImage(raster.getImage(), 0, 0, null);
+        }
 
-        // Draw the cells
-        squirmGrid.draw(off_g, scale, delay <= FAST);
+        // draw the time step counter on top, with how fast it's going
+        final long now = System.nanoTime();
+        if (now - rate_time >= 500000000L) {
+            steps_per_second = rate_time == 0 ? 0 : (frame.getStep() - rate_step) / ((now - rate_time) / 1e9);
+            rate_step = frame.getStep();
+            rate_time = now;
+        }
+        off_g.setColor(Color.black);
+        off_g.drawString(frame.getStep() + "  steps/sec " + Math.round(steps_per_second) + "  frame "
+                + String.format("%.1f", frame_nanos / 1e6) + " ms", 10, 10);
 
         // Show the result.
         g.drawImage(offscreenImage, 0, 0, this);
@@ -317,6 +355,12 @@ public class Squirm extends JFrame implements Runnable {
         if ((counter % 100) == 0) {
             LOGGER.info("Counter update : value=" + counter);
         }
+
+        // a slow frame makes the timer skip the ticks it overran
+        frame_nanos = System.nanoTime() - start;
+        if (stats != null)
+            stats.painted(frame_nanos);
+        frames_to_skip = (int) (frame_nanos * frames_per_second / 1000000000L);
     }
 
     /**
@@ -342,6 +386,17 @@ public class Squirm extends JFrame implements Runnable {
             m_Squirm = new Thread(this);
             m_Squirm.start();
         }
+        if (flat_out && render_timer == null) {
+            render_timer = new Timer(1000 / frames_per_second, new ActionListener() {
+                public void actionPerformed(final ActionEvent e) {
+                    if (frames_to_skip > 0)
+                        frames_to_skip--;
+                    else
+                        repaint();
+                }
+            });
+            render_timer.start();
+        }
     }
 
     /**
@@ -353,6 +408,10 @@ public class Squirm extends JFrame implements Runnable {
         if (m_Squirm != null) {
             m_Squirm = null;
         }
+        if (render_timer != null) {
+            render_timer.stop();
+            render_timer = null;
+        }
     }
 
     /**
@@ -368,17 +427,21 @@ public class Squirm extends JFrame implements Runnable {
                 // ask the squirm world to execute one time step
                 try {
                     if (!paused) {
-                        squirmGrid.doTimeStep(chemistry);
+                        engine.step(1);
                     }
                 } catch (Error e) {
                     error_msg = e.getMessage();
                     error_thrown = true;
                 }
 
-                if (squirmGrid.getCount() % draw_every == 0)
-                    repaint();
-
-                Thread.sleep(delay);
+                // flat out the render timer does the drawing
+                if (!flat_out) {
+                    if (squirmGrid.getCount() % draw_every == 0)
+                        repaint();
+                    Thread.sleep(delay);
+                } else if (paused) {
+                    Thread.sleep(delay);
+                }
             } catch (final InterruptedException e) {
                 // TODO: Place exception-handling code here in case an
                 // InterruptedException is thrown by Thread.sleep(),
@@ -389,18 +452,31 @@ public class Squirm extends JFrame implements Runnable {
     }
 
     /**
-     * MOUSE SUPPORT: The mouseMove() method is called if the mouse cursor moves
-     * over the applet's portion of the screen and the mouse button isn't being
-     * held down.
+     * show what's on the square at screen point (x,y)
      */
-    public boolean mouseMove(Event evt, int x, int y) {
+    private void inspect(int x, int y) {
+        pointer_x = x;
+        pointer_y = y;
         // find which slot we're pointing at
-        int slot_x = (int) ((float) x / scale);
-        int slot_y = (int) ((float) y / scale);
-        inspect_msg = squirmGrid.getContents(slot_x, slot_y);
+        int slot_x = viewport.squareX(x);
+        int slot_y = viewport.squareY(y);
+        // from the frame on screen, the world itself belongs to the stepping
+        // thread
+        inspect_msg = shown != null ? shown.getContents(slot_x, slot_y) : "";
+        if (viewport.isDensity() && density != null)
+            inspect_msg += " " + density.describe(slot_x, slot_y);
         inspect_msg_x = x;
         inspect_msg_y = y - 3;
-        return true;
+    }
+
+    /**
+     * zoom in (dz > 0) or out about the mouse
+     */
+    private void zoom(int dz) {
+        if (dz == 0)
+            return;
+        viewport.zoom(pointer_x, pointer_y, dz);
+        repaint();
     }
 
 } // End of the class //
@@ -26,57 +26,89 @@ package org.squirm.chem;
 
 import java.awt.Color;
 
+/**
+ * Type and state of an atom. The values themselves live packed in the
+ * SquirmWorld arrays, this class (and SquirmCell) only keep the atom's id.
+ * 
+ * Views are only good until the next SquirmWorld.compact(): that hands the
+ * ids of dead atoms out again. A view whose id has gone to another atom
+ * throws rather than read it; make a new view from the square instead. Two
+ * views are equal if they are of the same atom.
+ */
 class SquirmCellProperties {
-    
-    private int type;
-    private int state;
-    protected int time_since_last_reaction = 0;
-    
+
+    protected final SquirmWorld world;
+    protected final int id;
+    /** the id's SquirmWorld.getReissued() when the view was made */
+    private final int reissued;
+
     private static final int MAX_TYPES = 6; // 0-5
     private static final int MAX_STATES = 11; // this is controversial right now
 
-    protected static final int MAX_AGE = 1000;
+    /** held apart so that headless runs never load AWT */
+    private static final class Colours {
+        static final Color TYPE_COLOURS[] = { Color.red.brighter(), Color.green, Color.orange, Color.gray,
+                Color.cyan, Color.blue.brighter() };
+    }
 
-    private Color TYPE_COLOURS[] = { Color.red.brighter(), Color.green, Color.orange, Color.gray,
-            Color.cyan, Color.blue.brighter() };
+    public static int getRandomType(final SquirmRandom random) {
+        return random.nextInt(MAX_TYPES);
+    }
 
-    public static int getRandomType() {
-        return (int) Math.floor(Math.random() * MAX_TYPES);
+    public static int getRandomCodonType(final SquirmRandom random) {
+        return random.nextInt(MAX_TYPES - 2) + 2;
     }
 
-    public int getRandomCodonType() {
-        return (int) Math.floor(Math.random() * (MAX_TYPES - 2)) + 2;
+    public static int getRandomState(final SquirmRandom random) {
+        return random.nextInt(MAX_STATES);
     }
 
-    public int getRandomState() {
-        return (int) Math.floor(Math.random() * MAX_STATES);
+    public SquirmCellProperties(final SquirmWorld world, int id) {
+        if (world.getSquare(id) < 0)
+            throw new Error("SquirmCellProperties::SquirmCellProperties : no atom with that id");
+
+        this.world = world;
+        this.id = id;
+        reissued = world.getReissued(id);
     }
 
-    public SquirmCellProperties(int t, int s) {
-        if (t < 0 || t >= MAX_TYPES)
-            throw new Error("SquirmCellProperties::SquirmCellProperties : type not in valid range");
+    public int getId() {
+        return id;
+    }
 
-        // if(s<0 || s>=MAX_STATES)
-        // throw new
-        // Error("SquirmCellProperties::SquirmCellProperties : state not in valid range");
+    /**
+     * the square this atom currently sits on
+     */
+    public int getSquare() {
+        final int sq = world.getSquare(id);
+        if (world.getReissued(id) != reissued)
+            throw new Error("SquirmCellProperties::getSquare : stale view, the id is another atom's now");
+        if (sq < 0)
+            throw new Error("SquirmCellProperties::getSquare : atom has been killed");
+        return sq;
+    }
 
-        type = t;
-        state = s;
+    public static Color getColour(int type) {
+        return Colours.TYPE_COLOURS[type];
     }
 
     public Color getColour() {
-        return TYPE_COLOURS[type];
+        return Colours.TYPE_COLOURS[getType()];
     }
 
     public int getType() {
-        return type;
+        return world.getType(getSquare());
     }
 
     public int getState() {
-        return state;
+        return world.getState(getSquare());
     }
 
     public String getStringType() {
+        return getStringType(getType());
+    }
+
+    public static String getStringType(int type) {
         switch (type) {
         case 0:
             return "e";
@@ -95,19 +127,16 @@ class SquirmCellProperties {
         }
     }
 
-    public int getTimeSinceLastReaction() {
-        return time_since_last_reaction;
-    }
     public boolean isType(int t) {
-        return type == t;
+        return getType() == t;
     }
 
     public boolean isType(char t) {
-        return type == getType(t);
+        return getType() == getType(t);
     }
 
     public boolean isState(int s) {
-        return state == s;
+        return getState() == s;
     }
 
     public boolean isTypeAndState(int t, int s) {
@@ -119,12 +148,7 @@ class SquirmCellProperties {
     }
 
     public void setState(int s) {
-        // if this is a change then reset counter
-        if (state != s) {
-            time_since_last_reaction = 0;
-            state = s;
-        }
-        // (else actually no change...)
+        world.setState(getSquare(), s);
     }
 
     public static int getType(char t) {
@@ -146,7 +170,19 @@ class SquirmCellProperties {
         }
     }
     
+    public boolean equals(final Object o) {
+        if (!(o instanceof SquirmCellProperties))
+            return false;
+        final SquirmCellProperties other = (SquirmCellProperties) o;
+        return world == other.world && id == other.id && reissued == other.reissued;
+    }
+
+    public int hashCode() {
+        return 31 * System.identityHashCode(world) + id;
+    }
+
     public String toString() {
+        final int state = getState();
         return "[Super.SquirmCell : " + getStringType() + state + " / type=" + getStringType() + " state=" + state + "]"; 
     }
     
@@ -24,40 +24,31 @@ package org.squirm.chem;
 // SquirmCellSlot.java
 
 /**
- * Cell Slot.
+ * Cell Slot. A view of one square of a SquirmWorld.
  */
 public class SquirmCellSlot {
 
-    protected boolean has_occupant;
-    protected SquirmCell occupant;
+    protected final SquirmWorld world;
+    protected final int sq;
 
-    // Public constructor initializes size of grid
-    public SquirmCellSlot() {
-        has_occupant = false;
-    }
-
-    public void makeOccupied(SquirmCell occ) {
-        // !has_occupant is a necessary condition for calling this function
-        if (has_occupant)
-            throw new Error("SquirmCellSlot::makeOccupied : already occupied!");
-
-        has_occupant = true;
-        occupant = occ;
-    }
+    // Public constructor, views the square x,y of the world
+    public SquirmCellSlot(final SquirmWorld world, int x, int y) {
+        if (!world.inside(x, y))
+            throw new Error("SquirmCellSlot::SquirmCellSlot : square is off the grid!");
 
-    public void makeEmpty() {
-        has_occupant = false;
+        this.world = world;
+        this.sq = world.index(x, y);
     }
 
     public boolean queryEmpty() {
-        return !has_occupant;
+        return world.isEmpty(sq);
     }
 
     public SquirmCell getOccupant() {
         // has_occupant is a necessary condition for calling this function
-        if (!has_occupant)
+        if (world.isEmpty(sq))
             throw new Error("SquirmCellSlot::getOccupant : no occupant!");
 
-        return occupant;
+        return new SquirmCell(world, world.getId(sq));
     }
 } // End of the Class //
\ No newline at end of file
@@ -0,0 +1,180 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCensus.java
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Population counts of a SquirmWorld kept up to date as it changes, rather
+ * than by walking every atom: atoms by (type, state), bonds and reactions
+ * fired. States from n_states up are counted together.
+ * 
+ * Tiles stepped in parallel would fight over shared counters, so each
+ * stepping thread keeps its own changes and a count is the sum over the
+ * threads. Read them between steps, on the stepping thread.
+ */
+public class SquirmCensus {
+
+    private final SquirmWorld world;
+    private final int n_states;
+    private final int columns;
+
+    /** one thread's changes */
+    private static final class Counts {
+        final int atoms[];
+        long bond_ends = 0;
+        long fired = 0;
+
+        Counts(int columns) {
+            atoms = new int[columns];
+        }
+    }
+
+    private final CopyOnWriteArrayList<Counts> all = new CopyOnWriteArrayList<Counts>();
+    private final ThreadLocal<Counts> local = new ThreadLocal<Counts>() {
+        protected Counts initialValue() {
+            final Counts c = new Counts(columns);
+            all.add(c);
+            return c;
+        }
+    };
+
+    /**
+     * count the world's atoms now and keep counting, states from n_states up
+     * lumped together
+     */
+    public SquirmCensus(final SquirmWorld world, int n_states) {
+        if (n_states < 1)
+            throw new Error("SquirmCensus::SquirmCensus : need at least one state");
+        if (world.census != null)
+            throw new Error("SquirmCensus::SquirmCensus : the world is already being counted");
+        this.world = world;
+        this.n_states = n_states;
+        columns = 6 * (n_states + 1);
+        for (int i = 0; i < world.getOrderLength(); i++) {
+            final int sq = world.getSquare(world.getOrderId(i));
+            if (sq >= 0)
+                add(world.getCell(sq));
+        }
+        world.census = this;
+    }
+
+    /** the states a chemistry's reactions use, for n_states */
+    static int statesOf(final SquirmChemistry chemistry) {
+        int max = 0;
+        for (final SquirmReaction r : chemistry.getReactions())
+            max = Math.max(max, Math.max(Math.max(r.us_state, r.them_state),
+                    Math.max(r.future_us_state, r.future_them_state)));
+        return max + 1;
+    }
+
+    private int column(int cell) {
+        final int state = cell >>> SquirmWorld.STATE_SHIFT;
+        return ((cell >>> SquirmWorld.TYPE_SHIFT) & SquirmWorld.TYPE_MASK) * (n_states + 1)
+                + (state < n_states ? state : n_states);
+    }
+
+    // ---- changes, from the world ----
+
+    void change(int from, int to) {
+        final Counts c = local.get();
+        c.atoms[column(from)]--;
+        c.atoms[column(to)]++;
+    }
+
+    void add(int cell) {
+        final Counts c = local.get();
+        c.atoms[column(cell)]++;
+        c.bond_ends += Integer.bitCount(cell & SquirmWorld.BOND_MASK);
+    }
+
+    void remove(int cell) {
+        local.get().atoms[column(cell)]--;
+    }
+
+    void bond(int change) {
+        local.get().bond_ends += 2 * change;
+    }
+
+    void fired() {
+        local.get().fired++;
+    }
+
+    // ----------------------------------------------------------
+
+    /** stop counting */
+    public void detach() {
+        if (world.census == this)
+            world.census = null;
+    }
+
+    public int getStates() {
+        return n_states;
+    }
+
+    /** number of (type, state) counts, 6 types by n_states+1 */
+    public int getColumns() {
+        return columns;
+    }
+
+    /** the (type, state) count a column holds, state n_states is the rest */
+    public String getColumnName(int column) {
+        final int state = column % (n_states + 1);
+        return SquirmCellProperties.getStringType(column / (n_states + 1))
+                + (state < n_states ? Integer.toString(state) : n_states + "+");
+    }
+
+    /** all the (type, state) counts, into counts[0..getColumns()) */
+    public void getCounts(final long counts[]) {
+        for (int i = 0; i < columns; i++)
+            counts[i] = 0;
+        for (final Counts c : all)
+            for (int i = 0; i < columns; i++)
+                counts[i] += c.atoms[i];
+    }
+
+    public long getCount(int type, int state) {
+        final int column = type * (n_states + 1) + Math.min(state, n_states);
+        long n = 0;
+        for (final Counts c : all)
+            n += c.atoms[column];
+        return n;
+    }
+
+    public long getBonds() {
+        long ends = 0;
+        for (final Counts c : all)
+            ends += c.bond_ends;
+        return ends / 2;
+    }
+
+    /** reactions fired since counting started */
+    public long getFired() {
+        long n = 0;
+        for (final Counts c : all)
+            n += c.fired;
+        return n;
+    }
+
+} // End of the class //
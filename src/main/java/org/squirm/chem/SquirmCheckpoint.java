@@ -0,0 +1,384 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCheckpoint.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a grid, with its reactions, to a binary file and loads it back so
+ * that the run carries on exactly as it would have.
+ * 
+ * <pre>
+ * int    MAGIC, VERSION
+ * int    size x, size y
+ * int    time step count
+ * byte   on_right, flood on ; int flood period
+ * long   seed, random stream state
+ * byte   active set
+ * int    reactions ; each: char us_type, int us_state, byte current_bond,
+ *        char them_type, int them_state, int future_us_state,
+ *        byte future_bond, int future_them_state
+ * int    atoms
+ * int    runs ; each: int empty squares, int occupied squares (raster order)
+ * int[]  the packed cell of each occupied square, in raster order
+ * int[]  the sweep order, as the raster rank of each atom
+ * int    CRC32 of everything before it
+ * </pre>
+ * 
+ * All big-endian. Empty squares only cost their share of a run. Loading checks
+ * the CRC, then maps the file a window at a time and reads the cell arrays in
+ * bulk.
+ */
+public class SquirmCheckpoint {
+
+    public static final int MAGIC = 0x5351524D; // "SQRM"
+    public static final int VERSION = 2;
+
+    /** how much of the file is mapped at a time when loading */
+    private static final int WINDOW = 1 << 28;
+
+    private static final int BUFFER = 1 << 20;
+
+    /**
+     * write the grid and the chemistry's reactions to file
+     */
+    public static void save(final File file, final SquirmGrid grid, final SquirmChemistry chemistry)
+            throws IOException {
+        final SquirmWorldSnapshot snapshot = new SquirmWorldSnapshot(grid, chemistry);
+        snapshot.copyAll();
+        snapshot.detachIfComplete();
+        write(file, snapshot);
+    }
+
+    /**
+     * write a snapshot to file, on any thread once it's been started
+     */
+    static void write(final File file, final SquirmWorldSnapshot snapshot) throws IOException {
+        snapshot.copyAll();
+        final int n_squares = snapshot.n_squares;
+
+        // raster rank of each atom id, and the runs
+        final int rank[] = new int[Math.max(1, snapshot.id_limit)];
+        Arrays.fill(rank, -1);
+        int n_atoms = 0;
+        int n_runs = 0;
+        boolean in_atoms = false;
+        for (int sq = 0; sq < n_squares; sq++) {
+            if (snapshot.cell(sq) == SquirmWorld.EMPTY) {
+                in_atoms = false;
+            } else {
+                if (!in_atoms)
+                    n_runs++;
+                in_atoms = true;
+                rank[snapshot.id(sq)] = n_atoms++;
+            }
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            final Writer out = new Writer(raf.getChannel());
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(snapshot.n_x);
+            out.putInt(snapshot.n_y);
+            out.putInt(snapshot.count);
+            out.put(snapshot.on_right);
+            out.put(snapshot.flood);
+            out.putInt(snapshot.flood_period);
+            out.putLong(snapshot.seed);
+            out.putLong(snapshot.random_state);
+            out.put(snapshot.active_set);
+
+            out.putInt(snapshot.reactions.size());
+            for (final SquirmReaction r : snapshot.reactions) {
+                out.ensure(32);
+                out.buffer.putChar(r.us_type).putInt(r.us_state).put((byte) (r.current_bond ? 1 : 0));
+                out.buffer.putChar(r.them_type).putInt(r.them_state).putInt(r.future_us_state);
+                out.buffer.put((byte) (r.future_bond ? 1 : 0)).putInt(r.future_them_state);
+            }
+
+            out.putInt(n_atoms);
+            out.putInt(n_runs);
+            for (int sq = 0; sq < n_squares;) {
+                final int start = sq;
+                while (sq < n_squares && snapshot.cell(sq) == SquirmWorld.EMPTY)
+                    sq++;
+                final int first = sq;
+                while (sq < n_squares && snapshot.cell(sq) != SquirmWorld.EMPTY)
+                    sq++;
+                // trailing empty squares need no run
+                if (sq > first) {
+                    out.putInt(first - start);
+                    out.putInt(sq - first);
+                }
+            }
+            for (int sq = 0; sq < n_squares; sq++)
+                if (snapshot.cell(sq) != SquirmWorld.EMPTY)
+                    out.putInt(snapshot.cell(sq));
+            // killed atoms not yet compacted have no rank
+            int n_ordered = 0;
+            for (int i = 0; i < snapshot.n_order; i++) {
+                final int id = snapshot.orderAt(i);
+                if (rank[id] >= 0) {
+                    out.putInt(rank[id]);
+                    n_ordered++;
+                }
+            }
+            if (n_ordered != n_atoms)
+                throw new Error("SquirmCheckpoint::write : sweep order doesn't match the squares");
+            out.flush();
+            raf.writeInt((int) out.crc.getValue());
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * true if the file is a whole checkpoint, its checksum matching
+     */
+    public static boolean verify(final File file) {
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                final long size = channel.size();
+                if (size < 12 || raf.readInt() != MAGIC || raf.readInt() != VERSION)
+                    return false;
+                final CRC32 crc = new CRC32();
+                for (long position = 0; position < size - 4; position += WINDOW) {
+                    final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(WINDOW, size - 4 - position));
+                    crc.update(window);
+                }
+                raf.seek(size - 4);
+                return raf.readInt() == (int) crc.getValue();
+            } finally {
+                raf.close();
+            }
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * read a grid back, its reactions replace the chemistry's
+     */
+    public static SquirmGrid load(final File file, final SquirmChemistry chemistry) throws IOException {
+        if (!verify(file))
+            throw new IOException("checkpoint is damaged or not a checkpoint : " + file);
+        return loadVerified(file, chemistry);
+    }
+
+    /** load() of a file verify() has already passed */
+    static SquirmGrid loadVerified(final File file, final SquirmChemistry chemistry) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final Reader in = new Reader(raf.getChannel());
+            if (in.getInt() != MAGIC)
+                throw new IOException("not a squirm checkpoint : " + file);
+            final int version = in.getInt();
+            if (version != VERSION)
+                throw new IOException("checkpoint version " + version + " not supported : " + file);
+            final int n_x = in.getInt();
+            final int n_y = in.getInt();
+            final int count = in.getInt();
+            final boolean on_right = in.get() != 0;
+            final boolean flood = in.get() != 0;
+            final int flood_period = in.getInt();
+            final long seed = in.getLong();
+            final long random_state = in.getLong();
+            final boolean active_set = in.get() != 0;
+
+            final int n_reactions = in.getInt();
+            final Vector<SquirmReaction> reactions = new Vector<SquirmReaction>();
+            for (int i = 0; i < n_reactions; i++) {
+                final char us_type = in.getChar();
+                final int us_state = in.getInt();
+                final boolean current_bond = in.get() != 0;
+                final char them_type = in.getChar();
+                final int them_state = in.getInt();
+                final int future_us_state = in.getInt();
+                final boolean future_bond = in.get() != 0;
+                final int future_them_state = in.getInt();
+                reactions.add(new SquirmReaction(us_type, us_state, current_bond, them_type, them_state,
+                        future_us_state, future_bond, future_them_state));
+            }
+
+            final int n_atoms = in.getInt();
+            final int n_runs = in.getInt();
+            final int squares[] = new int[n_atoms];
+            int sq = 0;
+            int k = 0;
+            for (int i = 0; i < n_runs; i++) {
+                sq += in.getInt();
+                final int occupied = in.getInt();
+                if (occupied < 0 || k + occupied > n_atoms || sq + occupied > n_x * n_y)
+                    throw new IOException("corrupt runs in checkpoint : " + file);
+                for (int j = 0; j < occupied; j++)
+                    squares[k++] = sq++;
+            }
+            if (k != n_atoms)
+                throw new IOException("runs don't cover the atoms in checkpoint : " + file);
+            final int cells[] = new int[n_atoms];
+            in.getInts(cells);
+            final int order[] = new int[n_atoms];
+            in.getInts(order);
+
+            // put the atoms back in sweep order
+            final SquirmWorld world = new SquirmWorld(n_x, n_y);
+            for (int i = 0; i < n_atoms; i++) {
+                if (order[i] < 0 || order[i] >= n_atoms)
+                    throw new IOException("corrupt sweep order in checkpoint : " + file);
+                world.place(squares[order[i]], cells[order[i]]);
+            }
+            checkBonds(world, file);
+
+            chemistry.removeAllReactions();
+            for (final SquirmReaction r : reactions)
+                chemistry.addReaction(r);
+
+            final SquirmGrid grid = new SquirmGrid(world, seed, random_state, count, on_right);
+            grid.setFloodOnOff(flood);
+            grid.setFloodPeriod(flood_period);
+            grid.setActiveSet(active_set);
+            return grid;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** every bond has to be there at both ends */
+    private static void checkBonds(final SquirmWorld world, final File file) throws IOException {
+        for (int i = 0; i < world.getOrderLength(); i++) {
+            final int sq = world.getSquare(world.getOrderId(i));
+            for (int rest = world.getBonds(sq); rest != 0; rest &= rest - 1) {
+                final int dir = Integer.numberOfTrailingZeros(rest);
+                final int other = world.neighbour(sq, dir);
+                if (other < 0 || !world.hasBond(other, SquirmWorld.opposite(dir)))
+                    throw new IOException("bond without a partner in checkpoint : " + file);
+            }
+        }
+    }
+
+    /** buffered writes to a channel */
+    private static final class Writer {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+        final CRC32 crc = new CRC32();
+
+        Writer(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int n) throws IOException {
+            if (buffer.remaining() < n)
+                flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        void put(boolean b) throws IOException {
+            ensure(1);
+            buffer.put((byte) (b ? 1 : 0));
+        }
+
+        void putInt(int i) throws IOException {
+            ensure(4);
+            buffer.putInt(i);
+        }
+
+        void putLong(long l) throws IOException {
+            ensure(8);
+            buffer.putLong(l);
+        }
+    }
+
+    /** reads through a read-only memory map, moved along a window at a time */
+    private static final class Reader {
+        final FileChannel channel;
+        final long size;
+        long position = 0;
+        MappedByteBuffer window = null;
+
+        Reader(final FileChannel channel) throws IOException {
+            this.channel = channel;
+            size = channel.size();
+        }
+
+        private ByteBuffer need(int n) throws IOException {
+            if (window == null || window.remaining() < n) {
+                if (window != null)
+                    position += window.position();
+                if (position + n > size)
+                    throw new IOException("checkpoint is truncated");
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+            }
+            return window;
+        }
+
+        byte get() throws IOException {
+            return need(1).get();
+        }
+
+        char getChar() throws IOException {
+            return need(2).getChar();
+        }
+
+        int getInt() throws IOException {
+            return need(4).getInt();
+        }
+
+        long getLong() throws IOException {
+            return need(8).getLong();
+        }
+
+        void getInts(final int dst[]) throws IOException {
+            int done = 0;
+            while (done < dst.length) {
+                final ByteBuffer w = need(4);
+                final int n = Math.min(dst.length - done, w.remaining() / 4);
+                w.asIntBuffer().get(dst, done, n);
+                w.position(w.position() + n * 4);
+                done += n;
+            }
+        }
+    }
+
+} // End of the class //
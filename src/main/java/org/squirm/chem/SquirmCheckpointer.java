@@ -0,0 +1,245 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCheckpointer.java
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Checkpoints a run every so many steps without stopping it.
+ * 
+ * On the stepping thread a checkpoint only starts a SquirmWorldSnapshot;
+ * a background thread copies the pages the simulation hasn't already copied
+ * (copy-on-write) and writes the file. The pause is the time to start the
+ * snapshot plus the page copies the simulation made itself before the
+ * background thread got to them, both reported.
+ * 
+ * Files are written as checkpoint-<step>.sqrm (via a .tmp and a rename) and
+ * only the newest few are kept. If a checkpoint is still being written when
+ * the next is due, the next is skipped.
+ */
+public class SquirmCheckpointer implements SquirmStepListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmCheckpointer.class);
+
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".sqrm";
+
+    private final File directory;
+    private final int every;
+    private final int keep;
+    private final SquirmChemistry chemistry;
+    private final ExecutorService writer;
+
+    /** (stepping thread) the snapshot still copy-on-write */
+    private SquirmWorldSnapshot attached = null;
+    private long start_nanos = 0;
+    private volatile boolean writing = false;
+
+    private volatile long written = 0;
+    private volatile long skipped = 0;
+    private volatile long failed = 0;
+    private volatile long last_pause = 0;
+    private volatile long max_pause = 0;
+
+    public SquirmCheckpointer(final File directory, final SquirmChemistry chemistry, int every, int keep) {
+        if (every < 1 || keep < 1)
+            throw new Error("SquirmCheckpointer::SquirmCheckpointer : every and keep must be at least 1");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new Error("SquirmCheckpointer::SquirmCheckpointer : can't make " + directory);
+        this.directory = directory;
+        this.chemistry = chemistry;
+        this.every = every;
+        this.keep = keep;
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "squirm-checkpointer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * (stepping thread) start a checkpoint if one is due
+     */
+    public void stepped(final SquirmGrid grid) {
+        if (attached != null && attached.detachIfComplete()) {
+            pause(start_nanos + attached.getWorldCopyNanos(), attached);
+            attached = null;
+        }
+        if (grid.getCount() % every != 0)
+            return;
+        if (writing || attached != null) {
+            skipped++;
+            LOGGER.warn("Checkpoint skipped, the last one is still being written : step=" + grid.getCount());
+            return;
+        }
+        if (grid.getWorld().snapshot != null) {
+            // someone else's, say a journal's keyframe
+            skipped++;
+            LOGGER.warn("Checkpoint skipped, another snapshot is being taken : step=" + grid.getCount());
+            return;
+        }
+        final long start = System.nanoTime();
+        final SquirmWorldSnapshot snapshot = new SquirmWorldSnapshot(grid, chemistry);
+        start_nanos = System.nanoTime() - start;
+        attached = snapshot;
+        writing = true;
+        writer.execute(new Runnable() {
+            public void run() {
+                try {
+                    write(snapshot);
+                } catch (final RuntimeException | Error e) {
+                    failed++;
+                    LOGGER.error("Checkpoint failed, snapshot dropped : step=" + snapshot.getCount(), e);
+                } finally {
+                    // detached by the stepping thread at its next step,
+                    // or the world would go on copying pages for nothing
+                    snapshot.release();
+                    writing = false;
+                }
+            }
+        });
+    }
+
+    private void pause(long nanos, final SquirmWorldSnapshot snapshot) {
+        last_pause = nanos;
+        if (nanos > max_pause)
+            max_pause = nanos;
+        LOGGER.info("Checkpoint pause : step=" + snapshot.getCount() + " us=" + nanos / 1000 + " pagesCopiedByRun="
+                + snapshot.getWorldCopies());
+    }
+
+    private void write(final SquirmWorldSnapshot snapshot) {
+        final long start = System.nanoTime();
+        final File file = new File(directory, name(snapshot.getCount()));
+        final File tmp = new File(directory, file.getName() + ".tmp");
+        try {
+            SquirmCheckpoint.write(tmp, snapshot);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            written++;
+            LOGGER.info("Checkpoint written : " + file + " ms=" + (System.nanoTime() - start) / 1000000);
+            rotate();
+        } catch (final IOException e) {
+            failed++;
+            LOGGER.error("Checkpoint failed : " + file + " " + e);
+            tmp.delete();
+        }
+    }
+
+    static String name(int step) {
+        return String.format(PREFIX + "%010d" + SUFFIX, step);
+    }
+
+    /** the step a checkpoint file was written at */
+    static int stepOf(final File file) {
+        final String name = file.getName();
+        return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /** the checkpoints in a directory, oldest first */
+    static File[] list(final File directory) {
+        final File files[] = directory.listFiles(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null)
+            return new File[0];
+        // the step is zero padded, so by name is by step
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void rotate() {
+        final File files[] = list(directory);
+        for (int i = 0; i < files.length - keep; i++)
+            if (!files[i].delete())
+                LOGGER.warn("Couldn't delete old checkpoint : " + files[i]);
+    }
+
+    /**
+     * the newest checkpoint in the directory whose checksum is good, or null
+     */
+    public static File findNewest(final File directory) {
+        final File files[] = list(directory);
+        for (int i = files.length - 1; i >= 0; i--) {
+            if (SquirmCheckpoint.verify(files[i]))
+                return files[i];
+            LOGGER.warn("Skipping damaged checkpoint : " + files[i]);
+        }
+        return null;
+    }
+
+    /**
+     * wait for the checkpoint being written, once stepping has stopped
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.HOURS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (attached != null && attached.detachIfComplete()) {
+            pause(start_nanos + attached.getWorldCopyNanos(), attached);
+            attached = null;
+        }
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    /** checkpoints not started because the last was still being written */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /** how long the run was held up by the last finished checkpoint */
+    public long getLastPauseNanos() {
+        return last_pause;
+    }
+
+    public long getMaxPauseNanos() {
+        return max_pause;
+    }
+
+} // End of the class //
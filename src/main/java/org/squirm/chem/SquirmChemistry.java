@@ -35,149 +35,192 @@ class SquirmChemistry {
     
     private Vector<SquirmReaction> reactions;
 
+    /**
+     * A reaction compiled for one us type, with the wildcards resolved
+     */
+    static final class Rule {
+        /** position of the reaction in the list, rules fire in this order */
+        final int order;
+        final SquirmReaction source;
+        /** type the neighbour must be, -1 for any */
+        final int them_type;
+        final int them_state;
+        final boolean current_bond;
+        final boolean future_bond;
+        final int future_us_state;
+        final int future_them_state;
+
+        Rule(int order, final SquirmReaction r, int them_type) {
+            this.order = order;
+            this.source = r;
+            this.them_type = them_type;
+            this.them_state = r.them_state;
+            this.current_bond = r.current_bond;
+            this.future_bond = r.future_bond;
+            this.future_us_state = r.future_us_state;
+            this.future_them_state = r.future_them_state;
+        }
+    }
+
+    /**
+     * rules that can fire for an atom of type t in state s are at
+     * table[t*n_states+s] (null if none), in reaction list order
+     */
+    private Rule table[][] = new Rule[0][];
+    private int n_states = 0;
+
     public SquirmChemistry() {
         reactions = new Vector<SquirmReaction>();
     }
 
     public void removeAllReactions() {
         reactions.removeAllElements();
+        compile();
     }
 
     public void addReaction(final SquirmReaction r) {
-        reactions.addElement(r);
-    }
-
-    public void react(SquirmCellSlot cell_grid[][], SquirmCell cell, Vector<SquirmCell> neighbours) {
-        // try all the reactions in turn
-        for (Enumeration<SquirmReaction> e = reactions.elements(); e.hasMoreElements();) {
-            tryReaction(cell_grid, cell, neighbours, (SquirmReaction) e.nextElement());
-        }
-    }
-
-    protected void tryReaction(SquirmCellSlot cell_grid[][], SquirmCell cell, Vector<SquirmCell> neighbours,
-            SquirmReaction r) {
-        tryReaction(cell_grid, cell, neighbours, r.us_type, r.us_state, r.current_bond, r.them_type, r.them_state,
-                r.future_us_state, r.future_bond, r.future_them_state);
-    }
-
-    protected void tryReaction(final SquirmCellSlot cell_grid[][], SquirmCell cell, Vector<SquirmCell> neighbours,
-            char us_type, int us_state, boolean current_bond, char them_type, int them_state, int future_us_state,
-            boolean future_bond, int future_them_state) {
-
         // us_type is one of {e,f,a,b,c,d,x}
-        if (us_type != 'e' && us_type != 'f' && us_type != 'a' && us_type != 'b' && us_type != 'c' && us_type != 'd'
-                && us_type != 'x')
-            throw new Error("SquirmChemistry::Reaction() : invalid us_type");
+        if (r.us_type != 'e' && r.us_type != 'f' && r.us_type != 'a' && r.us_type != 'b' && r.us_type != 'c'
+                && r.us_type != 'd' && r.us_type != 'x')
+            throw new Error("SquirmChemistry::addReaction : invalid us_type");
 
         // them_type is one of {e,f,a,b,c,d,x,y}
-        if (them_type != 'e' && them_type != 'f' && them_type != 'a' && them_type != 'b' && them_type != 'c'
-                && them_type != 'd' && them_type != 'x' && them_type != 'y')
-            throw new Error("SquirmChemistry::Reaction() : invalid them_type");
+        if (r.them_type != 'e' && r.them_type != 'f' && r.them_type != 'a' && r.them_type != 'b'
+                && r.them_type != 'c' && r.them_type != 'd' && r.them_type != 'x' && r.them_type != 'y')
+            throw new Error("SquirmChemistry::addReaction : invalid them_type");
 
         // sanity check on the states requested
-        if (us_state < 0 || them_state < 0 || future_us_state < 0 || future_them_state < 0)
-            throw new Error("SquirmChemistry::tryReaction() : states less than zero not permitted");
-
-        // are we the right kind of cell for this reaction?
-        if ((us_type != 'x' && cell.isTypeAndState(us_type, us_state)) || (us_type == 'x' && cell.isState(us_state))) {
-            // do we have a neighbour (bonded/not) that is the right kind for
-            // this reaction?
-            Vector<SquirmCell> search_from = current_bond ? cell.getBonds() : neighbours;
-            Vector<SquirmCell> ns;
-            // if them_type specified then search for it
-            if (them_type != 'x' && them_type != 'y')
-                ns = getThoseOfTypeAndState(search_from, them_type, them_state);
-            // if unspecified but to be same as us_type then search for it
-            else if (them_type == 'x' && us_type == 'x')
-                ns = getThoseOfTypeAndState(search_from, cell.getType(), them_state);
-            // must be unspecified
-            else if ((them_type == 'x' && us_type != 'x') || them_type == 'y')
-                ns = getThoseOfState(search_from, them_state);
-            else
-                throw new Error("SquirmChemistry::tryReaction() : unexpected case statement");
-            // try the reaction on each of the possibles
-            for (Enumeration<SquirmCell> e = ns.elements(); e.hasMoreElements();) {
-                SquirmCell n = (SquirmCell) e.nextElement();
-                // reactions can happen if the two cells are right next to each
-                // other (share a face) or over a diagonal (share a corner) if
-                // the other diagonal
-                // doesn't have a bond
-                boolean can_react = false;
-
-                if (rightNextToEachOther(cell, n))
-                    can_react = true;
-                else {
-                    // if either other diagonal square is empty then OK
-                    if (cell_grid[cell.getX()][n.getY()].queryEmpty() || cell_grid[n.getX()][cell.getY()].queryEmpty())
-                        can_react = true;
-                    else {
-                        // otherwise, if there is no bond between diagonals then
-                        // still OK
-                        SquirmCell cellA = cell_grid[cell.getX()][n.getY()].getOccupant();
-                        SquirmCell cellB = cell_grid[n.getX()][cell.getY()].getOccupant();
-                        if (!cellA.getBonds().contains(cellB))
-                            can_react = true;
-                    }
-                }
+        if (r.us_state < 0 || r.them_state < 0 || r.future_us_state < 0 || r.future_them_state < 0)
+            throw new Error("SquirmChemistry::addReaction : states less than zero not permitted");
+        if (r.us_state > SquirmWorld.MAX_STATE || r.them_state > SquirmWorld.MAX_STATE
+                || r.future_us_state > SquirmWorld.MAX_STATE || r.future_them_state > SquirmWorld.MAX_STATE)
+            throw new Error("SquirmChemistry::addReaction : state too large");
 
-                if (can_react) {
-                    // make or break bonds as specified
-                    if (current_bond && !future_bond) {
-                        LOGGER.info("Breaking bond : UsType=" + us_type + " UsState=" + us_state + " ThemType=" + them_type + " ThemState=" + them_state);
-                        cell.breakBondWith(n);
-                    } else if (!current_bond && future_bond) {
-                        LOGGER.info("Making bond : UsType=" + us_type + " UsState=" + us_state + " ThemType=" + them_type + " ThemState=" + them_state);                                               
-                        cell.makeBondWith(n);
-                    }
-                    // set our states to their new values
-                    cell.setState(future_us_state);
-                    n.setState(future_them_state);
-                    break;
-                }
-            }
-        }
+        reactions.addElement(r);
+        compile();
     }
 
-    protected Vector<SquirmCell> getThoseOfTypeAndState(Vector<SquirmCell> cells, char type, int state) {
-        return getThoseOfTypeAndState(cells, SquirmCellProperties.getType(type), state);
+    public Vector<SquirmReaction> getReactions() {
+        return reactions;
     }
 
-    protected Vector<SquirmCell> getThoseOfTypeAndState(Vector<SquirmCell> cells, int type, int state) {
-        // do any of these cells match the type and state specified?
-        // if so return all that match (empty list if none)
-
-        Vector<SquirmCell> v = new Vector<SquirmCell>();
-        SquirmCell c;
-        for (Enumeration<SquirmCell> enumx = cells.elements(); enumx.hasMoreElements();) {
-            c = ((SquirmCell) enumx.nextElement());
-            if (type != -1) {
-                if (c.isTypeAndState(type, state))
-                    v.addElement(c);
-            } else if (c.isState(state))
-                v.addElement(c);
-        }
-
-        return v;
+    /** the compiled rules, see table */
+    Rule[][] getTable() {
+        return table;
     }
 
-    protected Vector<SquirmCell> getThoseOfState(final Vector<SquirmCell> cells, int state) {
-        // do any of these cells match the state specified? (any type)
-        // if so return all that match (empty list if none)
+    /** one more than the highest us_state of any reaction */
+    int getStateCount() {
+        return n_states;
+    }
 
-        final Vector<SquirmCell> v = new Vector<SquirmCell>();
-        SquirmCell c;
-        for (Enumeration<SquirmCell> enumx = cells.elements(); enumx.hasMoreElements();) {
-            c = ((SquirmCell) enumx.nextElement());
-            if (c.isState(state)) {
-                v.addElement(c);
+    /**
+     * rebuild the (type, state) table from the reaction list
+     */
+    private void compile() {
+        int max_state = -1;
+        for (Enumeration<SquirmReaction> e = reactions.elements(); e.hasMoreElements();)
+            max_state = Math.max(max_state, e.nextElement().us_state);
+        final int states = max_state + 1;
+        final Vector<Vector<Rule>> lists = new Vector<Vector<Rule>>();
+        lists.setSize(6 * states);
+        int order = 0;
+        for (Enumeration<SquirmReaction> e = reactions.elements(); e.hasMoreElements(); order++) {
+            final SquirmReaction r = e.nextElement();
+            for (int type = 0; type < 6; type++) {
+                // are we the right kind of cell for this reaction?
+                if (r.us_type != 'x' && type != SquirmCellProperties.getType(r.us_type))
+                    continue;
+                final int them;
+                // if them_type specified then search for it
+                if (r.them_type != 'x' && r.them_type != 'y')
+                    them = SquirmCellProperties.getType(r.them_type);
+                // if unspecified but to be same as us_type then search for it
+                else if (r.them_type == 'x' && r.us_type == 'x')
+                    them = type;
+                // must be unspecified
+                else
+                    them = -1;
+                final int slot = type * states + r.us_state;
+                if (lists.get(slot) == null)
+                    lists.set(slot, new Vector<Rule>());
+                lists.get(slot).addElement(new Rule(order, r, them));
             }
         }
+        final Rule compiled[][] = new Rule[6 * states][];
+        for (int i = 0; i < compiled.length; i++)
+            if (lists.get(i) != null)
+                compiled[i] = lists.get(i).toArray(new Rule[lists.get(i).size()]);
+        table = compiled;
+        n_states = states;
+    }
 
-        return v;
+    /**
+     * neighbours is the direction mask of the unbonded atoms next to sq
+     */
+    public void react(final SquirmWorld world, int sq, int neighbours) {
+        // try all the reactions in turn; once one fires our state may have
+        // changed, so carry on from the next reaction in the list using the
+        // rules for our new state
+        int from = 0;
+        while (true) {
+            final int state = world.getState(sq);
+            if (state >= n_states)
+                return;
+            final Rule rules[] = table[world.getType(sq) * n_states + state];
+            if (rules == null)
+                return;
+            int i = 0;
+            while (i < rules.length && rules[i].order < from)
+                i++;
+            boolean fired = false;
+            for (; i < rules.length && !fired; i++) {
+                if (world.tried(rules[i].order, tryReaction(world, sq, neighbours, rules[i]))) {
+                    from = rules[i].order + 1;
+                    fired = true;
+                }
+            }
+            if (!fired)
+                return;
+        }
     }
 
-    protected boolean rightNextToEachOther(SquirmCell cell1, SquirmCell cell2) {
-        return (Math.abs(cell1.getX() - cell2.getX()) + Math.abs(cell1.getY() - cell2.getY()) < 2);
+    /**
+     * try a rule already known to match our type and state, returns whether
+     * it fired
+     */
+    protected boolean tryReaction(final SquirmWorld world, int sq, int neighbours, final Rule r) {
+        // do we have a neighbour (bonded/not) that is the right kind for
+        // this reaction? try the reaction on each of the possibles
+        for (int rest = r.current_bond ? world.getBonds(sq) : neighbours; rest != 0; rest &= rest - 1) {
+            final int dir = Integer.numberOfTrailingZeros(rest);
+            final int n = sq + world.offsets[dir];
+            if (world.getState(n) != r.them_state || (r.them_type != -1 && world.getType(n) != r.them_type))
+                continue;
+
+            // reactions can happen if the two cells are right next to each
+            // other (share a face) or over a diagonal (share a corner) if
+            // the other diagonal
+            // doesn't have a bond
+            if (world.canReact(sq, dir)) {
+                // make or break bonds as specified
+                if (r.current_bond && !r.future_bond) {
+                    if (LOGGER.isDebugEnabled())
+                        LOGGER.debug("Breaking bond : UsType=" + r.source.us_type + " UsState=" + r.source.us_state + " ThemType=" + r.source.them_type + " ThemState=" + r.them_state);
+                    world.breakBond(sq, dir);
+                } else if (!r.current_bond && r.future_bond) {
+                    if (LOGGER.isDebugEnabled())
+                        LOGGER.debug("Making bond : UsType=" + r.source.us_type + " UsState=" + r.source.us_state + " ThemType=" + r.source.them_type + " ThemState=" + r.them_state);
+                    world.makeBond(sq, dir);
+                }
+                // set our states to their new values
+                world.setState(sq, r.future_us_state);
+                world.setState(n, r.future_them_state);
+                world.reacted(sq);
+                return true;
+            }
+        }
+        return false;
     }
 
 } // End of the class //
\ No newline at end of file
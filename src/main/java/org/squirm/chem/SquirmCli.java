@@ -0,0 +1,292 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCli.java
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Command line entry point, runs a SquirmEngine without a window.
+ * 
+ * <pre>
+ * SquirmCli [--size WxH] [--seed N] [--rules 0|1|5|9] [--steps N]
+ *           [--threads N] [--tile N] [--active] [--compiled] [--molecules]
+ *           [--replicators N] [--index] [--stats]
+ *           [--flood PERIOD] [--report N]
+ *           [--record DIR] [--record-every N] [--record-format png|raw]
+ *           [--record-policy block|drop-newest|drop-oldest]
+ *           [--load FILE] [--save FILE]
+ *           [--checkpoint DIR] [--checkpoint-every N] [--checkpoint-keep N]
+ *           [--resume DIR] [--journal DIR] [--journal-keyframe N]
+ *           [--series FILE] [--series-every N] [--series-downsample N]
+ *           [--series-format csv|binary]
+ *           [--density D] [--types E,F,A,B,C,D] [--seed-string STRING[:COPIES]]...
+ * </pre>
+ */
+public class SquirmCli {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmCli.class);
+
+    /**
+     * Main entry point.
+     */
+    public static void main(final String[] args) {
+        final SquirmConfig config = new SquirmConfig();
+        long steps = 10000;
+        int report = 1000;
+        String record = null;
+        String load = null;
+        String save = null;
+        String checkpoint = null;
+        int checkpoint_every = 10000;
+        int checkpoint_keep = 3;
+        String resume = null;
+        boolean track_molecules = false;
+        int replicators_top = 0;
+        boolean spatial_index = false;
+        boolean stats = false;
+        String journal_dir = null;
+        int journal_keyframe = 1000;
+        String series_file = null;
+        int series_every = 10;
+        int series_downsample = 1;
+        SquirmTimeSeries.Format series_format = SquirmTimeSeries.Format.CSV;
+        int record_every = 100;
+        SquirmRecorder.Format record_format = SquirmRecorder.Format.PNG;
+        SquirmRecorder.Policy record_policy = SquirmRecorder.Policy.BLOCK;
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (arg.equals("--active")) {
+                config.setActiveSet(true);
+            } else if (arg.equals("--compiled")) {
+                config.setCompiled(true);
+            } else if (arg.equals("--molecules")) {
+                track_molecules = true;
+            } else if (arg.equals("--index")) {
+                spatial_index = true;
+            } else if (arg.equals("--stats")) {
+                stats = true;
+            } else if (i + 1 >= args.length) {
+                usage("missing value for " + arg);
+            } else if (arg.equals("--size")) {
+                final String size[] = args[++i].split("x");
+                config.setSize(Integer.parseInt(size[0]), Integer.parseInt(size[size.length - 1]));
+            } else if (arg.equals("--seed")) {
+                config.setSeed(Long.parseLong(args[++i]));
+            } else if (arg.equals("--rules")) {
+                config.setReactionSet(Integer.parseInt(args[++i]));
+            } else if (arg.equals("--steps")) {
+                steps = Long.parseLong(args[++i]);
+            } else if (arg.equals("--threads")) {
+                config.setThreads(Integer.parseInt(args[++i]));
+            } else if (arg.equals("--tile")) {
+                config.setTileSize(Integer.parseInt(args[++i]));
+            } else if (arg.equals("--flood")) {
+                config.setFlood(true, Integer.parseInt(args[++i]));
+            } else if (arg.equals("--report")) {
+                report = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--load")) {
+                load = args[++i];
+            } else if (arg.equals("--save")) {
+                save = args[++i];
+            } else if (arg.equals("--checkpoint")) {
+                checkpoint = args[++i];
+            } else if (arg.equals("--checkpoint-every")) {
+                checkpoint_every = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--checkpoint-keep")) {
+                checkpoint_keep = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--resume")) {
+                resume = args[++i];
+            } else if (arg.equals("--journal")) {
+                journal_dir = args[++i];
+            } else if (arg.equals("--journal-keyframe")) {
+                journal_keyframe = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--density")) {
+                config.setDensity(Double.parseDouble(args[++i]));
+            } else if (arg.equals("--types")) {
+                final String w[] = args[++i].split(",");
+                final double weights[] = new double[w.length];
+                for (int t = 0; t < w.length; t++)
+                    weights[t] = Double.parseDouble(w[t]);
+                config.setTypeWeights(weights);
+            } else if (arg.equals("--seed-string")) {
+                final String s[] = args[++i].split(":");
+                config.addSeedString(s[0], s.length > 1 ? Integer.parseInt(s[1]) : 1);
+            } else if (arg.equals("--replicators")) {
+                replicators_top = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--series")) {
+                series_file = args[++i];
+            } else if (arg.equals("--series-every")) {
+                series_every = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--series-downsample")) {
+                series_downsample = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--series-format")) {
+                series_format = SquirmTimeSeries.Format.valueOf(args[++i].toUpperCase());
+            } else if (arg.equals("--record")) {
+                record = args[++i];
+            } else if (arg.equals("--record-every")) {
+                record_every = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--record-format")) {
+                record_format = SquirmRecorder.Format.valueOf(args[++i].toUpperCase());
+            } else if (arg.equals("--record-policy")) {
+                record_policy = SquirmRecorder.Policy.valueOf(args[++i].toUpperCase().replace('-', '_'));
+            } else {
+                usage("unknown option " + arg);
+            }
+        }
+
+        if (resume != null) {
+            // the newest good checkpoint, or a fresh run if there isn't one
+            final File newest = SquirmCheckpointer.findNewest(new File(resume));
+            if (newest != null)
+                load = newest.getPath();
+            else
+                LOGGER.warn("No checkpoint to resume from in " + resume);
+        }
+        final SquirmEngine engine;
+        try {
+            engine = load != null ? SquirmEngine.resume(config, new File(load)) : SquirmEngine.create(config);
+        } catch (final IOException e) {
+            LOGGER.error("Can't load : " + e);
+            System.exit(1);
+            return;
+        }
+        final SquirmCheckpointer checkpointer = checkpoint != null ? engine.checkpointEvery(new File(checkpoint),
+                checkpoint_every, checkpoint_keep) : null;
+        SquirmJournal journal = null;
+        if (journal_dir != null) {
+            try {
+                journal = engine.journal(new File(journal_dir), journal_keyframe, Math.min(100, journal_keyframe));
+            } catch (final IOException e) {
+                LOGGER.error("Can't journal : " + e);
+                System.exit(1);
+                return;
+            }
+        }
+        if (track_molecules)
+            engine.getMolecules();
+        if (spatial_index)
+            engine.getSpatialIndex();
+        if (stats)
+            engine.getStats().register();
+        final SquirmReplicators replicators = replicators_top > 0 ? engine.getReplicators(64) : null;
+        SquirmTimeSeries series = null;
+        if (series_file != null) {
+            try {
+                series = engine.timeSeries(new File(series_file), series_format, series_every, series_downsample);
+            } catch (final IOException e) {
+                LOGGER.error("Can't write the time series : " + e);
+                System.exit(1);
+                return;
+            }
+        }
+        SquirmRecorder recorder = null;
+        if (record != null) {
+            // frames at least 512 pixels across
+            final SquirmWorld world = engine.getWorld();
+            final int pixels = Math.max(1, 512 / Math.max(world.getSizeX(), world.getSizeY()));
+            recorder = new SquirmRecorder(new File(record), world.getSizeX(), world.getSizeY(), record_every,
+                    record_format, record_policy, 16, Runtime.getRuntime().availableProcessors(), pixels);
+            engine.addStepListener(recorder);
+        }
+        try {
+            for (long done = 0; done < steps;) {
+                final int n = (int) Math.min(report, steps - done);
+                engine.step(n);
+                done += n;
+                LOGGER.info(report(engine) + (recorder != null ? " dropped=" + recorder.getDropped() : ""));
+                if (replicators != null)
+                    LOGGER.info(report(replicators, replicators_top));
+                if (stats)
+                    LOGGER.info(report(engine.getStats()));
+            }
+            if (save != null)
+                engine.save(new File(save));
+        } catch (final IOException e) {
+            LOGGER.error("Can't save : " + e);
+        } finally {
+            engine.close();
+            if (recorder != null)
+                recorder.close();
+            if (series != null) {
+                try {
+                    series.close();
+                    LOGGER.info("Time series : rows=" + series.getRows() + " waits=" + series.getWaits());
+                } catch (final IOException e) {
+                    LOGGER.error("Can't write the time series : " + e);
+                }
+            }
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (final IOException e) {
+                    LOGGER.error("Can't close the journal : " + e);
+                }
+            }
+            if (checkpointer != null) {
+                checkpointer.close();
+                LOGGER.info("Checkpoints : written=" + checkpointer.getWritten() + " skipped="
+                        + checkpointer.getSkipped() + " maxPauseUs=" + checkpointer.getMaxPauseNanos() / 1000);
+            }
+        }
+    }
+
+    static String report(final SquirmEngine engine) {
+        final SquirmMolecules molecules = engine.getMoleculesIfTracked();
+        return "step=" + engine.getGrid().getCount() + " atoms=" + engine.getWorld().getAtomCount()
+                + " stepsPerSec=" + String.format("%.1f", engine.getStepsPerSecond()) + " atomUpdatesPerSec="
+                + String.format("%.3g", engine.getAtomUpdatesPerSecond())
+                + (molecules != null ? " molecules=" + molecules.getCount() + " largest=" + molecules.getLargest()
+                        : "");
+    }
+
+    static String report(final SquirmReplicators replicators, int top) {
+        final StringBuilder s = new StringBuilder("chains=" + replicators.getLinear() + " sequences="
+                + replicators.getDistinct());
+        for (final SquirmReplicators.Sequence q : replicators.getTop(top))
+            s.append(' ').append(q).append(String.format("(%.3g/M)", replicators.getBirthRate(q)));
+        return s.toString();
+    }
+
+    static String report(final SquirmStats stats) {
+        return String.format("stepMsP50=%.3f stepMsP99=%.3f reactMs=%.3f moveMs=%.3f ageMs=%.3f floods=%d floodMs=%.3f",
+                stats.getStepTimeP50(), stats.getStepTimeP99(), stats.getReactTime(), stats.getMoveTime(),
+                stats.getAgeTime(), stats.getFloods(), stats.getFloodTimeMean());
+    }
+
+    private static void usage(final String problem) {
+        LOGGER.error(problem);
+        LOGGER.error("usage: SquirmCli [--size WxH] [--seed N] [--rules 0|1|5|9] [--steps N] [--threads N]"
+                + " [--tile N] [--active] [--compiled] [--molecules] [--replicators N] [--index] [--stats] [--flood PERIOD] [--report N] [--record DIR]"
+                + " [--record-every N] [--record-format png|raw] [--record-policy block|drop-newest|drop-oldest]"
+                + " [--load FILE] [--save FILE] [--checkpoint DIR] [--checkpoint-every N] [--checkpoint-keep N]"
+                + " [--resume DIR] [--journal DIR] [--journal-keyframe N] [--series FILE] [--series-every N]"
+                + " [--series-downsample N] [--series-format csv|binary] [--density D] [--types E,F,A,B,C,D]"
+                + " [--seed-string STRING[:COPIES]]...");
+        System.exit(1);
+    }
+
+} // End of the class //
@@ -0,0 +1,325 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCompiledChemistry.java
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A SquirmChemistry that turns its reaction table into Java source, with the
+ * rule types, states and bond changes written in as constants, and compiles
+ * it into a SquirmReactor class at runtime. Meant for long runs with a fixed
+ * rule set; it can be used anywhere a SquirmChemistry is.
+ * 
+ * The reactor is regenerated the first time react() is called after the
+ * reactions change. If no compiler is available (running on a JRE) the
+ * interpreted table in SquirmChemistry is used instead.
+ */
+class SquirmCompiledChemistry extends SquirmChemistry {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmCompiledChemistry.class);
+
+    private static final String GENERATED_PACKAGE = "org.squirm.chem.generated";
+
+    /**
+     * number of reactor classes generated so far, to keep their names unique
+     * (under the class lock, see reactorFor())
+     */
+    private static int n_generated = 0;
+
+    /** a compiled reactor and its source */
+    private static final class Generated {
+        final SquirmReactor reactor;
+        final String source;
+
+        Generated(final SquirmReactor reactor, final String source) {
+            this.reactor = reactor;
+            this.source = source;
+        }
+    }
+
+    /**
+     * reactors compiled so far, by their source under a fixed class name,
+     * so worlds with the same rules (e.g. in a SquirmEnsemble) only pay for
+     * the compiler once; reactors keep no state and can be shared
+     */
+    private static final Map<String, Generated> generated = new HashMap<String, Generated>();
+
+    /** the current reactor, null when the reactions have changed since */
+    private volatile SquirmReactor reactor;
+
+    /** set when the compiler isn't there, we then stay interpreted */
+    private volatile boolean interpreted = false;
+
+    private String source = "";
+
+    public void removeAllReactions() {
+        super.removeAllReactions();
+        reactor = null;
+    }
+
+    public void addReaction(final SquirmReaction r) {
+        super.addReaction(r);
+        reactor = null;
+    }
+
+    public void react(final SquirmWorld world, int sq, int neighbours) {
+        SquirmReactor r = reactor;
+        if (r == null && !interpreted)
+            r = recompile();
+        if (r == null)
+            super.react(world, sq, neighbours);
+        else
+            r.react(world, sq, neighbours);
+    }
+
+    /**
+     * the source of the current reactor (empty until it has been generated)
+     */
+    public synchronized String getGeneratedSource() {
+        return source;
+    }
+
+    /**
+     * generate and load a reactor for the current reactions
+     */
+    public synchronized SquirmReactor recompile() {
+        if (reactor != null)
+            return reactor;
+        final long start = System.currentTimeMillis();
+        final Generated g = reactorFor(getTable(), getStateCount());
+        if (g == null) {
+            LOGGER.warn("No Java compiler available, reactions stay interpreted");
+            interpreted = true;
+            return null;
+        }
+        LOGGER.info("Reactor for " + getReactions().size() + " reactions ready : ms="
+                + (System.currentTimeMillis() - start));
+        source = g.source;
+        reactor = g.reactor;
+        return reactor;
+    }
+
+    /**
+     * the reactor for these rules, compiled the first time they are seen;
+     * null if there is no compiler
+     */
+    private static synchronized Generated reactorFor(final Rule table[][], int states) {
+        final String key = generate("SquirmReactor", table, states);
+        Generated g = generated.get(key);
+        if (g == null) {
+            final String name = "SquirmReactor" + (++n_generated);
+            final String text = generate(name, table, states);
+            final SquirmReactor r = compile(GENERATED_PACKAGE + "." + name, text);
+            if (r == null)
+                return null;
+            LOGGER.info("Compiled reactor " + name);
+            g = new Generated(r, text);
+            generated.put(key, g);
+        }
+        return g;
+    }
+
+    // ----------------------------------------------------------
+
+    /**
+     * write the reactor source, one switch case per (type, state) with the
+     * rules for it tried in reaction list order, one method per rule
+     */
+    static String generate(final String name, final Rule table[][], int states) {
+        final int state_shift = SquirmWorld.STATE_SHIFT;
+        final StringBuilder out = new StringBuilder();
+        out.append("package ").append(GENERATED_PACKAGE).append(";\n\n");
+        out.append("import org.squirm.chem.SquirmReactor;\n");
+        out.append("import org.squirm.chem.SquirmWorld;\n\n");
+        out.append("public final class ").append(name).append(" implements SquirmReactor {\n\n");
+
+        out.append("    public void react(final SquirmWorld world, final int sq, final int neighbours) {\n");
+        out.append("        int from = 0;\n");
+        out.append("        while (true) {\n");
+        out.append("            final int cell = world.getCell(sq);\n");
+        out.append("            final int state = cell >>> ").append(state_shift).append(";\n");
+        out.append("            if (state >= ").append(states).append(")\n");
+        out.append("                return;\n");
+        out.append("            switch (((cell >>> ").append(SquirmWorld.TYPE_SHIFT).append(") & ")
+                .append(SquirmWorld.TYPE_MASK).append(") * ").append(states).append(" + state) {\n");
+        for (int slot = 0; slot < table.length; slot++) {
+            if (table[slot] == null)
+                continue;
+            final int type = slot / states;
+            out.append("            case ").append(slot).append(": // ")
+                    .append(SquirmCellProperties.getStringType(type)).append(slot % states).append('\n');
+            for (final Rule r : table[slot]) {
+                out.append("                if (from <= ").append(r.order).append(" && world.tried(").append(r.order)
+                        .append(", ").append(method(r, type)).append("(world, sq, neighbours))) {\n");
+                out.append("                    from = ").append(r.order + 1).append(";\n");
+                out.append("                    continue;\n");
+                out.append("                }\n");
+            }
+            out.append("                return;\n");
+        }
+        out.append("            default:\n");
+        out.append("                return;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+        out.append("    }\n");
+
+        // one method per distinct rule and us type
+        final Map<String, Boolean> written = new HashMap<String, Boolean>();
+        for (int slot = 0; slot < table.length; slot++) {
+            if (table[slot] == null)
+                continue;
+            for (final Rule r : table[slot]) {
+                final String method = method(r, slot / states);
+                if (written.put(method, Boolean.TRUE) != null)
+                    continue;
+                out.append("\n    // ").append(r.source).append('\n');
+                out.append("    private static boolean ").append(method)
+                        .append("(final SquirmWorld world, final int sq, final int neighbours) {\n");
+                out.append("        for (int rest = ").append(r.current_bond ? "world.getBonds(sq)" : "neighbours")
+                        .append("; rest != 0; rest &= rest - 1) {\n");
+                out.append("            final int dir = Integer.numberOfTrailingZeros(rest);\n");
+                out.append("            final int n = sq + world.getOffset(dir);\n");
+                out.append("            final int c = world.getCell(n);\n");
+                out.append("            if ((c >>> ").append(state_shift).append(") != ").append(r.them_state)
+                        .append(")\n");
+                out.append("                continue;\n");
+                if (r.them_type != -1) {
+                    out.append("            if (((c >>> ").append(SquirmWorld.TYPE_SHIFT).append(") & ")
+                            .append(SquirmWorld.TYPE_MASK).append(") != ").append(r.them_type).append(")\n");
+                    out.append("                continue;\n");
+                }
+                out.append("            if (!world.canReact(sq, dir))\n");
+                out.append("                continue;\n");
+                if (r.current_bond && !r.future_bond)
+                    out.append("            world.breakBond(sq, dir);\n");
+                else if (!r.current_bond && r.future_bond)
+                    out.append("            world.makeBond(sq, dir);\n");
+                out.append("            world.setState(sq, ").append(r.future_us_state).append(");\n");
+                out.append("            world.setState(n, ").append(r.future_them_state).append(");\n");
+                out.append("            world.reacted(sq);\n");
+                out.append("            return true;\n");
+                out.append("        }\n");
+                out.append("        return false;\n");
+                out.append("    }\n");
+            }
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    private static String method(final Rule r, int type) {
+        return "r" + r.order + "_" + SquirmCellProperties.getStringType(type);
+    }
+
+    /**
+     * compile the source in memory and load it, returns null if there is no
+     * compiler
+     */
+    private static SquirmReactor compile(final String class_name, final String text) {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return null;
+
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+        final StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+        final JavaFileManager in_memory = new ForwardingJavaFileManager<StandardJavaFileManager>(files) {
+            public JavaFileObject getJavaFileForOutput(Location location, final String name, Kind kind,
+                    FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    public OutputStream openOutputStream() {
+                        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        final JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///"
+                + class_name.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE) {
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return text;
+            }
+        };
+
+        final List<String> options = new ArrayList<String>();
+        options.add("-classpath");
+        options.add(classPath());
+        final StringWriter errors = new StringWriter();
+        final boolean ok = compiler.getTask(errors, in_memory, null, options, null, Collections.singletonList(unit))
+                .call().booleanValue();
+        if (!ok)
+            throw new Error("SquirmCompiledChemistry::compile : generated reactor didn't compile\n" + errors);
+
+        final ClassLoader loader = new ClassLoader(SquirmReactor.class.getClassLoader()) {
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                final ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null)
+                    return super.findClass(name);
+                final byte b[] = bytes.toByteArray();
+                return defineClass(name, b, 0, b.length);
+            }
+        };
+        try {
+            return (SquirmReactor) loader.loadClass(class_name).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new Error("SquirmCompiledChemistry::compile : couldn't load generated reactor : " + e);
+        }
+    }
+
+    /**
+     * our own classes have to be on the compiler's classpath
+     */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path", "");
+        try {
+            final File ours = new File(SquirmReactor.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            path = ours.getPath() + File.pathSeparator + path;
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't find where SquirmReactor was loaded from : " + e);
+        }
+        return path;
+    }
+
+} // End of the class //
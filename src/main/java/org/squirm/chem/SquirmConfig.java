@@ -0,0 +1,195 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmConfig.java
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for a SquirmEngine: grid size, seed, reaction set and how to step.
+ */
+public class SquirmConfig {
+
+    private int size_x = 50;
+    private int size_y = 50;
+
+    /** run seed, picked at random when not set */
+    private long seed = 0;
+    private boolean seeded = false;
+
+    /** one of SquirmReactionSets.VARIANTS */
+    private int reaction_set = 0;
+
+    /** compile the reactions to Java, see SquirmCompiledChemistry */
+    private boolean compiled = false;
+
+    private int threads = 1;
+    private int tile = SquirmGrid.DEFAULT_TILE;
+    private boolean active_set = false;
+
+    private boolean flood = false;
+    private int flood_period = 10000;
+
+    /**
+     * fill the grid to this density with SquirmWorldGenerator; 0 for the
+     * generator's own density if there are seed strings or type weights,
+     * else for the classic start (see SquirmGrid.initSimple)
+     */
+    private double density = 0;
+    /** raw material type weights for the generator, null for even */
+    private double type_weights[] = null;
+    private final List<String> seed_strings = new ArrayList<String>();
+    private final List<Integer> seed_copies = new ArrayList<Integer>();
+
+    public int getSizeX() {
+        return size_x;
+    }
+
+    public int getSizeY() {
+        return size_y;
+    }
+
+    public void setSize(int x, int y) {
+        if (x <= 0 || y <= 0)
+            throw new Error("SquirmConfig::setSize : grid size must be positive");
+        size_x = x;
+        size_y = y;
+    }
+
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+        seeded = true;
+    }
+
+    public int getReactionSet() {
+        return reaction_set;
+    }
+
+    public void setReactionSet(int variant) {
+        reaction_set = variant;
+    }
+
+    public boolean getCompiled() {
+        return compiled;
+    }
+
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new Error("SquirmConfig::setThreads : need at least one thread");
+        this.threads = threads;
+    }
+
+    public int getTileSize() {
+        return tile;
+    }
+
+    public void setTileSize(int tile) {
+        this.tile = tile;
+    }
+
+    public boolean getActiveSet() {
+        return active_set;
+    }
+
+    public void setActiveSet(boolean on) {
+        active_set = on;
+    }
+
+    public boolean getFlood() {
+        return flood;
+    }
+
+    public int getFloodPeriod() {
+        return flood_period;
+    }
+
+    public void setFlood(boolean on, int period) {
+        if (period <= 0)
+            throw new Error("SquirmConfig::setFlood : period must be positive");
+        flood = on;
+        flood_period = period;
+    }
+
+    public double getDensity() {
+        return density;
+    }
+
+    public void setDensity(double density) {
+        if (!(density >= 0 && density <= 1))
+            throw new Error("SquirmConfig::setDensity : density must be between 0 and 1");
+        this.density = density;
+    }
+
+    public double[] getTypeWeights() {
+        return type_weights;
+    }
+
+    public void setTypeWeights(final double weights[]) {
+        type_weights = weights;
+    }
+
+    /** for the generator: copies of a seed string such as "e8-a1-b1-c1-f1" */
+    public void addSeedString(final String string, int copies) {
+        SquirmWorldGenerator.parse(string);
+        seed_strings.add(string);
+        seed_copies.add(copies);
+    }
+
+    public List<String> getSeedStrings() {
+        return seed_strings;
+    }
+
+    public List<Integer> getSeedCopies() {
+        return seed_copies;
+    }
+
+    /** whether the world comes from SquirmWorldGenerator, see density */
+    public boolean isGenerated() {
+        return density > 0 || type_weights != null || !seed_strings.isEmpty();
+    }
+
+    public String toString() {
+        return "size=" + size_x + "x" + size_y + " seed=" + (seeded ? String.valueOf(seed) : "random")
+                + " reactionSet=" + reaction_set + " compiled=" + compiled + " threads=" + threads + " tile=" + tile
+                + " activeSet=" + active_set + " flood=" + (flood ? String.valueOf(flood_period) : "off")
+                + (isGenerated() ? " density=" + density + " seedStrings=" + seed_strings.size() : "");
+    }
+
+} // End of the class //
@@ -0,0 +1,244 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmDensity.java
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * The zoomed out view: the world cut into square blocks, one pixel each,
+ * coloured by the block's most common type and shaded by how full it is.
+ * 
+ * The type of each square as last seen is kept, and each frame only the
+ * squares that changed update their block's counts; only blocks whose counts
+ * changed are recoloured. Counts are rebuilt from the kept squares when the
+ * block size changes.
+ * 
+ * A SquirmFrame is a full copy of the atoms, so reading it is one pass over
+ * them (as SquirmRaster's culling is); the counting and recolouring go with
+ * how much changed.
+ */
+public final class SquirmDensity {
+
+    private static final int BACKGROUND = 0xFFFFFF;
+    private static final int TYPES = SquirmWorld.TYPE_MASK + 1;
+
+    private final int n_x, n_y;
+    private final int width, height;
+    private final BufferedImage image;
+    private final int pixels[];
+
+    /** type+1 of the atom last seen on each square, 0 if empty */
+    private final byte seen[];
+    /** the update that last saw an atom on each square */
+    private final int seen_in[];
+    private int n_updates = 0;
+    /** the squares occupied in the last frame, and in the one being read */
+    private int last[] = new int[0];
+    private int n_last = 0;
+    private int inside[] = new int[0];
+
+    private int block = 0;
+    private int blocks_x, blocks_y;
+    /** atoms of each type in each block, block*TYPES+type */
+    private short counts[] = new short[0];
+    private short totals[] = new short[0];
+
+    /** blocks whose counts changed since they were last coloured */
+    private int dirty[] = new int[0];
+    private int n_dirty = 0;
+    private boolean marked[] = new boolean[0];
+
+    /** block at the top left of the image, -1 until first drawn */
+    private int origin_bx = -1, origin_by = -1;
+
+    private final int type_rgb[] = new int[TYPES];
+
+    public SquirmDensity(int x, int y, int width, int height) {
+        n_x = x;
+        n_y = y;
+        this.width = width;
+        this.height = height;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        seen = new byte[n_x * n_y];
+        seen_in = new int[n_x * n_y];
+        for (int t = 0; t < TYPES; t++)
+            type_rgb[t] = t < 6 ? SquirmCellProperties.getColour(t).getRGB() & 0xFFFFFF : 0;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getBlock() {
+        return block;
+    }
+
+    /**
+     * use blocks of b by b squares, recounting if that's a change
+     */
+    public void setBlock(int b) {
+        if (b < 1)
+            throw new Error("SquirmDensity::setBlock : blocks must be at least one square");
+        if (b == block)
+            return;
+        block = b;
+        blocks_x = (n_x + b - 1) / b;
+        blocks_y = (n_y + b - 1) / b;
+        counts = new short[blocks_x * blocks_y * TYPES];
+        totals = new short[blocks_x * blocks_y];
+        marked = new boolean[blocks_x * blocks_y];
+        n_dirty = 0;
+        for (int sq = 0; sq < seen.length; sq++) {
+            if (seen[sq] != 0) {
+                final int k = (sq / n_x / b) * blocks_x + (sq % n_x) / b;
+                counts[k * TYPES + seen[sq] - 1]++;
+                totals[k]++;
+            }
+        }
+        origin_bx = -1;
+    }
+
+    /**
+     * count the changes since the last frame
+     */
+    public void update(final SquirmFrame frame) {
+        if (frame.getSizeX() != n_x || frame.getSizeY() != n_y)
+            throw new Error("SquirmDensity::update : frame is not the size of the world");
+        if (block == 0)
+            throw new Error("SquirmDensity::update : no block size set");
+        final int n = frame.getAtomCount();
+        if (inside.length < n)
+            inside = new int[n + n / 4];
+        final int update = ++n_updates;
+        for (int i = 0; i < n; i++) {
+            final int sq = frame.getSquare(i);
+            final byte t = (byte) (((frame.getCell(i) >>> SquirmWorld.TYPE_SHIFT) & SquirmWorld.TYPE_MASK) + 1);
+            final int old = seen[sq];
+            if (old != t) {
+                if (old != 0)
+                    count(sq, old - 1, -1);
+                count(sq, t - 1, 1);
+                seen[sq] = t;
+            }
+            seen_in[sq] = update;
+            inside[i] = sq;
+        }
+        // squares that have been left
+        for (int i = 0; i < n_last; i++) {
+            final int sq = last[i];
+            if (seen_in[sq] != update && seen[sq] != 0) {
+                count(sq, seen[sq] - 1, -1);
+                seen[sq] = 0;
+            }
+        }
+        // the squares read become the last frame's
+        final int swap[] = last;
+        last = inside;
+        inside = swap;
+        n_last = n;
+    }
+
+    private void count(int sq, int type, int delta) {
+        final int k = (sq / n_x / block) * blocks_x + (sq % n_x) / block;
+        counts[k * TYPES + type] += delta;
+        totals[k] += delta;
+        if (!marked[k]) {
+            marked[k] = true;
+            if (n_dirty == dirty.length)
+                dirty = Arrays.copyOf(dirty, Math.max(64, n_dirty * 2));
+            dirty[n_dirty++] = k;
+        }
+    }
+
+    /**
+     * recolour the image with the world square (x0,y0) at the top left;
+     * returns how many pixels were recoloured
+     */
+    public int render(int x0, int y0) {
+        final int bx0 = x0 / block;
+        final int by0 = y0 / block;
+        int recoloured = 0;
+        if (bx0 != origin_bx || by0 != origin_by) {
+            origin_bx = bx0;
+            origin_by = by0;
+            for (int py = 0; py < height; py++)
+                for (int px = 0; px < width; px++)
+                    pixels[py * width + px] = colour(bx0 + px, by0 + py);
+            recoloured = width * height;
+        } else {
+            for (int i = 0; i < n_dirty; i++) {
+                final int k = dirty[i];
+                final int px = k % blocks_x - bx0;
+                final int py = k / blocks_x - by0;
+                if (px >= 0 && py >= 0 && px < width && py < height) {
+                    pixels[py * width + px] = colour(k % blocks_x, k / blocks_x);
+                    recoloured++;
+                }
+            }
+        }
+        for (int i = 0; i < n_dirty; i++)
+            marked[dirty[i]] = false;
+        n_dirty = 0;
+        return recoloured;
+    }
+
+    /** the most common type, faded to white by how empty the block is */
+    private int colour(int bx, int by) {
+        if (bx >= blocks_x || by >= blocks_y)
+            return BACKGROUND;
+        final int k = by * blocks_x + bx;
+        if (totals[k] == 0)
+            return BACKGROUND;
+        int best = 0;
+        for (int t = 1; t < TYPES; t++)
+            if (counts[k * TYPES + t] > counts[k * TYPES + best])
+                best = t;
+        final int rgb = type_rgb[best];
+        final int f = (int) (256 * Math.sqrt(totals[k] / (double) (block * block)));
+        final int r = 255 - (((255 - (rgb >> 16 & 0xFF)) * f) >> 8);
+        final int g = 255 - (((255 - (rgb >> 8 & 0xFF)) * f) >> 8);
+        final int b = 255 - (((255 - (rgb & 0xFF)) * f) >> 8);
+        return r << 16 | g << 8 | b;
+    }
+
+    /**
+     * what's in the block holding square (x,y), for inspecting
+     */
+    public String describe(int x, int y) {
+        if (block == 0 || x < 0 || x >= n_x || y < 0 || y >= n_y)
+            return "";
+        final int k = (y / block) * blocks_x + x / block;
+        final StringBuilder msg = new StringBuilder();
+        msg.append(block).append("x").append(block).append(" block: ").append(totals[k]).append(" atoms");
+        for (int t = 0; t < 6; t++)
+            if (counts[k * TYPES + t] > 0)
+                msg.append(" ").append(SquirmCellProperties.getStringType(t)).append("=")
+                        .append(counts[k * TYPES + t]);
+        return msg.toString();
+    }
+
+} // End of the class //
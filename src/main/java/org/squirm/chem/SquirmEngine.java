@@ -0,0 +1,313 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmEngine.java
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Headless simulation: a SquirmGrid and its chemistry, stepped as fast as
+ * possible. Nothing in here touches AWT, so it runs on machines without a
+ * display.
+ * 
+ * <pre>
+ * SquirmEngine engine = SquirmEngine.create(config).step(100000);
+ * </pre>
+ */
+public class SquirmEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmEngine.class);
+
+    private final SquirmConfig config;
+    private final SquirmGrid grid;
+    private final SquirmChemistry chemistry;
+
+    /** where frames go for drawing, if anyone is drawing */
+    private volatile SquirmFrameExchange frames = null;
+
+    /** population counts, once someone has asked for them */
+    private SquirmCensus census = null;
+
+    /** molecule tracking, once someone has asked for it */
+    private SquirmMolecules molecules = null;
+    private SquirmReplicators replicators = null;
+    private SquirmSpatialIndex spatial = null;
+    private SquirmStats stats = null;
+
+    private final CopyOnWriteArrayList<SquirmStepListener> listeners = new CopyOnWriteArrayList<SquirmStepListener>();
+
+    /** totals over all calls to step() */
+    private long steps = 0;
+    private long atom_updates = 0;
+    private long nanos = 0;
+
+    private SquirmEngine(final SquirmConfig config, final SquirmGrid grid, final SquirmChemistry chemistry) {
+        this.config = config;
+        this.grid = grid;
+        this.chemistry = chemistry;
+        if (config.getThreads() > 1)
+            grid.setThreads(config.getThreads(), config.getTileSize());
+    }
+
+    public static SquirmEngine create(final SquirmConfig config) {
+        final SquirmChemistry chemistry = newChemistry(config);
+        SquirmReactionSets.addReactions(chemistry, config.getReactionSet());
+        final SquirmGrid grid;
+        if (config.isGenerated()) {
+            final SquirmWorldGenerator generator = new SquirmWorldGenerator(config.isSeeded() ? config.getSeed()
+                    : SquirmRandom.newSeed()).setThreads(config.getThreads());
+            if (config.getDensity() > 0)
+                generator.setDensity(config.getDensity());
+            if (config.getTypeWeights() != null)
+                generator.setTypeWeights(config.getTypeWeights());
+            for (int i = 0; i < config.getSeedStrings().size(); i++)
+                generator.addSeedString(config.getSeedStrings().get(i), config.getSeedCopies().get(i));
+            grid = generator.newGrid(config.getSizeX(), config.getSizeY());
+        } else {
+            grid = config.isSeeded() ? new SquirmGrid(config.getSizeX(), config.getSizeY(), config.getSeed())
+                    : new SquirmGrid(config.getSizeX(), config.getSizeY());
+        }
+        grid.setFloodOnOff(config.getFlood());
+        grid.setFloodPeriod(config.getFloodPeriod());
+        grid.setActiveSet(config.getActiveSet());
+        LOGGER.info("Created engine : " + config + " runSeed=" + grid.getSeed());
+        return new SquirmEngine(config, grid, chemistry);
+    }
+
+    /**
+     * carry on a saved run (see SquirmCheckpoint); the world, reactions,
+     * seed and flood settings come from the file, only the threads, tile and
+     * compiling are taken from the config
+     */
+    public static SquirmEngine resume(final SquirmConfig config, final File file) throws IOException {
+        final long start = System.nanoTime();
+        final SquirmChemistry chemistry = newChemistry(config);
+        final SquirmGrid grid = SquirmCheckpoint.load(file, chemistry);
+        LOGGER.info("Resumed engine : " + file + " step=" + grid.getCount() + " atoms="
+                + grid.getWorld().getAtomCount() + " ms=" + (System.nanoTime() - start) / 1000000);
+        return new SquirmEngine(config, grid, chemistry);
+    }
+
+    private static SquirmChemistry newChemistry(final SquirmConfig config) {
+        return config.getCompiled() ? new SquirmCompiledChemistry() : new SquirmChemistry();
+    }
+
+    /**
+     * write the run so far to file, between steps
+     */
+    public void save(final File file) throws IOException {
+        final long start = System.nanoTime();
+        SquirmCheckpoint.save(file, grid, chemistry);
+        LOGGER.info("Saved engine : " + file + " step=" + grid.getCount() + " ms="
+                + (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * run n time steps
+     */
+    public SquirmEngine step(int n) {
+        final long start = System.nanoTime();
+        long updates = 0;
+        for (int i = 0; i < n; i++) {
+            grid.doTimeStep(chemistry);
+            updates += grid.getSteppedLastStep();
+            final SquirmFrameExchange f = frames;
+            if (f != null && f.isWanted())
+                f.publish(grid);
+            if (!listeners.isEmpty())
+                for (final SquirmStepListener l : listeners)
+                    l.stepped(grid);
+        }
+        nanos += System.nanoTime() - start;
+        steps += n;
+        atom_updates += updates;
+        return this;
+    }
+
+    /**
+     * stop any stepping threads, the engine can't be stepped afterwards
+     */
+    public void close() {
+        grid.setThreads(1);
+        synchronized (this) {
+            if (stats != null)
+                stats.unregister();
+        }
+    }
+
+    /**
+     * start publishing a frame for drawing at the end of each step (when the
+     * last one has been taken); call before stepping starts
+     */
+    public synchronized SquirmFrameExchange getFrames() {
+        if (frames == null) {
+            final SquirmFrameExchange f = new SquirmFrameExchange(grid.getWorld().getSizeX(), grid.getWorld()
+                    .getSizeY());
+            f.publish(grid);
+            frames = f;
+        }
+        return frames;
+    }
+
+    /**
+     * checkpoint into directory every so many steps, in the background,
+     * keeping the newest few (see SquirmCheckpointer)
+     */
+    public SquirmCheckpointer checkpointEvery(final File directory, int every, int keep) {
+        final SquirmCheckpointer checkpointer = new SquirmCheckpointer(directory, chemistry, every, keep);
+        addStepListener(checkpointer);
+        return checkpointer;
+    }
+
+    /**
+     * journal every change to the world into directory, with a keyframe
+     * every so many steps, for SquirmReplay (see SquirmJournal)
+     */
+    public SquirmJournal journal(final File directory, int keyframe_every, int index_every) throws IOException {
+        final SquirmJournal journal = new SquirmJournal(directory, grid, chemistry, keyframe_every, index_every);
+        addStepListener(journal);
+        return journal;
+    }
+
+    /**
+     * start keeping population counts of the world (see SquirmCensus), for
+     * the states the reactions use; call between steps
+     */
+    public synchronized SquirmCensus getCensus() {
+        if (census == null)
+            census = new SquirmCensus(grid.getWorld(), SquirmCensus.statesOf(chemistry));
+        return census;
+    }
+
+    /**
+     * start keeping track of the molecules of the world (see
+     * SquirmMolecules); call between steps
+     */
+    public synchronized SquirmMolecules getMolecules() {
+        if (molecules == null) {
+            molecules = new SquirmMolecules(grid.getWorld());
+            addStepListener(molecules);
+        }
+        return molecules;
+    }
+
+    /**
+     * start counting the copies of chains of up to max_length atoms (see
+     * SquirmReplicators), tracking molecules too; call between steps
+     */
+    public synchronized SquirmReplicators getReplicators(int max_length) {
+        if (replicators == null) {
+            replicators = new SquirmReplicators(getMolecules(), grid.getWorld(), max_length);
+            addStepListener(replicators);
+        }
+        return replicators;
+    }
+
+    /**
+     * start filing the atoms by type, state and place for queries (see
+     * SquirmSpatialIndex); call it and query the index between steps, on
+     * the thread that steps
+     */
+    public synchronized SquirmSpatialIndex getSpatialIndex() {
+        if (spatial == null) {
+            spatial = new SquirmSpatialIndex(grid.getWorld());
+            addStepListener(spatial);
+        }
+        return spatial;
+    }
+
+    /**
+     * start timing the steps and counting the rules (see SquirmStats); call
+     * between steps, then register() it to watch over JMX
+     */
+    public synchronized SquirmStats getStats() {
+        if (stats == null)
+            stats = new SquirmStats(grid.getWorld(), chemistry);
+        return stats;
+    }
+
+    /** molecule tracking if it has been started, or null */
+    public synchronized SquirmMolecules getMoleculesIfTracked() {
+        return molecules;
+    }
+
+    /**
+     * write the population to file every so many steps, averaging downsample
+     * readings a row (see SquirmTimeSeries), with the molecules if they are
+     * being tracked
+     */
+    public SquirmTimeSeries timeSeries(final File file, final SquirmTimeSeries.Format format, int every,
+            int downsample) throws IOException {
+        final SquirmTimeSeries series = new SquirmTimeSeries(file, format, getCensus(),
+                getMoleculesIfTracked(), every, downsample, 1024);
+        addStepListener(series);
+        return series;
+    }
+
+    public void addStepListener(final SquirmStepListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeStepListener(final SquirmStepListener listener) {
+        listeners.remove(listener);
+    }
+
+    public SquirmConfig getConfig() {
+        return config;
+    }
+
+    public SquirmGrid getGrid() {
+        return grid;
+    }
+
+    public SquirmWorld getWorld() {
+        return grid.getWorld();
+    }
+
+    SquirmChemistry getChemistry() {
+        return chemistry;
+    }
+
+    /** time steps run through step() */
+    public long getSteps() {
+        return steps;
+    }
+
+    /** atoms stepped (not skipped as asleep) through step() */
+    public long getAtomUpdates() {
+        return atom_updates;
+    }
+
+    public double getStepsPerSecond() {
+        return nanos == 0 ? 0 : steps / (nanos / 1e9);
+    }
+
+    public double getAtomUpdatesPerSecond() {
+        return nanos == 0 ? 0 : atom_updates / (nanos / 1e9);
+    }
+
+} // End of the class //
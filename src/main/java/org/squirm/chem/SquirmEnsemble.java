@@ -0,0 +1,253 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmEnsemble.java
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs many independent worlds, one per task, on a fixed pool of threads.
+ * 
+ * The runs are pulled from an Iterator as threads come free, so a long list
+ * of runs can be generated lazily; no more than one world per thread is alive
+ * at a time. Each result is handed to the Listener (on the calling thread) as
+ * soon as its run finishes, in the order they finish.
+ * 
+ * Worlds share nothing, so each run steps sequentially on its own thread and
+ * throughput goes up with the number of cores.
+ * 
+ * Each run counts its chains of up to REPLICATOR_LENGTH atoms as it goes
+ * (see SquirmReplicators) and reports the commonest, so an ensemble shows
+ * how often replicators take hold.
+ */
+public class SquirmEnsemble {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmEnsemble.class);
+
+    /** how often (in steps) a run looks for cancellation */
+    private static final int CHECK_EVERY = 100;
+
+    /** longest chain counted as a replicator */
+    static final int REPLICATOR_LENGTH = 32;
+    /** shortest chain reported as a replicator */
+    private static final int REPLICATOR_MIN = 3;
+
+    public interface Listener {
+        void finished(SquirmRunResult result);
+    }
+
+    private final int threads;
+    private final ExecutorService pool;
+    private volatile boolean cancelled = false;
+
+    public SquirmEnsemble(int threads) {
+        if (threads < 1)
+            throw new Error("SquirmEnsemble::SquirmEnsemble : need at least one thread");
+        this.threads = threads;
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "squirm-ensemble-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * run every spec, blocking until they have all finished or the ensemble
+     * is cancelled; returns the number of results given to the listener
+     */
+    public int run(final Iterator<SquirmRunSpec> specs, final Listener listener) {
+        final CompletionService<SquirmRunResult> done = new ExecutorCompletionService<SquirmRunResult>(pool);
+        int running = 0;
+        int finished = 0;
+        try {
+            while (true) {
+                while (!cancelled && running < threads && specs.hasNext()) {
+                    final SquirmRunSpec spec = specs.next();
+                    done.submit(new Callable<SquirmRunResult>() {
+                        public SquirmRunResult call() {
+                            return runOne(spec);
+                        }
+                    });
+                    running++;
+                }
+                if (running == 0)
+                    break;
+                // cancelled runs still come back, with the steps they managed
+                final SquirmRunResult result = done.take().get();
+                running--;
+                finished++;
+                listener.finished(result);
+            }
+        } catch (final InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            cancel();
+            throw new Error("SquirmEnsemble::run : " + e.getCause());
+        }
+        return finished;
+    }
+
+    public int run(final Iterable<SquirmRunSpec> specs, final Listener listener) {
+        return run(specs.iterator(), listener);
+    }
+
+    /**
+     * stop handing out runs and make the ones in progress stop early
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void shutdown() {
+        cancel();
+        pool.shutdownNow();
+    }
+
+    /**
+     * (pool thread) one run; whatever goes wrong in it is its result's error,
+     * the ensemble carries on
+     */
+    private SquirmRunResult runOne(final SquirmRunSpec spec) {
+        SquirmConfig config = null;
+        SquirmEngine engine = null;
+        SquirmReplicators replicators = null;
+        long steps = 0;
+        String error = null;
+        try {
+            config = spec.getConfig();
+            engine = SquirmEngine.create(config);
+            replicators = engine.getReplicators(REPLICATOR_LENGTH);
+            while (steps < spec.getSteps() && !cancelled) {
+                final int n = (int) Math.min(CHECK_EVERY, spec.getSteps() - steps);
+                engine.step(n);
+                steps += n;
+            }
+        } catch (final Error e) {
+            LOGGER.error("Run failed : " + spec + " " + e.getMessage());
+            error = e.getMessage();
+        } catch (final RuntimeException e) {
+            LOGGER.error("Run failed : " + spec, e);
+            error = e.toString();
+        } finally {
+            if (engine != null)
+                engine.close();
+        }
+        if (engine == null)
+            return new SquirmRunResult(spec, config != null ? config.getSeed() : 0, 0, 0, 0, 0, cancelled, error);
+        SquirmReplicators.Sequence top = null;
+        if (replicators != null)
+            for (final SquirmReplicators.Sequence s : replicators.getTop(Integer.MAX_VALUE))
+                if (s.getLetters().length() >= REPLICATOR_MIN) {
+                    top = s;
+                    break;
+                }
+        final SquirmWorld world = engine.getWorld();
+        return new SquirmRunResult(spec, engine.getGrid().getSeed(), steps, world.getAtomCount(), countBonds(world),
+                engine.getStepsPerSecond(), steps < spec.getSteps() && error == null, error, top == null ? null
+                        : top.getLetters(), top == null ? 0 : top.getCopies(), top == null ? 0
+                        : replicators.getBirthRate(top));
+    }
+
+    private static int countBonds(final SquirmWorld world) {
+        int ends = 0;
+        for (int i = 0; i < world.getOrderLength(); i++) {
+            final int id = world.getOrderId(i);
+            if (id >= 0)
+                ends += Integer.bitCount(world.getBonds(world.getSquare(id)));
+        }
+        return ends / 2;
+    }
+
+    /**
+     * Usage: SquirmEnsemble [runs] [size] [steps] [threads]
+     * 
+     * Runs seeds 1..runs, cycling through the reaction sets.
+     */
+    public static void main(final String[] args) {
+        final int runs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int size = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        final long steps = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+        final int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime()
+                .availableProcessors();
+
+        final Iterator<SquirmRunSpec> specs = new Iterator<SquirmRunSpec>() {
+            private int i = 0;
+
+            public boolean hasNext() {
+                return i < runs;
+            }
+
+            public SquirmRunSpec next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final SquirmConfig config = new SquirmConfig();
+                config.setSize(size, size);
+                config.setSeed(i + 1);
+                config.setReactionSet(SquirmReactionSets.VARIANTS[i % SquirmReactionSets.VARIANTS.length]);
+                i++;
+                return new SquirmRunSpec("run" + i, config, steps);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final SquirmEnsemble ensemble = new SquirmEnsemble(threads);
+        final long start = System.nanoTime();
+        final int finished = ensemble.run(specs, new Listener() {
+            public void finished(final SquirmRunResult result) {
+                LOGGER.info(result);
+            }
+        });
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        ensemble.shutdown();
+        LOGGER.info("Ensemble : runs=" + finished + " threads=" + threads + " seconds="
+                + String.format("%.2f", seconds) + " runsPerSec=" + String.format("%.2f", finished / seconds));
+    }
+
+} // End of the class //
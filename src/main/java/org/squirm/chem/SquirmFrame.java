@@ -0,0 +1,123 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmFrame.java
+
+/**
+ * A copy of the world taken at the end of a time step, for drawing: the
+ * square and packed cell (type, state and bond mask) of every atom, and
+ * which atom is on each square for pointing at one.
+ * 
+ * Frames are handed from the simulation to the renderer through a
+ * SquirmFrameExchange; once published a frame isn't written to again until
+ * the renderer has let go of it, so it can be drawn without any locking.
+ */
+public final class SquirmFrame {
+
+    private final int n_x, n_y;
+    private int step = 0;
+    private int n_atoms = 0;
+    private int squares[] = new int[0];
+    private int cells[] = new int[0];
+    /**
+     * the atom on each square, if that atom is on it; left over entries from
+     * earlier captures fail that check, so it is never cleared
+     */
+    private final int atom_on[];
+
+    SquirmFrame(int x, int y) {
+        n_x = x;
+        n_y = y;
+        atom_on = new int[x * y];
+    }
+
+    /**
+     * copy the grid's atoms in, only ever called by the simulation thread
+     */
+    void capture(final SquirmGrid grid) {
+        final SquirmWorld world = grid.getWorld();
+        if (world.getSizeX() != n_x || world.getSizeY() != n_y)
+            throw new Error("SquirmFrame::capture : grid is not the size of the frame");
+        final int n = world.getAtomCount();
+        if (squares.length < n) {
+            squares = new int[n + n / 4];
+            cells = new int[squares.length];
+        }
+        final int n_order = world.getOrderLength();
+        int k = 0;
+        for (int i = 0; i < n_order; i++) {
+            final int sq = world.getSquare(world.getOrderId(i));
+            if (sq < 0)
+                continue;
+            squares[k] = sq;
+            cells[k] = world.getCell(sq);
+            atom_on[sq] = k;
+            k++;
+        }
+        n_atoms = k;
+        step = grid.getCount();
+    }
+
+    public int getSizeX() {
+        return n_x;
+    }
+
+    public int getSizeY() {
+        return n_y;
+    }
+
+    /** the time step counter when the frame was taken */
+    public int getStep() {
+        return step;
+    }
+
+    public int getAtomCount() {
+        return n_atoms;
+    }
+
+    /** the square of the i'th atom, 0 <= i < getAtomCount() */
+    public int getSquare(int i) {
+        return squares[i];
+    }
+
+    /** the packed cell of the i'th atom, see SquirmWorld */
+    public int getCell(int i) {
+        return cells[i];
+    }
+
+    /**
+     * type and state of the atom on square x, y, e.g. "e8", or "" if there
+     * is none
+     */
+    public String getContents(int x, int y) {
+        if (x < 0 || x >= n_x || y < 0 || y >= n_y)
+            return "";
+        final int sq = y * n_x + x;
+        final int i = atom_on[sq];
+        if (i >= n_atoms || squares[i] != sq)
+            return "";
+        return SquirmCellProperties.getStringType((cells[i] >>> SquirmWorld.TYPE_SHIFT) & SquirmWorld.TYPE_MASK)
+                + (cells[i] >>> SquirmWorld.STATE_SHIFT);
+    }
+
+} // End of the class //
@@ -0,0 +1,73 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmFrameExchange.java
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer of SquirmFrames between the simulation thread (the writer)
+ * and the renderer (the reader). The writer fills its back frame and swaps it
+ * into the middle; the reader swaps the middle out when a fresh one is
+ * there. Both swaps are a single atomic exchange, so neither side ever waits
+ * for the other and a frame being drawn is never written to.
+ * 
+ * The writer only copies the world when the reader has taken the last frame,
+ * so a slow renderer costs the simulation one copy per frame drawn rather
+ * than one per step. What's drawn is at most one frame behind.
+ */
+public final class SquirmFrameExchange {
+
+    /** set in the exchanged word when the middle frame hasn't been read */
+    private static final int FRESH = 4;
+
+    private final SquirmFrame frames[];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0; // writer's
+    private int front = 2; // reader's
+
+    public SquirmFrameExchange(int x, int y) {
+        frames = new SquirmFrame[] { new SquirmFrame(x, y), new SquirmFrame(x, y), new SquirmFrame(x, y) };
+    }
+
+    /** (writer) true once the last published frame has been taken */
+    public boolean isWanted() {
+        return (middle.get() & FRESH) == 0;
+    }
+
+    /** (writer) copy the grid and make it the latest frame */
+    public void publish(final SquirmGrid grid) {
+        frames[back].capture(grid);
+        back = middle.getAndSet(back | FRESH) & ~FRESH;
+    }
+
+    /**
+     * (reader) the latest published frame, valid until the next call
+     */
+    public SquirmFrame latest() {
+        if ((middle.get() & FRESH) != 0)
+            front = middle.getAndSet(front) & ~FRESH;
+        return frames[front];
+    }
+
+} // End of the class //
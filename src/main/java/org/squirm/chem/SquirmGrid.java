@@ -22,31 +22,23 @@ package org.squirm.chem;
 
 // SquirmGrid.java
 
-import java.awt.Graphics;
-import java.util.Enumeration;
-import java.util.Vector;
-
 /**
- * The SquirmGrid class manages a 2D grid of SquirmCellSlots and a list of
- * SquirmCells. By storing both structures we make great speed savings at the
- * expense of using extra memory.
+ * The SquirmGrid class manages a SquirmWorld, the flat arrays holding the
+ * squares of the grid and the atoms on them, and steps it through time.
  * 
- * Can query for a cell slot being empty using cell_grid[x][y].queryEmpty()
+ * Can query for a square being empty using world.isEmpty(world.index(x, y))
  * 
- * Can retrieve its cell (if not empty) using cell_grid[x][y].getOccupant()
+ * Can retrieve a view of its cell (if not empty) using getCell(x, y)
  * 
  */
 public class SquirmGrid {
 
-    /** array of SquirmCellSlots that may or may not have SquirmCells in */
-    protected SquirmCellSlot cell_grid[][];
+    /** the squares and atoms of the grid */
+    protected final SquirmWorld world;
 
-    /** the x and y size of the cell_grid array */
+    /** the x and y size of the grid */
     protected int n_x, n_y;
 
-    /** list of the SquirmCells that exist in the grid */
-    protected Vector<SquirmCell> cell_list;
-
     /** a count of the time steps elapsed */
     private int count = 0;
 
@@ -59,6 +51,24 @@ public class SquirmGrid {
 
     private boolean DO_FLOOD = false;
 
+    /** default width of the tiles used when stepping on several threads */
+    public static final int DEFAULT_TILE = 64;
+
+    /** the run seed, every random stream of the run is derived from it */
+    private final long seed;
+
+    /** random stream for the strict order sweep, setting up and floods */
+    private final SquirmRandom random;
+
+    /** steps the world on several threads, null to step in strict order */
+    private SquirmParallelStepper stepper = null;
+
+    /** skip atoms that are asleep (see SquirmWorld.setAsleep) */
+    private boolean active_set = false;
+
+    /** how many atoms were stepped (not skipped) in the last time step */
+    private int stepped = 0;
+
     public void setFloodOnOff(boolean on) {
         DO_FLOOD = on;
     }
@@ -67,71 +77,159 @@ public class SquirmGrid {
         FLOOD_PERIOD = period;
     }
 
+    public boolean getFloodOnOff() {
+        return DO_FLOOD;
+    }
+
+    public int getFloodPeriod() {
+        return FLOOD_PERIOD;
+    }
+
+    /** which side the next cataclysm clears */
+    public boolean getOnRight() {
+        return on_right;
+    }
+
+    /**
+     * step on this many threads (1 for the strict order sweep), see
+     * SquirmParallelStepper
+     */
+    public void setThreads(int threads) {
+        if (threads > 1) {
+            setThreads(threads, DEFAULT_TILE);
+        } else {
+            if (stepper != null)
+                stepper.shutdown();
+            stepper = null;
+        }
+    }
+
+    /**
+     * step tile by tile on this many threads (even if only one)
+     */
+    public void setThreads(int threads, int tile) {
+        if (stepper != null)
+            stepper.shutdown();
+        stepper = new SquirmParallelStepper(threads, tile);
+    }
+
+    /**
+     * only step the atoms that could do something, the run is the same as
+     * stepping them all
+     */
+    public void setActiveSet(boolean on) {
+        if (on && !active_set)
+            world.wakeAll();
+        active_set = on;
+    }
+
+    public boolean getActiveSet() {
+        return active_set;
+    }
+
+    public int getSteppedLastStep() {
+        return stepped;
+    }
+
+    public int getThreads() {
+        return stepper == null ? 1 : stepper.getThreads();
+    }
+
     public int getCount() {
         return count;
     }
 
+    /** for replaying a journal, which keeps the step count itself */
+    void setCount(int count) {
+        this.count = count;
+    }
+
+    /** for replaying a journal, which keeps the flood side itself */
+    void setOnRight(boolean on_right) {
+        this.on_right = on_right;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public SquirmRandom getRandom() {
+        return random;
+    }
+
+    public SquirmWorld getWorld() {
+        return world;
+    }
+
+    public SquirmCellSlot getSlot(int x, int y) {
+        return new SquirmCellSlot(world, x, y);
+    }
+
     public String getContents(int x, int y) {
         // check for within area
         if (x < 0 || x >= n_x || y < 0 || y >= n_y)
             return "";
 
         // check cell slot not empty
-        if (cell_grid[x][y].queryEmpty())
+        final int sq = world.index(x, y);
+        if (world.isEmpty(sq))
             return "";
 
         String msg = "";
-        SquirmCell cell = cell_grid[x][y].getOccupant();
-        msg += cell.getStringType();
-        msg += cell.getState();
-        // msg+=" ("+cell.getTimeSinceLastReaction()+")";
+        msg += SquirmCellProperties.getStringType(world.getType(sq));
+        msg += world.getState(sq);
         return msg;
     }
 
+    /**
+     * a grid around a restored world, see SquirmCheckpoint
+     */
+    SquirmGrid(final SquirmWorld world, long seed, long random_state, int count, boolean on_right) {
+        n_x = world.getSizeX();
+        n_y = world.getSizeY();
+        this.seed = seed;
+        random = new SquirmRandom(seed);
+        random.setState(random_state);
+        this.world = world;
+        this.count = count;
+        this.on_right = on_right;
+    }
+
     /**
      * Public constructor initializes size of grid and creates a simple world
      */
     public SquirmGrid(int x, int y) {
+        this(x, y, SquirmRandom.newSeed());
+    }
+
+    /**
+     * the same seed (and reactions) gives the same run
+     */
+    public SquirmGrid(int x, int y, long seed) {
         n_x = x;
         n_y = y;
+        this.seed = seed;
+        random = new SquirmRandom(seed);
 
-        // initialize the 2D grid of slots
-        cell_grid = new SquirmCellSlot[n_x][n_y];
-        int i, j;
-        for (i = 0; i < n_x; i++)
-            for (j = 0; j < n_y; j++)
-                cell_grid[i][j] = new SquirmCellSlot();
-
-        cell_list = new Vector<SquirmCell>();
+        // initialize the flat arrays of squares and atoms
+        world = new SquirmWorld(n_x, n_y);
         initSimple();
     }
 
     // ----------------------------------------------------------
 
-    /** straightforward drawing of the grid and its contents */
-    public void draw(final Graphics g, float scale, boolean fast) {
-        // ask all the cells to draw themselves
-        for (final Enumeration<SquirmCell> e = cell_list.elements(); e.hasMoreElements();)
-            ((SquirmCell) e.nextElement()).draw(g, scale, cell_grid, fast);
-
-        // draw the time step counter on top
-        g.drawString(String.valueOf(count), 10, 10);
-    }
-
-    // ----------------------------------------------------------
-
     /** initialize some simple creatures */
     public void initSimple() {
         // initialise an arbitrarily long string        
         // initialise a long string
         {
-            SquirmCell e = new SquirmCell(10, n_y / 2 + 0, 0, 8, cell_list, cell_grid);
-            SquirmCell a = new SquirmCell(10, n_y / 2 + 1, 2, 1, cell_list, cell_grid);
-            SquirmCell b = new SquirmCell(10, n_y / 2 + 2, 3, 1, cell_list, cell_grid);
-            SquirmCell c = new SquirmCell(10, n_y / 2 + 3, 4, 1, cell_list, cell_grid);
+            SquirmCell e = new SquirmCell(10, n_y / 2 + 0, 0, 8, world);
+            SquirmCell a = new SquirmCell(10, n_y / 2 + 1, 2, 1, world);
+            SquirmCell b = new SquirmCell(10, n_y / 2 + 2, 3, 1, world);
+            SquirmCell c = new SquirmCell(10, n_y / 2 + 3, 4, 1, world);
             // SquirmCell d = new
-            // SquirmCell(10,n_y/2+4,5,1,cell_list,cell_grid);
-            SquirmCell f = new SquirmCell(10, n_y / 2 + 4, 1, 1, cell_list, cell_grid);
+            // SquirmCell(10,n_y/2+4,5,1,world);
+            SquirmCell f = new SquirmCell(10, n_y / 2 + 4, 1, 1, world);
             e.makeBondWith(a);
             a.makeBondWith(b);
             b.makeBondWith(c);
@@ -143,32 +241,67 @@ public class SquirmGrid {
         int px, py;
         for (int i = 0; i < N_CELLS; i++) {
             // find an empty square
-            px = (int) Math.floor(Math.random() * (float) n_x);
-            py = (int) Math.floor(Math.random() * (float) n_y);
-            if (cell_grid[px][py].queryEmpty()) {
-                new SquirmCell(px, py, SquirmCellProperties.getRandomType(), 0, cell_list, cell_grid);
+            px = random.nextInt(n_x);
+            py = random.nextInt(n_y);
+            if (world.isEmpty(world.index(px, py))) {
+                world.spawn(px, py, SquirmCellProperties.getRandomType(random), 0);
             }
         }
         // just for now, add extra 'a' cells to help memebrane growth along        
     }
 
-    /** give each cell a chance to move, in strict order */
+    /**
+     * give each cell a chance to move, in strict order (or tile by tile if
+     * running on several threads)
+     */
     public void doTimeStep(SquirmChemistry chemistry) {
-        SquirmCell cell;
-        for (final Enumeration<SquirmCell> e = cell_list.elements(); e.hasMoreElements();) {
-            cell = (SquirmCell) e.nextElement();
-            // ask the cell to make any reactions possible
-            cell.makeReactions(chemistry, n_x, n_y, cell_grid);
-            // ask the cell to move as it wishes
-            cell.makeMove(n_x, n_y, cell_grid);
-            // ask the cell to age itself
-            cell.ageSelf();
-        }
+        final SquirmStats stats = world.stats;
+        final long start = stats != null ? System.nanoTime() : 0;
+        if (stepper != null)
+            stepped = stepper.step(world, chemistry, seed, count, active_set);
+        else
+            stepped = sweep(chemistry);
 
         // every FLOOD_PERIOD time steps a cataclysm occurs!
         if (count++ % FLOOD_PERIOD == 0 && DO_FLOOD) {
+            final long flood = stats != null ? System.nanoTime() : 0;
             doCataclysm();
+            if (stats != null)
+                stats.flooded(System.nanoTime() - flood);
+        }
+        if (stats != null)
+            stats.stepped(System.nanoTime() - start, stepped);
+    }
+
+    private int sweep(SquirmChemistry chemistry) {
+        final SquirmStats stats = world.stats;
+        final int n_order = world.getOrderLength();
+        int n = 0;
+        for (int i = 0; i < n_order; i++) {
+            final int sq = world.getSquare(world.getOrderId(i));
+            if (sq < 0)
+                continue;
+            if (active_set) {
+                if (world.isAsleep(sq))
+                    continue;
+                // stays asleep unless it or a neighbour changes
+                world.setAsleep(sq);
+            }
+            // time one atom in so many, from the first (see SquirmStats)
+            if (stats != null && (n & SquirmStats.SAMPLE_MASK) == 0) {
+                n++;
+                stats.stepAtom(chemistry, world, world.getOrderId(i), random);
+                continue;
+            }
+            n++;
+            // ask the cell to make any reactions possible
+            SquirmCell.makeReactions(chemistry, world, sq);
+            // ask the cell to move as it wishes
+            SquirmCell.makeMove(world, sq, random);
+            // ask the cell to age itself (it may have moved)
+            SquirmCell.ageSelf(world, world.getSquare(world.getOrderId(i)));
         }
+        return n;
     }
 
     /** delete all cells in the right-hand half of the area and refresh */
@@ -177,19 +310,21 @@ public class SquirmGrid {
         int x, y;
         for (x = (on_right ? n_x / 2 : 0); x < (on_right ? n_x : n_x / 2); x++) {
             for (y = 0; y < n_y; y++) {
-                if (!cell_grid[x][y].queryEmpty())
-                    cell_grid[x][y].getOccupant().killSelf(cell_list, cell_grid);
+                final int sq = world.index(x, y);
+                if (!world.isEmpty(sq))
+                    world.kill(sq);
             }
         }
+        world.compact();
         // replenish with new cells
         // initialize the world with some raw material (unconnected molecules)
         int px, py;
         for (int i = 0; i < N_CELLS / 2; i++) {
             // find an empty square
-            px = (int) Math.floor(Math.random() * (float) n_x / 2) + (on_right ? n_x / 2 : 0);
-            py = (int) Math.floor(Math.random() * (float) n_y);
-            if (cell_grid[px][py].queryEmpty()) {
-                new SquirmCell(px, py, SquirmCellProperties.getRandomType(), 0, cell_list, cell_grid);
+            px = random.nextInt((on_right ? n_x - n_x / 2 : n_x / 2)) + (on_right ? n_x / 2 : 0);
+            py = random.nextInt(n_y);
+            if (world.isEmpty(world.index(px, py))) {
+                world.spawn(px, py, SquirmCellProperties.getRandomType(random), 0);
             }
         }
 
@@ -0,0 +1,302 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmJournal.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only record of every change a run makes to its world, for replaying
+ * it later (see SquirmReplay) without simulating it again.
+ * 
+ * The world reports each primitive change: move, bond made, bond broken,
+ * state change, atom spawned, atom killed, sweep order compacted; the end of
+ * each step is marked, with the flood side and the grid's random state so a
+ * replayed grid carries on just as the original. An event is an opcode byte (the low 3 bits carrying a
+ * direction or type) and the square as a zigzag varint of the difference
+ * from the last event's square, then a varint state where there is one.
+ * Events are batched in a buffer and written with a FileChannel.
+ * 
+ * A directory holds journal.bin, journal.idx and keyframes: checkpoints
+ * (see SquirmCheckpointer) every so many steps, written in the background.
+ * The index gives the journal offset of every keyframe step and of every
+ * index_every'th step; the square deltas start afresh at each of them.
+ * 
+ * Each thread notes its moves, bonds and state changes in a log of its own,
+ * and the stepping thread encodes the logs into the journal between the
+ * phases of a parallel step (see SquirmParallelStepper) and at the end of
+ * each step. The tiles of one phase touch different squares, so the logs can
+ * go in any order. Spawns, kills and compactions are never done in parallel
+ * and are written straight away, after the logs.
+ */
+public class SquirmJournal implements SquirmStepListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmJournal.class);
+
+    static final int MAGIC = 0x53514A4C; // "SQJL"
+    static final int VERSION = 1;
+
+    static final String JOURNAL = "journal.bin";
+    static final String INDEX = "journal.idx";
+
+    // opcodes, the low 3 bits are free for a direction or type
+    static final int OP_MOVE = 1 << 3;
+    static final int OP_BOND = 2 << 3;
+    static final int OP_UNBOND = 3 << 3;
+    static final int OP_STATE = 4 << 3;
+    static final int OP_KILL = 5 << 3;
+    static final int OP_SPAWN = 6 << 3;
+    static final int OP_COMPACT = 7 << 3;
+    static final int OP_STEP = 8 << 3;
+
+    /** journal header: MAGIC, VERSION, size x, size y, first step */
+    static final int HEADER = 20;
+
+    private static final int BUFFER = 1 << 20;
+    /** largest event */
+    private static final int MAX_EVENT = 16;
+
+    private final SquirmWorld world;
+    private final int keyframe_every;
+    private final int index_every;
+    private final RandomAccessFile journal_file;
+    private final FileChannel journal;
+    private final RandomAccessFile index_file;
+    private final SquirmCheckpointer keyframes;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+    private final ByteBuffer entry = ByteBuffer.allocate(12);
+    /** bytes written to the channel so far */
+    private long flushed = 0;
+    private int last_sq = 0;
+    private long events = 0;
+
+    /** one thread's events, not yet encoded */
+    private static final class Log {
+        int ops[] = new int[256];
+        int squares[] = new int[256];
+        int values[] = new int[256];
+        int n = 0;
+    }
+
+    private final CopyOnWriteArrayList<Log> logs = new CopyOnWriteArrayList<Log>();
+    private final ThreadLocal<Log> local = new ThreadLocal<Log>() {
+        protected Log initialValue() {
+            final Log log = new Log();
+            logs.add(log);
+            return log;
+        }
+    };
+
+    /**
+     * start journalling the grid into directory, with a keyframe now and
+     * every keyframe_every steps
+     */
+    public SquirmJournal(final File directory, final SquirmGrid grid, final SquirmChemistry chemistry,
+            int keyframe_every, int index_every) throws IOException {
+        if (keyframe_every < 1 || index_every < 1)
+            throw new Error("SquirmJournal::SquirmJournal : keyframe and index periods must be at least 1");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new Error("SquirmJournal::SquirmJournal : can't make " + directory);
+        world = grid.getWorld();
+        if (world.journal != null)
+            throw new Error("SquirmJournal::SquirmJournal : the world is already being journalled");
+        this.keyframe_every = keyframe_every;
+        this.index_every = index_every;
+
+        SquirmCheckpoint.save(new File(directory, SquirmCheckpointer.name(grid.getCount())), grid, chemistry);
+        keyframes = new SquirmCheckpointer(directory, chemistry, keyframe_every, Integer.MAX_VALUE);
+
+        journal_file = new RandomAccessFile(new File(directory, JOURNAL), "rw");
+        journal_file.setLength(0);
+        journal = journal_file.getChannel();
+        index_file = new RandomAccessFile(new File(directory, INDEX), "rw");
+        index_file.setLength(0);
+
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(world.getSizeX()).putInt(world.getSizeY())
+                .putInt(grid.getCount());
+        index(grid.getCount());
+        world.journal = this;
+    }
+
+    // ---- events, from the world ----
+
+    void move(int sq, int dir) {
+        note(OP_MOVE | dir, sq, 0);
+    }
+
+    void bond(int sq, int dir) {
+        note(OP_BOND | dir, sq, 0);
+    }
+
+    void unbond(int sq, int dir) {
+        note(OP_UNBOND | dir, sq, 0);
+    }
+
+    void state(int sq, int state) {
+        note(OP_STATE, sq, state);
+    }
+
+    private void note(int op, int sq, int value) {
+        final Log log = local.get();
+        if (log.n == log.ops.length) {
+            log.ops = Arrays.copyOf(log.ops, log.n * 2);
+            log.squares = Arrays.copyOf(log.squares, log.n * 2);
+            log.values = Arrays.copyOf(log.values, log.n * 2);
+        }
+        log.ops[log.n] = op;
+        log.squares[log.n] = sq;
+        log.values[log.n] = value;
+        log.n++;
+    }
+
+    void kill(int sq) {
+        drain();
+        square(OP_KILL, sq);
+    }
+
+    void spawn(int sq, int cell) {
+        drain();
+        square(OP_SPAWN | ((cell >>> SquirmWorld.TYPE_SHIFT) & SquirmWorld.TYPE_MASK), sq);
+        putVarint(cell >>> SquirmWorld.STATE_SHIFT);
+    }
+
+    void compact() {
+        drain();
+        room();
+        buffer.put((byte) OP_COMPACT);
+        events++;
+    }
+
+    /**
+     * (stepping thread) encode the threads' logs, between phases
+     */
+    void drain() {
+        for (final Log log : logs) {
+            for (int i = 0; i < log.n; i++) {
+                final int op = log.ops[i];
+                square(op, log.squares[i]);
+                if (op == OP_STATE)
+                    putVarint(log.values[i]);
+            }
+            log.n = 0;
+        }
+    }
+
+    private void square(int op, int sq) {
+        room();
+        buffer.put((byte) op);
+        final int delta = sq - last_sq;
+        putVarint((delta << 1) ^ (delta >> 31));
+        last_sq = sq;
+        events++;
+    }
+
+    private void putVarint(int v) {
+        while ((v & ~0x7F) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    private void room() {
+        if (buffer.remaining() < MAX_EVENT)
+            flush();
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                flushed += journal.write(buffer);
+        } catch (final IOException e) {
+            throw new Error("SquirmJournal::flush : " + e);
+        }
+        buffer.clear();
+    }
+
+    /** note where the journal is at this step, deltas start again here */
+    private void index(int step) throws IOException {
+        entry.clear();
+        entry.putInt(step).putLong(flushed + buffer.position());
+        entry.flip();
+        index_file.getChannel().write(entry);
+        last_sq = 0;
+    }
+
+    // ----------------------------------------------------------
+
+    /**
+     * (stepping thread) mark the end of the step, index it and keyframe it
+     * if it's time
+     */
+    public void stepped(final SquirmGrid grid) {
+        drain();
+        room();
+        buffer.put((byte) (OP_STEP | (grid.getOnRight() ? 1 : 0)));
+        buffer.putLong(grid.getRandom().getState());
+        final int step = grid.getCount();
+        if (step % index_every == 0 || step % keyframe_every == 0) {
+            try {
+                index(step);
+            } catch (final IOException e) {
+                throw new Error("SquirmJournal::stepped : " + e);
+            }
+        }
+        keyframes.stepped(grid);
+    }
+
+    /**
+     * stop journalling and write out what's buffered, between steps
+     */
+    public void close() throws IOException {
+        if (world.journal == this)
+            world.journal = null;
+        drain();
+        flush();
+        keyframes.close();
+        journal_file.close();
+        index_file.close();
+        LOGGER.info("Journal closed : events=" + events + " bytes=" + flushed + " keyframes="
+                + (keyframes.getWritten() + 1));
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    /** bytes journalled, read between steps */
+    public long getBytes() {
+        return flushed + buffer.position();
+    }
+
+} // End of the class //
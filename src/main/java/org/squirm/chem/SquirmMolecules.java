@@ -0,0 +1,549 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmMolecules.java
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps track of the molecules of a SquirmWorld, the groups of atoms joined
+ * by bonds, as bonds are made and broken, rather than searching the bonds
+ * every step. Each molecule has a number; the molecule of an atom, the
+ * number of molecules, their sizes and the largest are all there to read.
+ * 
+ * Every atom holds its molecule's number and each molecule has a list of
+ * its atoms, so joining two molecules renumbers the smaller one. Breaking a
+ * bond may or may not split a molecule: searches spread out along the bonds
+ * from the ends of the broken bonds in turn, and once all but one have run
+ * out of atoms without meeting the others, those are the pieces that broke
+ * off and get new numbers. The work is the size of the pieces, not of the
+ * molecule.
+ * 
+ * Tiles stepped in parallel make and break bonds at the same time, so each
+ * thread notes its bond changes and they are worked through between steps
+ * (and before an atom is spawned or killed, which is never done in
+ * parallel): first all the joins, then the splits, against the bonds as they
+ * are then; reading catches up first. Read it between steps. Molecule
+ * numbers are reused once a molecule has gone.
+ */
+public class SquirmMolecules implements SquirmStepListener {
+
+    private final SquirmWorld world;
+
+    /** molecule of each atom id, -1 for none */
+    private int molecule[] = new int[0];
+    /** circular list of the atoms of a molecule, by atom id */
+    private int next[] = new int[0];
+    private int prev[] = new int[0];
+
+    /** first atom and size of each molecule number */
+    private int first[] = new int[0];
+    private int size[] = new int[0];
+    private int free_numbers[] = new int[0];
+    private int n_free = 0;
+    private int n_numbers = 0;
+
+    /**
+     * molecule numbers changed (joined, split, grown, shrunk or gone) since
+     * takeChanged(), if anyone is watching
+     */
+    private boolean watched = false;
+    private boolean is_changed[] = new boolean[0];
+    private int changed[] = new int[16];
+    private int n_changed = 0;
+
+    private int count = 0;
+    /** how many molecules there are of each size */
+    private int sizes[] = new int[2];
+    private int largest = 0;
+
+    /** one thread's bond changes: pairs of atom ids, ~first for a break */
+    private static final class Log {
+        int pairs[] = new int[64];
+        int n = 0;
+    }
+
+    private final CopyOnWriteArrayList<Log> logs = new CopyOnWriteArrayList<Log>();
+    private final ThreadLocal<Log> local = new ThreadLocal<Log>() {
+        protected Log initialValue() {
+            final Log log = new Log();
+            logs.add(log);
+            return log;
+        }
+    };
+
+    // the splitting searches, kept between calls
+    private int seen[] = new int[0];
+    private int owner[] = new int[0];
+    private int stamp = 0;
+    private int queues[][] = new int[0][];
+    private int queue_length[] = new int[0];
+    private int queue_head[] = new int[0];
+    private int group[] = new int[0];
+    private int pending[] = new int[0];
+    private long ends[] = new long[64];
+
+    /**
+     * find the world's molecules now and keep track of them
+     */
+    public SquirmMolecules(final SquirmWorld world) {
+        if (world.molecules != null)
+            throw new Error("SquirmMolecules::SquirmMolecules : the world is already being tracked");
+        this.world = world;
+        ensure(world.getIdLimit());
+        for (int i = 0; i < world.getOrderLength(); i++) {
+            final int id = world.getOrderId(i);
+            if (world.getSquare(id) >= 0)
+                single(id);
+        }
+        for (int i = 0; i < world.getOrderLength(); i++) {
+            final int id = world.getOrderId(i);
+            final int sq = world.getSquare(id);
+            if (sq < 0)
+                continue;
+            for (int rest = world.getBonds(sq); rest != 0; rest &= rest - 1)
+                join(molecule[id], molecule[world.getId(sq + world.getOffset(Integer.numberOfTrailingZeros(rest)))]);
+        }
+        world.molecules = this;
+    }
+
+    // ---- changes, from the world ----
+
+    void bond(int a, int b) {
+        note(a, b);
+    }
+
+    void unbond(int a, int b) {
+        note(~a, b);
+    }
+
+    private void note(int a, int b) {
+        final Log log = local.get();
+        if (log.n + 2 > log.pairs.length)
+            log.pairs = Arrays.copyOf(log.pairs, log.pairs.length * 2);
+        log.pairs[log.n++] = a;
+        log.pairs[log.n++] = b;
+    }
+
+    /** a new atom on sq, bonded to any neighbours its cell says */
+    void spawn(int sq, int id) {
+        flush();
+        ensure(id + 1);
+        single(id);
+        for (int rest = world.getBonds(sq); rest != 0; rest &= rest - 1) {
+            final int n = sq + world.getOffset(Integer.numberOfTrailingZeros(rest));
+            if (!world.isEmpty(n))
+                join(molecule[id], molecule[world.getId(n)]);
+        }
+    }
+
+    /** an atom with no bonds left is going */
+    void kill(int id) {
+        flush();
+        final int m = molecule[id];
+        changed(m);
+        unlink(id);
+        resize(m, size[m] - 1);
+        if (size[m] == 0)
+            release(m);
+        molecule[id] = -1;
+    }
+
+    // ----------------------------------------------------------
+
+    /** (stepping thread) bring the molecules up to date */
+    public void stepped(final SquirmGrid grid) {
+        flush();
+    }
+
+    /** stop tracking */
+    public void detach() {
+        if (world.molecules == this)
+            world.molecules = null;
+    }
+
+    /** molecule of the atom with this id, -1 if there's no such atom */
+    public int getMolecule(int id) {
+        flush();
+        return id < molecule.length ? molecule[id] : -1;
+    }
+
+    /** number of atoms in a molecule */
+    public int getSize(int molecule) {
+        flush();
+        return size[molecule];
+    }
+
+    /** number of molecules, single atoms included */
+    public int getCount() {
+        flush();
+        return count;
+    }
+
+    /** number of molecules of the given size */
+    public int getCount(int size) {
+        flush();
+        return size < sizes.length ? sizes[size] : 0;
+    }
+
+    /** atoms in the largest molecule */
+    public int getLargest() {
+        flush();
+        return largest;
+    }
+
+    /** number of molecules of each size, up to the largest */
+    public int[] getSizeDistribution() {
+        flush();
+        return Arrays.copyOf(sizes, largest + 1);
+    }
+
+    // ----------------------------------------------------------
+
+    /**
+     * start noting changed molecules, all of them to begin with (see
+     * takeChanged)
+     */
+    void watch() {
+        flush();
+        watched = true;
+        for (int m = 0; m < n_numbers; m++)
+            if (size[m] > 0)
+                changed(m);
+    }
+
+    /**
+     * catch up, then hand over the numbers of the molecules changed since
+     * last time
+     */
+    int[] takeChanged() {
+        flush();
+        final int result[] = Arrays.copyOf(changed, n_changed);
+        for (int i = 0; i < n_changed; i++)
+            is_changed[changed[i]] = false;
+        n_changed = 0;
+        return result;
+    }
+
+    private void changed(int m) {
+        if (!watched || is_changed[m])
+            return;
+        is_changed[m] = true;
+        if (n_changed == changed.length)
+            changed = Arrays.copyOf(changed, n_changed * 2);
+        changed[n_changed++] = m;
+    }
+
+    // for walking the atoms of a molecule, between steps
+
+    int sizeOf(int m) {
+        return size[m];
+    }
+
+    int firstOf(int m) {
+        return first[m];
+    }
+
+    int nextOf(int id) {
+        return next[id];
+    }
+
+    /** work through the bond changes noted since last time */
+    void flush() {
+        int n_ends = 0;
+        for (final Log log : logs) {
+            for (int i = 0; i < log.n; i += 2) {
+                final int a = log.pairs[i];
+                final int b = log.pairs[i + 1];
+                if (a >= 0) {
+                    join(molecule[a], molecule[b]);
+                } else {
+                    if (n_ends + 2 > ends.length)
+                        ends = Arrays.copyOf(ends, ends.length * 2);
+                    ends[n_ends++] = ~a;
+                    ends[n_ends++] = b;
+                }
+            }
+            log.n = 0;
+        }
+        if (n_ends == 0)
+            return;
+        // the ends of broken bonds, molecule by molecule
+        for (int i = 0; i < n_ends; i++)
+            ends[i] |= (long) molecule[(int) ends[i]] << 32;
+        Arrays.sort(ends, 0, n_ends);
+        for (int i = 0; i < n_ends;) {
+            int j = i + 1;
+            while (j < n_ends && (ends[j] >>> 32) == (ends[i] >>> 32))
+                j++;
+            split(i, j);
+            i = j;
+        }
+    }
+
+    /**
+     * ends[from..to) are the broken bond ends in one molecule, give any
+     * pieces it has broken into numbers of their own
+     */
+    private void split(int from, int to) {
+        changed(molecule[(int) ends[from]]);
+        if (++stamp == 0) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        int searches = 0;
+        for (int i = from; i < to; i++) {
+            final int id = (int) ends[i];
+            if (seen[id] == stamp)
+                continue;
+            if (searches == queues.length)
+                growSearches();
+            seen[id] = stamp;
+            owner[id] = searches;
+            queues[searches][0] = id;
+            queue_length[searches] = 1;
+            queue_head[searches] = 0;
+            group[searches] = searches;
+            pending[searches] = 1;
+            searches++;
+        }
+        // a step of each search in turn until at most one is still going
+        int going = searches;
+        while (going > 1) {
+            for (int s = 0; s < searches && going > 1; s++) {
+                if (queue_head[s] == queue_length[s])
+                    continue;
+                int g = find(s);
+                final int sq = world.getSquare(queues[s][queue_head[s]++]);
+                for (int rest = world.getBonds(sq); rest != 0; rest &= rest - 1) {
+                    final int n = world.getId(sq + world.getOffset(Integer.numberOfTrailingZeros(rest)));
+                    if (seen[n] != stamp) {
+                        seen[n] = stamp;
+                        owner[n] = s;
+                        if (queue_length[s] == queues[s].length)
+                            queues[s] = Arrays.copyOf(queues[s], queues[s].length * 2);
+                        queues[s][queue_length[s]++] = n;
+                    } else {
+                        final int h = find(owner[n]);
+                        if (h != g) {
+                            // still joined up, one search now
+                            group[h] = g;
+                            pending[g] += pending[h];
+                            going--;
+                        }
+                    }
+                }
+                if (queue_head[s] == queue_length[s] && --pending[g] == 0)
+                    going--;
+            }
+        }
+        if (searches < 2)
+            return;
+
+        // everything a run out search found is a piece on its own; the one
+        // still going, or else the biggest, keeps the number
+        int keep = -1;
+        long keep_size = -1;
+        for (int s = 0; s < searches; s++) {
+            if (find(s) != s)
+                continue;
+            final long found = pending[s] > 0 ? Long.MAX_VALUE : found(s, searches);
+            if (found > keep_size) {
+                keep = s;
+                keep_size = found;
+            }
+        }
+        final int old = molecule[queues[0][0]];
+        for (int g = 0; g < searches; g++) {
+            if (find(g) != g || g == keep)
+                continue;
+            final int m = number();
+            first[m] = -1;
+            changed(m);
+            int n = 0;
+            for (int s = 0; s < searches; s++) {
+                if (find(s) != g)
+                    continue;
+                for (int i = 0; i < queue_length[s]; i++) {
+                    final int id = queues[s][i];
+                    unlink(id);
+                    link(m, id);
+                    n++;
+                }
+            }
+            resize(old, size[old] - n);
+            resize(m, n);
+            count++;
+        }
+    }
+
+    /** atoms found by the searches in group g */
+    private long found(int g, int searches) {
+        long n = 0;
+        for (int s = 0; s < searches; s++)
+            if (find(s) == g)
+                n += queue_length[s];
+        return n;
+    }
+
+    private int find(int s) {
+        while (group[s] != s)
+            s = group[s] = group[group[s]];
+        return s;
+    }
+
+    private void growSearches() {
+        final int n = Math.max(4, queues.length * 2);
+        final int q[][] = Arrays.copyOf(queues, n);
+        for (int i = queues.length; i < n; i++)
+            q[i] = new int[16];
+        queues = q;
+        queue_length = Arrays.copyOf(queue_length, n);
+        queue_head = Arrays.copyOf(queue_head, n);
+        group = Arrays.copyOf(group, n);
+        pending = Arrays.copyOf(pending, n);
+    }
+
+    /** join two molecules, renumbering the smaller */
+    private void join(int a, int b) {
+        if (a == b) {
+            // a ring closed, still a change of shape
+            changed(a);
+            return;
+        }
+        if (size[a] < size[b]) {
+            final int t = a;
+            a = b;
+            b = t;
+        }
+        changed(a);
+        changed(b);
+        final int f = first[b];
+        int id = f;
+        do {
+            molecule[id] = a;
+            id = next[id];
+        } while (id != f);
+        // splice b's list into a's
+        final int fa = first[a];
+        final int la = prev[fa];
+        final int lb = prev[f];
+        next[la] = f;
+        prev[f] = la;
+        next[lb] = fa;
+        prev[fa] = lb;
+        final int n = size[b];
+        resize(b, 0);
+        release(b);
+        resize(a, size[a] + n);
+    }
+
+    /** a new molecule of one atom */
+    private void single(int id) {
+        final int m = number();
+        next[id] = prev[id] = id;
+        first[m] = id;
+        molecule[id] = m;
+        size[m] = 0;
+        resize(m, 1);
+        changed(m);
+        count++;
+    }
+
+    /** add an atom to a molecule being built, first[m] is -1 to start */
+    private void link(int m, int id) {
+        molecule[id] = m;
+        if (first[m] < 0) {
+            first[m] = id;
+            next[id] = prev[id] = id;
+        } else {
+            final int f = first[m];
+            final int l = prev[f];
+            next[l] = id;
+            prev[id] = l;
+            next[id] = f;
+            prev[f] = id;
+        }
+    }
+
+    private void unlink(int id) {
+        final int m = molecule[id];
+        if (first[m] == id)
+            first[m] = next[id];
+        next[prev[id]] = next[id];
+        prev[next[id]] = prev[id];
+        next[id] = prev[id] = id;
+    }
+
+    /** set a molecule's size, keeping the size counts and the largest */
+    private void resize(int m, int n) {
+        final int old = size[m];
+        if (old > 0)
+            sizes[old]--;
+        size[m] = n;
+        if (n > 0) {
+            if (n >= sizes.length)
+                sizes = Arrays.copyOf(sizes, Math.max(n + 1, sizes.length * 2));
+            sizes[n]++;
+            if (n > largest)
+                largest = n;
+        }
+        while (largest > 0 && sizes[largest] == 0)
+            largest--;
+    }
+
+    private int number() {
+        if (n_free > 0)
+            return free_numbers[--n_free];
+        if (n_numbers == first.length) {
+            final int n = Math.max(16, first.length * 2);
+            first = Arrays.copyOf(first, n);
+            size = Arrays.copyOf(size, n);
+            is_changed = Arrays.copyOf(is_changed, n);
+        }
+        return n_numbers++;
+    }
+
+    private void release(int m) {
+        if (n_free == free_numbers.length)
+            free_numbers = Arrays.copyOf(free_numbers, Math.max(16, n_free * 2));
+        free_numbers[n_free++] = m;
+        count--;
+    }
+
+    /** room for atom ids below n */
+    private void ensure(int n) {
+        if (n <= molecule.length)
+            return;
+        final int old = molecule.length;
+        final int c = Math.max(n, old * 2);
+        molecule = Arrays.copyOf(molecule, c);
+        Arrays.fill(molecule, old, c, -1);
+        next = Arrays.copyOf(next, c);
+        prev = Arrays.copyOf(prev, c);
+        seen = Arrays.copyOf(seen, c);
+        owner = Arrays.copyOf(owner, c);
+    }
+
+} // End of the class //
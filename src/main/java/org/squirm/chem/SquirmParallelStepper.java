@@ -0,0 +1,202 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmParallelStepper.java
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a SquirmWorld on several threads. The grid is cut into square tiles
+ * which are coloured like a 2x2 checkerboard; in each of four phases all the
+ * tiles of one colour are stepped at the same time on a ForkJoinPool.
+ * 
+ * An atom only ever touches squares within FOOTPRINT of where it started the
+ * step: its neighbours when reacting, after a move its bonded partners (which
+ * have to be re-aimed), and the sleep flags around any square it changed. Two
+ * tiles of the same colour are a whole tile apart, so as long as a tile is
+ * wider than 2*FOOTPRINT they never touch the same square.
+ * 
+ * Within a tile the squares are visited in raster order. An atom that moves
+ * into a square not yet visited (in this tile or a later phase's tile) is
+ * remembered by its stamp so it doesn't get a second go in the same step.
+ * 
+ * Each tile draws its moves from its own SquirmRandom stream, derived from
+ * the run seed, the time step and the tile, so a run doesn't depend on how
+ * the tiles were spread over the threads.
+ */
+class SquirmParallelStepper {
+
+    /** how far from its square an atom's step can read or write */
+    static final int FOOTPRINT = 3;
+
+    /** tiles must be wider than twice the footprint */
+    static final int MIN_TILE = 2 * FOOTPRINT + 1;
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final int tile;
+
+    /** stamp[id]==mark once the atom has been stepped this time step */
+    private int stamp[] = new int[0];
+    private int mark = 0;
+
+    public SquirmParallelStepper(int threads, int tile) {
+        if (threads < 1)
+            throw new Error("SquirmParallelStepper::SquirmParallelStepper : need at least one thread");
+        if (tile < MIN_TILE)
+            throw new Error("SquirmParallelStepper::SquirmParallelStepper : tiles must be at least " + MIN_TILE
+                    + " squares wide");
+        this.threads = threads;
+        this.tile = tile;
+        pool = new ForkJoinPool(threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getTileSize() {
+        return tile;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * react, move and age every atom once (or only those awake), step is the
+     * time step count; returns the number of atoms stepped
+     */
+    public int step(final SquirmWorld world, final SquirmChemistry chemistry, long seed, long step,
+            boolean active_set) {
+        if (stamp.length < world.getIdLimit())
+            stamp = Arrays.copyOf(stamp, Math.max(world.getIdLimit(), stamp.length * 2));
+        if (++mark == 0) {
+            // wrapped round, start the stamps again
+            Arrays.fill(stamp, 0);
+            mark = 1;
+        }
+
+        int stepped = 0;
+        final int tiles_x = (world.getSizeX() + tile - 1) / tile;
+        final int tiles_y = (world.getSizeY() + tile - 1) / tile;
+        for (int phase = 0; phase < 4; phase++) {
+            // the journal takes each phase's events after the last's
+            if (world.journal != null)
+                world.journal.drain();
+            final List<TileTask> tasks = new ArrayList<TileTask>();
+            for (int ty = phase / 2; ty < tiles_y; ty += 2)
+                for (int tx = phase % 2; tx < tiles_x; tx += 2)
+                    tasks.add(new TileTask(world, chemistry, tx * tile, ty * tile, SquirmRandom.stream(seed, step,
+                            ty * tiles_x + tx), active_set));
+            if (tasks.size() == 1)
+                tasks.get(0).compute();
+            else if (!tasks.isEmpty())
+                pool.invoke(new PhaseTask(tasks));
+            for (final TileTask task : tasks)
+                stepped += task.stepped;
+        }
+        return stepped;
+    }
+
+    /**
+     * step the atoms of one tile, in raster order
+     */
+    private int stepTile(final SquirmWorld world, final SquirmChemistry chemistry, int x0, int y0,
+            final SquirmRandom random, boolean active_set) {
+        final SquirmStats stats = world.stats;
+        int stepped = 0;
+        final int x1 = Math.min(x0 + tile, world.getSizeX());
+        final int y1 = Math.min(y0 + tile, world.getSizeY());
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                final int sq = world.index(x, y);
+                if (world.isEmpty(sq))
+                    continue;
+                final int id = world.getId(sq);
+                if (stamp[id] == mark)
+                    continue;
+                stamp[id] = mark;
+                if (active_set) {
+                    if (world.isAsleep(sq))
+                        continue;
+                    // stays asleep unless it or a neighbour changes
+                    world.setAsleep(sq);
+                }
+                // time one atom in so many, from the first (see SquirmStats)
+                if (stats != null && (stepped & SquirmStats.SAMPLE_MASK) == 0) {
+                    stepped++;
+                    stats.stepAtom(chemistry, world, id, random);
+                    continue;
+                }
+                stepped++;
+                SquirmCell.makeReactions(chemistry, world, sq);
+                SquirmCell.makeMove(world, sq, random);
+                SquirmCell.ageSelf(world, world.getSquare(id));
+            }
+        }
+        return stepped;
+    }
+
+    private final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final SquirmWorld world;
+        private final SquirmChemistry chemistry;
+        private final int x0, y0;
+        private final SquirmRandom random;
+        private final boolean active_set;
+        int stepped = 0;
+
+        TileTask(final SquirmWorld world, final SquirmChemistry chemistry, int x0, int y0,
+                final SquirmRandom random, boolean active_set) {
+            this.world = world;
+            this.chemistry = chemistry;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.random = random;
+            this.active_set = active_set;
+        }
+
+        protected void compute() {
+            stepped = stepTile(world, chemistry, x0, y0, random, active_set);
+        }
+    }
+
+    private static final class PhaseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<TileTask> tasks;
+
+        PhaseTask(final List<TileTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+} // End of the class //
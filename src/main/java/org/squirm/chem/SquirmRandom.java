@@ -0,0 +1,96 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmRandom.java
+
+/**
+ * Seedable random number stream (SplitMix64). Not thread-safe: each thread,
+ * or each tile when stepping in parallel, has its own stream derived from
+ * the run seed with stream(), so drawing a number never touches memory
+ * another thread uses and a run can be repeated from its seed.
+ * 
+ * The whole state is one long, see getState()/setState().
+ */
+public final class SquirmRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    public SquirmRandom(long seed) {
+        state = seed;
+    }
+
+    /**
+     * an independent stream for (seed, a, b), e.g. a time step and a tile
+     */
+    public static SquirmRandom stream(long seed, long a, long b) {
+        return new SquirmRandom(streamSeed(seed, a, b));
+    }
+
+    static long streamSeed(long seed, long a, long b) {
+        return mix64(mix64(seed + a * GOLDEN_GAMMA) + b * GOLDEN_GAMMA);
+    }
+
+    /**
+     * a seed to use when the caller doesn't give one
+     */
+    public static long newSeed() {
+        return mix64(System.nanoTime() ^ mix64(System.currentTimeMillis()));
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    public long nextLong() {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * uniform in 0 (inclusive) to bound (exclusive)
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0)
+            throw new Error("SquirmRandom::nextInt : bound must be positive");
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * uniform in 0 (inclusive) to 1 (exclusive)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+} // End of the class //
@@ -0,0 +1,308 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmRaster.java
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws SquirmFrames by writing pixels straight into the int[] behind a
+ * BufferedImage, instead of a fillRect and drawLines per atom.
+ * 
+ * Everything an atom draws (its colour, its bonds out to the edge of its
+ * square and its label) stays inside its own square, so only the squares
+ * whose contents changed since the last frame are redrawn. The cost of a
+ * frame goes with how much changed, not with how many atoms there are.
+ * 
+ * The raster can be a window on a larger world: only the atoms inside it are
+ * drawn, and moving the window starts it afresh.
+ * 
+ * The bond lines for each of the 256 bond masks and the label of each
+ * type/state are rendered once and kept.
+ */
+public final class SquirmRaster {
+
+    private static final int BACKGROUND = 0xFFFFFF;
+    private static final int INK = 0x000000;
+
+    /** labels are drawn when squares are at least this many pixels */
+    public static final int LABEL_SIZE = 12;
+
+    /** labels of states below this are cached */
+    private static final int CACHED_STATES = 256;
+
+    /** size of the window, in squares */
+    private final int n_x, n_y;
+    private final int px;
+    /** world square at the top left of the window */
+    private int origin_x = 0, origin_y = 0;
+    private final BufferedImage image;
+    private final int pixels[];
+    private final int width;
+
+    /** the cell drawn on each (window) square (0 is empty) */
+    private final int drawn[];
+    /** the cell on each square in the frame being drawn */
+    private final int next[];
+    /** the squares occupied in the last frame */
+    private int last[] = new int[0];
+    private int n_last = 0;
+    /** the squares occupied in the frame being drawn */
+    private int inside[] = new int[0];
+
+    private final int type_rgb[];
+    /** offsets in a square of the bond ink, by bond mask */
+    private final int bond_ink[][] = new int[256][];
+    /** offsets in a square of the label ink, by type and state */
+    private final int labels[][][];
+
+    private int dirty_x0, dirty_y0, dirty_x1, dirty_y1;
+
+    /**
+     * a window x by y squares, each drawn square_pixels wide
+     */
+    public SquirmRaster(int x, int y, int square_pixels) {
+        if (square_pixels < 1)
+            throw new Error("SquirmRaster::SquirmRaster : squares must be at least one pixel");
+        n_x = x;
+        n_y = y;
+        px = square_pixels;
+        width = n_x * px;
+        image = new BufferedImage(width, n_y * px, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, BACKGROUND);
+        drawn = new int[n_x * n_y];
+        next = new int[n_x * n_y];
+        type_rgb = new int[SquirmWorld.TYPE_MASK + 1];
+        labels = new int[type_rgb.length][][];
+        for (int t = 0; t < type_rgb.length; t++) {
+            type_rgb[t] = t < 6 ? SquirmCellProperties.getColour(t).getRGB() & 0xFFFFFF : INK;
+            labels[t] = new int[CACHED_STATES][];
+        }
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getSquarePixels() {
+        return px;
+    }
+
+    public int getSizeX() {
+        return n_x;
+    }
+
+    public int getSizeY() {
+        return n_y;
+    }
+
+    /**
+     * bring the image up to date with the frame; returns how many squares
+     * were redrawn
+     */
+    public int render(final SquirmFrame frame) {
+        return render(frame, 0, 0);
+    }
+
+    /**
+     * as render(frame), with the window's top left on world square (x0,y0)
+     */
+    public int render(final SquirmFrame frame, int x0, int y0) {
+        dirty_x0 = n_x;
+        dirty_y0 = n_y;
+        dirty_x1 = -1;
+        dirty_y1 = -1;
+        if (x0 != origin_x || y0 != origin_y) {
+            origin_x = x0;
+            origin_y = y0;
+            Arrays.fill(pixels, BACKGROUND);
+            Arrays.fill(drawn, 0);
+            n_last = 0;
+            dirty_x0 = 0;
+            dirty_y0 = 0;
+            dirty_x1 = n_x - 1;
+            dirty_y1 = n_y - 1;
+        }
+
+        // the atoms inside the window, as window squares
+        final int frame_x = frame.getSizeX();
+        final int n_atoms = frame.getAtomCount();
+        if (inside.length < n_atoms)
+            inside = new int[n_atoms + n_atoms / 4];
+        int n = 0;
+        for (int i = 0; i < n_atoms; i++) {
+            final int fsq = frame.getSquare(i);
+            final int x = fsq % frame_x - origin_x;
+            final int y = fsq / frame_x - origin_y;
+            if (x < 0 || y < 0 || x >= n_x || y >= n_y)
+                continue;
+            final int sq = y * n_x + x;
+            // every cell has OCCUPIED set, so 0 means empty
+            next[sq] = frame.getCell(i);
+            inside[n++] = sq;
+        }
+
+        int redrawn = 0;
+        for (int i = 0; i < n; i++) {
+            final int sq = inside[i];
+            if (drawn[sq] != next[sq]) {
+                drawSquare(sq, next[sq]);
+                redrawn++;
+            }
+        }
+        // squares that have been left
+        for (int i = 0; i < n_last; i++) {
+            final int sq = last[i];
+            if (next[sq] == 0 && drawn[sq] != 0) {
+                drawSquare(sq, 0);
+                redrawn++;
+            }
+        }
+
+        // the atoms drawn become the last frame's
+        final int swap[] = last;
+        last = inside;
+        inside = swap;
+        for (int i = 0; i < n; i++)
+            next[last[i]] = 0;
+        n_last = n;
+        return redrawn;
+    }
+
+    /**
+     * the part of the image changed by the last render, in pixels, or null
+     */
+    public Rectangle getDirtyBounds() {
+        if (dirty_x1 < 0)
+            return null;
+        return new Rectangle(dirty_x0 * px, dirty_y0 * px, (dirty_x1 - dirty_x0 + 1) * px, (dirty_y1 - dirty_y0 + 1)
+                * px);
+    }
+
+    private void drawSquare(int sq, int cell) {
+        drawn[sq] = cell;
+        final int x = sq % n_x;
+        final int y = sq / n_x;
+        if (x < dirty_x0)
+            dirty_x0 = x;
+        if (x > dirty_x1)
+            dirty_x1 = x;
+        if (y < dirty_y0)
+            dirty_y0 = y;
+        if (y > dirty_y1)
+            dirty_y1 = y;
+
+        final int origin = y * px * width + x * px;
+        final int type = (cell >>> SquirmWorld.TYPE_SHIFT) & SquirmWorld.TYPE_MASK;
+        final int rgb = cell == 0 ? BACKGROUND : type_rgb[type];
+        for (int r = 0, row = origin; r < px; r++, row += width)
+            Arrays.fill(pixels, row, row + px, rgb);
+        if (cell == 0)
+            return;
+
+        final int bonds = cell & SquirmWorld.BOND_MASK;
+        if (bonds != 0)
+            ink(origin, bondInk(bonds));
+        if (px >= LABEL_SIZE)
+            ink(origin, labelInk(type, cell >>> SquirmWorld.STATE_SHIFT));
+    }
+
+    private void ink(int origin, final int offsets[]) {
+        for (int i = 0; i < offsets.length; i++) {
+            final int o = offsets[i];
+            pixels[origin + (o / px) * width + o % px] = INK;
+        }
+    }
+
+    /**
+     * lines from the middle of the square half way to each bonded neighbour
+     */
+    private int[] bondInk(int bonds) {
+        int ink[] = bond_ink[bonds];
+        if (ink != null)
+            return ink;
+        final boolean on[] = new boolean[px * px];
+        final int h = (int) (0.5 * px);
+        for (int d = 0; d < 8; d++) {
+            if ((bonds & (1 << d)) == 0)
+                continue;
+            final int gx = Math.min(px - 1, Math.max(0, (int) ((0.5 + SquirmWorld.EIGHT_x[d] / 2.0) * px)));
+            final int gy = Math.min(px - 1, Math.max(0, (int) ((0.5 + SquirmWorld.EIGHT_y[d] / 2.0) * px)));
+            final int steps = Math.max(Math.abs(gx - h), Math.abs(gy - h));
+            for (int s = 0; s <= steps; s++) {
+                final int lx = steps == 0 ? h : h + Math.round((gx - h) * s / (float) steps);
+                final int ly = steps == 0 ? h : h + Math.round((gy - h) * s / (float) steps);
+                on[ly * px + lx] = true;
+            }
+        }
+        ink = offsets(on);
+        bond_ink[bonds] = ink;
+        return ink;
+    }
+
+    private int[] labelInk(int type, int state) {
+        if (state < CACHED_STATES) {
+            int ink[] = labels[type][state];
+            if (ink == null) {
+                ink = renderLabel(SquirmCellProperties.getStringType(type) + state);
+                labels[type][state] = ink;
+            }
+            return ink;
+        }
+        return renderLabel(SquirmCellProperties.getStringType(type) + state);
+    }
+
+    /** the label as drawString puts it in the square, as ink offsets */
+    private int[] renderLabel(final String str) {
+        final BufferedImage glyph = new BufferedImage(px, px, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D g = glyph.createGraphics();
+        g.setColor(Color.white);
+        g.drawString(str, 2, px - 2);
+        g.dispose();
+        final boolean on[] = new boolean[px * px];
+        for (int ly = 0; ly < px; ly++)
+            for (int lx = 0; lx < px; lx++)
+                on[ly * px + lx] = (glyph.getRaster().getSample(lx, ly, 0) & 0x80) != 0;
+        return offsets(on);
+    }
+
+    private static int[] offsets(final boolean on[]) {
+        int n = 0;
+        for (int i = 0; i < on.length; i++)
+            if (on[i])
+                n++;
+        final int offsets[] = new int[n];
+        n = 0;
+        for (int i = 0; i < on.length; i++)
+            if (on[i])
+                offsets[n++] = i;
+        return offsets;
+    }
+
+} // End of the class //
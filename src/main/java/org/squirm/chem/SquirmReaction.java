@@ -49,4 +49,12 @@ class SquirmReaction {
         this.future_bond = future_bond;
         this.future_them_state = future_them_state;        
     }
+
+    /**
+     * e.g. "e8 e0 => e4-e3"
+     */
+    public String toString() {
+        return "" + us_type + us_state + (current_bond ? "-" : " ") + them_type + them_state + " => " + us_type
+                + future_us_state + (future_bond ? "-" : " ") + them_type + future_them_state;
+    }
 };
\ No newline at end of file
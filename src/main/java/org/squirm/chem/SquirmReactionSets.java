@@ -0,0 +1,165 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmReactionSets.java
+
+/**
+ * The built-in reaction sets, by variant number (0, 1, 5 and 9).
+ */
+class SquirmReactionSets {
+
+    public static final int VARIANTS[] = { 0, 1, 5, 9 };
+
+    private static void add(final SquirmChemistry chemistry, String us_type, int us_state, boolean current_bond,
+            String them_type, int them_state, int future_us_state, boolean future_bond, int future_them_state) {
+        chemistry.addReaction(new SquirmReaction(us_type.charAt(0), us_state, current_bond, them_type.charAt(0),
+                them_state, future_us_state, future_bond, future_them_state));
+    }
+
+    /**
+     * add the reactions of one of the built-in variants to the chemistry
+     */
+    static void addReactions(final SquirmChemistry chemistry, int variant) {
+        switch (variant) {
+        case 0: {
+            // new slimline replication reactions (for: e8-a1-b1-...-f1)
+            add(chemistry, "e", 8, false, "e", 0, 4, true, 3); // R1
+            add(chemistry, "x", 4, true,  "y", 1, 2, true, 5); // R2
+            add(chemistry, "x", 5, false, "x", 0, 7, true, 6); // R3
+            add(chemistry, "x", 3, false, "y", 6, 2, true, 3); // R4
+            add(chemistry, "x", 7, true,  "y", 3, 4, true, 3); // R5
+            add(chemistry, "f", 4, true,  "f", 3, 8, false, 8); // R6
+            add(chemistry, "x", 2, true,  "y", 8, 9, true, 1); // R7
+            add(chemistry, "x", 9, true,  "y", 9, 8, false, 8); // R8
+            break;
+        }
+        case 1: {
+            // genes as instructions (for: e1-a1-b1-...-f1)
+            add(chemistry, "e", 1, false, "e", 0, 4, true, 3); // R1
+            add(chemistry, "x", 4, true,  "y", 1, 2, true, 5); // R2
+            add(chemistry, "x", 5, false, "x", 0, 7, true, 6); // R3
+            add(chemistry, "x", 3, false, "y", 6, 2, true, 3); // R4
+            add(chemistry, "x", 7, true,  "y", 3, 4, true, 3); // R5
+            add(chemistry, "f", 4, true,  "f", 3, 8, false, 8); // R6
+            add(chemistry, "x", 2, true,  "y", 8, 9, true, 10); // R7
+            add(chemistry, "x", 9, true,  "y", 9, 8, false, 8); // R8
+
+            add(chemistry, "f", 10, true, "x", 10, 1, true, 11); // R9
+            add(chemistry, "x", 12, true, "y", 10, 1, true, 11); // R10
+            add(chemistry, "e", 8, true,  "x", 12, 1, true, 1); // R11
+
+            // some catalysing reactions to try
+            add(chemistry, "a", 11, false, "b", 0, 12, false, 1); // R12?
+            add(chemistry, "b", 11, false, "a", 0, 12, false, 0); // R13?
+            add(chemistry, "c", 11, false, "d", 0, 12, false, 0); // R14?
+            add(chemistry, "d", 11, false, "d", 0, 12, false, 0); // R15?
+            break;
+        }
+        case 5: // Variant 5 replication reactions
+        {
+            // -- the reactions for self-replicating strings --
+            add(chemistry, "e", 1, false, "e", 0, 4, true, 10); // R1
+            add(chemistry, "x", 4, true, "y", 1, 2, true, 5); // R2
+            add(chemistry, "x", 5, false, "x", 0, 7, true, 6); // R3
+            add(chemistry, "x", 10, false, "y", 6, 3, true, 10); // R4
+            add(chemistry, "x", 7, true, "y", 10, 4, true, 10); // R5
+            add(chemistry, "f", 4, true, "f", 10, 8, false, 8); // R6
+            add(chemistry, "x", 2, true, "y", 8, 9, true, 1); // R7
+            add(chemistry, "x", 3, true, "y", 8, 9, true, 1); // R8
+            add(chemistry, "x", 9, true, "y", 9, 8, false, 8); // R9
+            add(chemistry, "e", 8, true, "x", 1, 1, true, 1); // R10
+            break;
+        }
+        case 9: // Variant 9 replication and membrane reactions
+        {
+            // pre-duplication hurdles (to slow things down)
+            add(chemistry, "e", 1, false, "d", 0, 37, false, 0);
+            add(chemistry, "e", 37, false, "c", 0, 38, false, 0);
+            // start of duplication
+            add(chemistry, "e", 38, false, "a", 11, 5, true, 10); // R8 // was 4,
+            // not 11 (slows
+            // down+tidies)
+            add(chemistry, "a", 10, true, "a", 4, 10, true, 11); // R9
+            add(chemistry, "a", 11, false, "e", 6, 13, true, 3); // R10
+            // mid-duplication
+            add(chemistry, "x", 4, true, "y", 1, 2, true, 5); // R1
+            add(chemistry, "x", 5, false, "x", 0, 7, true, 6); // R2
+            add(chemistry, "x", 3, false, "y", 6, 2, true, 3); // R3
+            add(chemistry, "x", 7, true, "x", 3, 4, true, 3); // R4
+            // start of splitting
+            add(chemistry, "f", 4, false, "a", 4, 8, true, 10); // R7a
+            add(chemistry, "f", 3, false, "a", 11, 8, false, 12); // R7b
+            // mid-splitting
+            add(chemistry, "x", 8, true, "y", 8, 9, false, 9); // R5
+            add(chemistry, "x", 9, true, "y", 2, 1, true, 8); // R6
+
+            // start of pulling
+            add(chemistry, "a", 10, true, "f", 1, 19, true, 12); // R18
+            add(chemistry, "a", 12, false, "f", 11, 20, true, 21); // R19
+            add(chemistry, "a", 19, true, "f", 21, 19, true, 11); // R20
+            add(chemistry, "a", 20, false, "x", 13, 15, true, 14); // R21
+            // mid-pulling
+            add(chemistry, "x", 12, true, "y", 1, 11, true, 13); // R12
+            add(chemistry, "a", 9, false, "x", 13, 15, true, 14); // R13
+            add(chemistry, "a", 15, true, "x", 11, 16, false, 17); // R14
+            add(chemistry, "a", 16, true, "x", 14, 9, true, 12); // R15
+            add(chemistry, "x", 17, true, "y", 11, 1, true, 11); // R16
+            // end of pulling
+            add(chemistry, "x", 12, true, "e", 9, 11, true, 13); // R17
+
+            // membranes join
+            add(chemistry, "a", 15, true, "e", 12, 22, false, 13); // R23
+            add(chemistry, "a", 22, true, "a", 19, 22, true, 25); // R23b
+            add(chemistry, "a", 25, true, "f", 1, 26, false, 1); // R23c
+            add(chemistry, "a", 26, false, "a", 10, 24, true, 23); // R24
+
+            // membranes separate
+            add(chemistry, "a", 22, true, "a", 24, 11, false, 4); // R25 // tried
+            // with 11 here
+            // instead of 4
+            add(chemistry, "a", 14, true, "a", 23, 27, false, 28); // R26
+
+            // gene-strings are released into their new membranes
+            add(chemistry, "a", 27, true, "e", 9, 4, false, 1); // R27
+            add(chemistry, "a", 28, true, "e", 13, 30, false, 29); // R28
+            add(chemistry, "e", 29, true, "x", 17, 1, true, 1); // R29
+            add(chemistry, "a", 30, true, "a", 11, 4, true, 4); // R31
+
+            // synthesis of a31's through contact of a0 with x1 or x2 (pretty
+            // liberal)
+            add(chemistry, "x", 1, false, "a", 0, 1, false, 31); // R32
+            add(chemistry, "x", 2, false, "a", 0, 2, false, 31); // R32b
+
+            // membrane growth
+            add(chemistry, "a", 4, false, "a", 31, 33, true, 32); // R33
+            add(chemistry, "a", 33, true, "a", 4, 34, true, 35); // R34
+            add(chemistry, "a", 35, false, "a", 32, 36, true, 4); // R35
+            add(chemistry, "a", 36, true, "a", 34, 4, false, 4); // R36
+            break;
+        }
+        default:
+            throw new Error("SquirmReactionSets::addReactions : no such reaction set " + variant);
+        }
+    }
+
+} // End of the class //
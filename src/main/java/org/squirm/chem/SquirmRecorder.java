@@ -0,0 +1,279 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmRecorder.java
+
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a picture of the world every so many steps, for time-lapse videos.
+ * 
+ * On the stepping thread the recorder only copies the atoms into a
+ * SquirmFrame (taken from a pool, so nothing is allocated) and queues it.
+ * Worker threads draw queued frames with their own SquirmRaster and write
+ * them as frame_<step>.png, or .rgb (width*height*3 bytes, no header).
+ * 
+ * The queue is bounded. When it's full the Policy says whether the stepping
+ * thread waits for a worker (BLOCK), or a frame is dropped: the new one
+ * (DROP_NEWEST) or the oldest waiting (DROP_OLDEST). Dropped frames are
+ * counted.
+ */
+public class SquirmRecorder implements SquirmStepListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmRecorder.class);
+
+    public enum Format {
+        PNG, RAW
+    }
+
+    public enum Policy {
+        BLOCK, DROP_NEWEST, DROP_OLDEST
+    }
+
+    private final File directory;
+    private final int every;
+    private final Format format;
+    private final Policy policy;
+    private final int square_pixels;
+
+    private final BlockingQueue<SquirmFrame> queue;
+    /** frames not in the queue or being written */
+    private final BlockingQueue<SquirmFrame> free;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean closed = false;
+
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * record every n'th step into directory, through a queue of capacity
+     * frames, on the given number of worker threads
+     */
+    public SquirmRecorder(final File directory, int n_x, int n_y, int every, final Format format,
+            final Policy policy, int capacity, int threads, int square_pixels) {
+        if (every < 1)
+            throw new Error("SquirmRecorder::SquirmRecorder : every must be at least 1");
+        if (capacity < 1 || threads < 1)
+            throw new Error("SquirmRecorder::SquirmRecorder : need a queue and at least one worker");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new Error("SquirmRecorder::SquirmRecorder : can't make " + directory);
+        this.directory = directory;
+        this.every = every;
+        this.format = format;
+        this.policy = policy;
+        this.square_pixels = square_pixels;
+        queue = new ArrayBlockingQueue<SquirmFrame>(capacity);
+        // a frame for each queue slot, each worker and the one being captured
+        free = new ArrayBlockingQueue<SquirmFrame>(capacity + threads + 1);
+        for (int i = 0; i < capacity + threads + 1; i++)
+            free.add(new SquirmFrame(n_x, n_y));
+        for (int i = 0; i < threads; i++) {
+            final Thread t = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "squirm-recorder-" + (i + 1));
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * (stepping thread) queue a copy of the grid if this is a step to record
+     */
+    public void stepped(final SquirmGrid grid) {
+        if (closed || grid.getCount() % every != 0)
+            return;
+        captured.incrementAndGet();
+        SquirmFrame frame = free.poll();
+        if (frame == null) {
+            if (policy != Policy.BLOCK) {
+                dropped.incrementAndGet();
+                return;
+            }
+            frame = take(free);
+        }
+        frame.capture(grid);
+        if (queue.offer(frame))
+            return;
+        switch (policy) {
+        case BLOCK:
+            try {
+                queue.put(frame);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                free.add(frame);
+                dropped.incrementAndGet();
+            }
+            break;
+        case DROP_NEWEST:
+            free.add(frame);
+            dropped.incrementAndGet();
+            break;
+        case DROP_OLDEST:
+            final SquirmFrame oldest = queue.poll();
+            if (oldest != null) {
+                free.add(oldest);
+                dropped.incrementAndGet();
+            }
+            if (!queue.offer(frame)) {
+                free.add(frame);
+                dropped.incrementAndGet();
+            }
+            break;
+        }
+    }
+
+    private static SquirmFrame take(final BlockingQueue<SquirmFrame> q) {
+        try {
+            return q.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Error("SquirmRecorder::take : interrupted");
+        }
+    }
+
+    private void work() {
+        SquirmRaster raster = null;
+        while (true) {
+            final SquirmFrame frame;
+            try {
+                frame = queue.take();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            // an empty frame is the signal to stop
+            if (frame.getSizeX() == 0) {
+                return;
+            }
+            try {
+                if (raster == null)
+                    raster = new SquirmRaster(frame.getSizeX(), frame.getSizeY(), square_pixels);
+                raster.render(frame);
+                write(raster, frame.getStep());
+                written.incrementAndGet();
+            } catch (final IOException e) {
+                failed.incrementAndGet();
+                LOGGER.error("Failed to write frame : step=" + frame.getStep() + " " + e);
+            } catch (final RuntimeException e) {
+                // a worker that died would leave BLOCK waiting for it forever
+                failed.incrementAndGet();
+                LOGGER.error("Failed to draw frame : step=" + frame.getStep(), e);
+            } finally {
+                free.add(frame);
+            }
+        }
+    }
+
+    /** (worker thread) write out a drawn frame */
+    void write(final SquirmRaster raster, int step) throws IOException {
+        final String name = String.format("frame_%08d", step);
+        if (format == Format.PNG) {
+            ImageIO.write(raster.getImage(), "png", new File(directory, name + ".png"));
+            return;
+        }
+        final int pixels[] = ((DataBufferInt) raster.getImage().getRaster().getDataBuffer())
+                .getData();
+        final ByteBuffer bytes = ByteBuffer.allocate(pixels.length * 3);
+        for (int i = 0; i < pixels.length; i++) {
+            final int rgb = pixels[i];
+            bytes.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb);
+        }
+        bytes.flip();
+        final FileOutputStream out = new FileOutputStream(new File(directory, name + ".rgb"));
+        try {
+            final FileChannel channel = out.getChannel();
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * stop recording, write out what's queued and wait for the workers
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (int i = 0; i < workers.size(); i++) {
+            try {
+                queue.put(new SquirmFrame(0, 0));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        for (final Thread t : workers) {
+            try {
+                t.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        LOGGER.info("Recorder closed : " + this);
+    }
+
+    /** steps due to be recorded, written or dropped */
+    public long getCaptured() {
+        return captured.get();
+    }
+
+    /** frames thrown away because the workers fell behind */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public String toString() {
+        return "every=" + every + " format=" + format + " policy=" + policy + " captured=" + getCaptured()
+                + " written=" + getWritten() + " dropped=" + getDropped() + " failed=" + getFailed();
+    }
+
+} // End of the class //
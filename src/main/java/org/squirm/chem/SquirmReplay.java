@@ -0,0 +1,287 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmReplay.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Plays back a run recorded by SquirmJournal: seek(step) gives the grid as it
+ * was after that step, without any chemistry being done.
+ * 
+ * A seek starts from the newest good checkpoint in the journal's directory
+ * at or before the step that the index has an offset for, and applies the
+ * journal's events from there. Seeking forwards carries on from where the
+ * last seek got to when that's nearer than any checkpoint. Each checkpoint's
+ * checksum is only worked out once, unless the file changes.
+ */
+public class SquirmReplay {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmReplay.class);
+
+    private static final int BUFFER = 1 << 20;
+
+    private final File directory;
+    private final SquirmChemistry chemistry;
+    private final RandomAccessFile journal_file;
+    private final FileChannel journal;
+    private final int first_step;
+
+    /** the index: steps and where their events start, in step order */
+    private final int index_steps[];
+    private final long index_offsets[];
+
+    /** checkpoints that verified, with when they were last modified then */
+    private final Map<File, Long> verified = new HashMap<File, Long>();
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+    private SquirmGrid grid = null;
+    private int last_sq;
+    private long events = 0;
+
+    /**
+     * open the journal in directory; checkpoints loaded replace the
+     * chemistry's reactions
+     */
+    public SquirmReplay(final File directory, final SquirmChemistry chemistry) throws IOException {
+        this.directory = directory;
+        this.chemistry = chemistry;
+        journal_file = new RandomAccessFile(new File(directory, SquirmJournal.JOURNAL), "r");
+        journal = journal_file.getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(SquirmJournal.HEADER);
+        while (header.hasRemaining())
+            if (journal.read(header) < 0)
+                throw new IOException("journal too short : " + directory);
+        header.flip();
+        if (header.getInt() != SquirmJournal.MAGIC)
+            throw new IOException("not a squirm journal : " + directory);
+        final int version = header.getInt();
+        if (version != SquirmJournal.VERSION)
+            throw new IOException("journal version " + version + " not supported : " + directory);
+        header.getInt();
+        header.getInt();
+        first_step = header.getInt();
+
+        final RandomAccessFile index_file = new RandomAccessFile(new File(directory, SquirmJournal.INDEX), "r");
+        try {
+            final int n = (int) (index_file.length() / 12);
+            index_steps = new int[n];
+            index_offsets = new long[n];
+            for (int i = 0; i < n; i++) {
+                index_steps[i] = index_file.readInt();
+                index_offsets[i] = index_file.readLong();
+            }
+        } finally {
+            index_file.close();
+        }
+        if (index_steps.length == 0 || index_steps[0] != first_step)
+            throw new IOException("journal index doesn't start at the journal : " + directory);
+    }
+
+    /**
+     * the grid as it was after step, or an Error if the journal doesn't
+     * reach it
+     */
+    public SquirmGrid seek(int step) throws IOException {
+        if (step < first_step)
+            throw new Error("SquirmReplay::seek : journal starts at step " + first_step);
+        // the newest checkpoint we can start from
+        File start = null;
+        long offset = -1;
+        final File files[] = SquirmCheckpointer.list(directory);
+        for (int i = files.length - 1; i >= 0 && start == null; i--) {
+            final int at = SquirmCheckpointer.stepOf(files[i]);
+            if (at > step)
+                continue;
+            final int k = find(at);
+            if (k >= 0 && isGood(files[i])) {
+                start = files[i];
+                offset = index_offsets[k];
+            }
+        }
+        if (start == null)
+            throw new Error("SquirmReplay::seek : no checkpoint to start from in " + directory);
+
+        if (grid == null || grid.getCount() > step || grid.getCount() < SquirmCheckpointer.stepOf(start)) {
+            grid = SquirmCheckpoint.loadVerified(start, chemistry);
+            journal.position(offset);
+            buffer.clear().flip();
+            last_sq = 0;
+        }
+        while (grid.getCount() < step)
+            apply();
+        return grid;
+    }
+
+    /** SquirmCheckpoint.verify(file), remembered */
+    private boolean isGood(final File file) {
+        final Long modified = verified.get(file);
+        if (modified != null && modified == file.lastModified())
+            return true;
+        final long before = file.lastModified();
+        if (!SquirmCheckpoint.verify(file))
+            return false;
+        verified.put(file, before);
+        return true;
+    }
+
+    /** where the index has this step, or -1 */
+    private int find(int step) {
+        int lo = 0;
+        int hi = index_steps.length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (index_steps[mid] < step)
+                lo = mid + 1;
+            else if (index_steps[mid] > step)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /** do the next event */
+    private void apply() throws IOException {
+        final SquirmWorld world = grid.getWorld();
+        final int op = get();
+        final int low = op & 7;
+        switch (op & ~7) {
+        case SquirmJournal.OP_MOVE:
+            world.move(square(), low);
+            break;
+        case SquirmJournal.OP_BOND:
+            world.makeBond(square(), low);
+            break;
+        case SquirmJournal.OP_UNBOND:
+            world.breakBond(square(), low);
+            break;
+        case SquirmJournal.OP_STATE: {
+            final int sq = square();
+            world.setState(sq, getVarint());
+            break;
+        }
+        case SquirmJournal.OP_KILL:
+            world.kill(square());
+            break;
+        case SquirmJournal.OP_SPAWN: {
+            final int sq = square();
+            world.place(sq, SquirmWorld.OCCUPIED | (low << SquirmWorld.TYPE_SHIFT)
+                    | (getVarint() << SquirmWorld.STATE_SHIFT));
+            break;
+        }
+        case SquirmJournal.OP_COMPACT:
+            world.compact();
+            break;
+        case SquirmJournal.OP_STEP: {
+            grid.setOnRight(low != 0);
+            long state = 0;
+            for (int i = 0; i < 8; i++)
+                state = (state << 8) | get();
+            grid.getRandom().setState(state);
+            grid.setCount(grid.getCount() + 1);
+            // the index starts the deltas again at these steps
+            if (find(grid.getCount()) >= 0)
+                last_sq = 0;
+            return;
+        }
+        default:
+            throw new IOException("corrupt journal, opcode " + op + " : " + directory);
+        }
+        events++;
+    }
+
+    private int square() throws IOException {
+        final int z = getVarint();
+        last_sq += (z >>> 1) ^ -(z & 1);
+        return last_sq;
+    }
+
+    private int getVarint() throws IOException {
+        int v = 0;
+        for (int shift = 0;; shift += 7) {
+            final int b = get();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+    }
+
+    private int get() throws IOException {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            final int n = journal.read(buffer);
+            buffer.flip();
+            if (n <= 0)
+                throw new Error("SquirmReplay::get : journal ends after step " + grid.getCount());
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    public SquirmGrid getGrid() {
+        return grid;
+    }
+
+    /** events applied so far */
+    public long getEvents() {
+        return events;
+    }
+
+    public void close() throws IOException {
+        journal_file.close();
+    }
+
+    /**
+     * SquirmReplay DIR STEP [FILE] : replays a journal to a step and saves it
+     * as a checkpoint, by default in DIR where later seeks can start from it
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            LOGGER.error("usage: SquirmReplay DIR STEP [FILE]");
+            System.exit(1);
+        }
+        final File directory = new File(args[0]);
+        final int step = Integer.parseInt(args[1]);
+        final File out = args.length > 2 ? new File(args[2]) : new File(directory, SquirmCheckpointer.name(step));
+        final SquirmChemistry chemistry = new SquirmChemistry();
+        final SquirmReplay replay = new SquirmReplay(directory, chemistry);
+        try {
+            final long start = System.nanoTime();
+            final SquirmGrid grid = replay.seek(step);
+            LOGGER.info("Replayed to step " + step + " : events=" + replay.getEvents() + " ms="
+                    + (System.nanoTime() - start) / 1000000);
+            SquirmCheckpoint.save(out, grid, chemistry);
+        } finally {
+            replay.close();
+        }
+    }
+
+} // End of the class //
@@ -0,0 +1,316 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmReplicators.java
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Counts the copies of each sequence of atom types among the linear
+ * molecules (unbranched chains) of a world, to watch strings such as
+ * e8-a1-b1-c1-f1 replicate without looking at the screen.
+ * 
+ * A chain's sequence is its type letters from the e end to the f end (when
+ * it has one of each at its ends, otherwise whichever way round hashes
+ * lower), kept as a polynomial rolling hash; sequences whose hashes collide
+ * are told apart by their letters. Only the molecules that
+ * SquirmMolecules says changed in a step are walked again, and only those
+ * of at most max_length atoms, so the cost follows the chemistry going on
+ * and not the size of the world.
+ * 
+ * Each sequence seen has its number of copies now and its births: how far
+ * its copies have risen above the most there had been before. A chain
+ * stops being counted while it's branched, as a template is while it's
+ * being copied, and coming back out of the copying ladder isn't a copy
+ * made; only growth past the high-water mark is. births over the atom
+ * updates done is the replication rate.
+ */
+public class SquirmReplicators implements SquirmStepListener {
+
+    /** rolling hash base */
+    private static final long BASE = 0x100000001B3L;
+
+    /** one sequence of types, with its copies */
+    public static final class Sequence {
+        private final String letters;
+        private int copies = 0;
+        private long births = 0;
+        /** the most copies there have been */
+        private int most = 0;
+        /** the next sequence with the same hash */
+        private Sequence collided = null;
+
+        Sequence(final String letters) {
+            this.letters = letters;
+        }
+
+        /** the type letters, e.g. "eabcf" */
+        public String getLetters() {
+            return letters;
+        }
+
+        public int getCopies() {
+            return copies;
+        }
+
+        public long getBirths() {
+            return births;
+        }
+
+        public String toString() {
+            return letters + "x" + copies;
+        }
+    }
+
+    private final SquirmWorld world;
+    private final SquirmMolecules molecules;
+    private final int max_length;
+
+    /** the sequence each molecule number is counted under, or null */
+    private Sequence counted[] = new Sequence[0];
+
+    /** by hash, those that collide chained on from the first */
+    private final HashMap<Long, Sequence> sequences = new HashMap<Long, Sequence>();
+    private final List<Sequence> all_sequences = new ArrayList<Sequence>();
+    private int distinct = 0;
+    private int linear = 0;
+    private long atom_updates = 0;
+
+    /** a chain in order, being hashed */
+    private int chain[] = new int[16];
+
+    /**
+     * the sequences the update going on has counted a copy of at their most,
+     * which may have gone past it
+     */
+    private final List<Sequence> touched = new ArrayList<Sequence>();
+
+    /**
+     * count the sequences of chains of up to max_length atoms among the
+     * tracked molecules
+     */
+    public SquirmReplicators(final SquirmMolecules molecules, final SquirmWorld world, int max_length) {
+        if (max_length < 2)
+            throw new Error("SquirmReplicators::SquirmReplicators : chains have at least 2 atoms");
+        this.world = world;
+        this.molecules = molecules;
+        this.max_length = max_length;
+        molecules.watch();
+        update();
+        // what's there to start with wasn't born
+        for (final Sequence s : all_sequences)
+            s.births = 0;
+    }
+
+    /** the rolling hash of a sequence of type letters, e.g. "eabcf" */
+    static long hash(final String letters) {
+        long h = 0;
+        for (int i = 0; i < letters.length(); i++)
+            h = h * BASE + SquirmCellProperties.getType(letters.charAt(i)) + 1;
+        return h;
+    }
+
+    // ----------------------------------------------------------
+
+    /** (stepping thread) look again at the molecules that changed */
+    public void stepped(final SquirmGrid grid) {
+        atom_updates += grid.getSteppedLastStep();
+        update();
+    }
+
+    private void update() {
+        for (final int m : molecules.takeChanged()) {
+            if (m >= counted.length)
+                counted = Arrays.copyOf(counted, Math.max(m + 1, counted.length * 2));
+            final Sequence s = counted[m];
+            if (s != null) {
+                if (--s.copies == 0)
+                    distinct--;
+                counted[m] = null;
+                linear--;
+            }
+            final int n = molecules.sizeOf(m);
+            if (n >= 2 && n <= max_length && walk(m, n))
+                count(m, n);
+        }
+        for (final Sequence s : touched) {
+            if (s.copies > s.most) {
+                s.births += s.copies - s.most;
+                s.most = s.copies;
+            }
+        }
+        touched.clear();
+    }
+
+    /** put the atoms of molecule m in chain order, false if it isn't one */
+    private boolean walk(int m, int n) {
+        int end = -1;
+        int ends = 0;
+        final int f = molecules.firstOf(m);
+        int id = f;
+        do {
+            final int bonds = Integer.bitCount(world.getBonds(world.getSquare(id)));
+            if (bonds > 2)
+                return false;
+            if (bonds == 1) {
+                ends++;
+                end = id;
+            }
+            id = molecules.nextOf(id);
+        } while (id != f);
+        if (ends != 2)
+            return false;
+        if (chain.length < n)
+            chain = new int[Math.max(n, chain.length * 2)];
+        int last = -1;
+        id = end;
+        for (int i = 0; i < n; i++) {
+            chain[i] = id;
+            final int sq = world.getSquare(id);
+            int to = -1;
+            for (int rest = world.getBonds(sq); rest != 0 && to < 0; rest &= rest - 1) {
+                final int other = world.getId(sq + world.getOffset(Integer.numberOfTrailingZeros(rest)));
+                if (other != last)
+                    to = other;
+            }
+            last = id;
+            id = to;
+        }
+        return true;
+    }
+
+    /** count the chain just walked under its sequence */
+    private void count(int m, int n) {
+        long forward = 0;
+        long backward = 0;
+        for (int i = 0; i < n; i++) {
+            forward = forward * BASE + world.getType(world.getSquare(chain[i])) + 1;
+            backward = backward * BASE + world.getType(world.getSquare(chain[n - 1 - i])) + 1;
+        }
+        final int head = world.getType(world.getSquare(chain[0]));
+        final int tail = world.getType(world.getSquare(chain[n - 1]));
+        final boolean reversed;
+        if (head == 0 && tail == 1)
+            reversed = false;
+        else if (head == 1 && tail == 0)
+            reversed = true;
+        else
+            reversed = backward < forward;
+        final long h = reversed ? backward : forward;
+        final Sequence first = sequences.get(h);
+        Sequence s = first;
+        while (s != null && !matches(s, n, reversed))
+            s = s.collided;
+        if (s == null) {
+            final StringBuilder letters = new StringBuilder(n);
+            for (int i = 0; i < n; i++)
+                letters.append(SquirmCellProperties.getStringType(world.getType(world.getSquare(chain[reversed ? n
+                        - 1 - i : i]))));
+            s = new Sequence(letters.toString());
+            if (first == null)
+                sequences.put(h, s);
+            else {
+                s.collided = first.collided;
+                first.collided = s;
+            }
+            all_sequences.add(s);
+        }
+        if (s.copies == s.most)
+            touched.add(s);
+        if (s.copies++ == 0)
+            distinct++;
+        counted[m] = s;
+        linear++;
+    }
+
+    /** whether the chain just walked spells out the sequence */
+    private boolean matches(final Sequence s, int n, boolean reversed) {
+        if (s.letters.length() != n)
+            return false;
+        for (int i = 0; i < n; i++)
+            if (SquirmCellProperties.getType(s.letters.charAt(i)) != world.getType(world.getSquare(chain[reversed ? n
+                    - 1 - i : i])))
+                return false;
+        return true;
+    }
+
+    // ----------------------------------------------------------
+
+    /**
+     * the sequence of these type letters, "eabcf" (or "e8-a1-b1-c1-f1", the
+     * states are ignored), null if never seen
+     */
+    public Sequence getSequence(final String letters) {
+        final String wanted = letters.replaceAll("[^a-f]", "");
+        Sequence s = sequences.get(hash(wanted));
+        while (s != null && !s.letters.equals(wanted))
+            s = s.collided;
+        return s;
+    }
+
+    /** copies there are now of a sequence */
+    public int getCopies(final String letters) {
+        final Sequence s = getSequence(letters);
+        return s == null ? 0 : s.copies;
+    }
+
+    /** the n sequences with the most copies, most first */
+    public List<Sequence> getTop(int n) {
+        final List<Sequence> all = new ArrayList<Sequence>();
+        for (final Sequence s : all_sequences)
+            if (s.copies > 0)
+                all.add(s);
+        Collections.sort(all, new Comparator<Sequence>() {
+            public int compare(final Sequence a, final Sequence b) {
+                return a.copies != b.copies ? b.copies - a.copies : a.letters.compareTo(b.letters);
+            }
+        });
+        return all.subList(0, Math.min(n, all.size()));
+    }
+
+    /** sequences with at least one copy now */
+    public int getDistinct() {
+        return distinct;
+    }
+
+    /** chains counted now */
+    public int getLinear() {
+        return linear;
+    }
+
+    /** atom updates since counting started */
+    public long getAtomUpdates() {
+        return atom_updates;
+    }
+
+    /** births of a sequence per million atom updates */
+    public double getBirthRate(final Sequence s) {
+        return atom_updates == 0 ? 0 : s.births * 1e6 / atom_updates;
+    }
+
+} // End of the class //
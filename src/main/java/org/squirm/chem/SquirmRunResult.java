@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmRunResult.java
+
+/**
+ * Summary of a finished (or cancelled, or failed) ensemble run. The world
+ * itself is not kept, so holding on to results costs next to nothing.
+ * 
+ * The replicator is the chain sequence of at least three atoms with the
+ * most copies at the end of the run (see SquirmReplicators), with its
+ * births per million atom updates; null if there was no such chain.
+ */
+public class SquirmRunResult {
+
+    private final SquirmRunSpec spec;
+    private final long seed;
+    private final long steps;
+    private final int atoms;
+    private final int bonds;
+    private final double steps_per_second;
+    private final boolean cancelled;
+    private final String error;
+    private final String replicator;
+    private final int replicator_copies;
+    private final double replicator_birth_rate;
+
+    SquirmRunResult(final SquirmRunSpec spec, long seed, long steps, int atoms, int bonds, double steps_per_second,
+            boolean cancelled, final String error) {
+        this(spec, seed, steps, atoms, bonds, steps_per_second, cancelled, error, null, 0, 0);
+    }
+
+    SquirmRunResult(final SquirmRunSpec spec, long seed, long steps, int atoms, int bonds, double steps_per_second,
+            boolean cancelled, final String error, final String replicator, int replicator_copies,
+            double replicator_birth_rate) {
+        this.spec = spec;
+        this.seed = seed;
+        this.steps = steps;
+        this.atoms = atoms;
+        this.bonds = bonds;
+        this.steps_per_second = steps_per_second;
+        this.cancelled = cancelled;
+        this.error = error;
+        this.replicator = replicator;
+        this.replicator_copies = replicator_copies;
+        this.replicator_birth_rate = replicator_birth_rate;
+    }
+
+    public SquirmRunSpec getSpec() {
+        return spec;
+    }
+
+    /** the seed the run actually used */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** steps run, fewer than asked for if cancelled or failed */
+    public long getSteps() {
+        return steps;
+    }
+
+    public int getAtomCount() {
+        return atoms;
+    }
+
+    public int getBondCount() {
+        return bonds;
+    }
+
+    public double getStepsPerSecond() {
+        return steps_per_second;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    /** the message of the Error that stopped the run, or null */
+    public String getError() {
+        return error;
+    }
+
+    /** type letters of the commonest chain, e.g. "eabcf", or null */
+    public String getReplicator() {
+        return replicator;
+    }
+
+    public int getReplicatorCopies() {
+        return replicator_copies;
+    }
+
+    /** births of the replicator per million atom updates */
+    public double getReplicatorBirthRate() {
+        return replicator_birth_rate;
+    }
+
+    public String toString() {
+        return spec.getName() + " seed=" + seed + " steps=" + steps + " atoms=" + atoms + " bonds=" + bonds
+                + " stepsPerSec=" + String.format("%.1f", steps_per_second)
+                + (replicator != null ? " replicator=" + replicator + "x" + replicator_copies
+                        + String.format("(%.3g/M)", replicator_birth_rate) : "") + (cancelled ? " cancelled" : "")
+                + (error != null ? " error=" + error : "");
+    }
+
+} // End of the class //
@@ -0,0 +1,59 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmRunSpec.java
+
+/**
+ * One run of an ensemble: the world to build and how many steps to run it for.
+ */
+public class SquirmRunSpec {
+
+    private final String name;
+    private final SquirmConfig config;
+    private final long steps;
+
+    public SquirmRunSpec(final String name, final SquirmConfig config, long steps) {
+        if (steps < 0)
+            throw new Error("SquirmRunSpec::SquirmRunSpec : steps can't be negative");
+        this.name = name;
+        this.config = config;
+        this.steps = steps;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SquirmConfig getConfig() {
+        return config;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public String toString() {
+        return name + " [" + config + " steps=" + steps + "]";
+    }
+
+} // End of the class //
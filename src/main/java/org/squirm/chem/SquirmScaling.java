@@ -0,0 +1,102 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmScaling.java
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reports steps/sec of the tiled parallel time step from 1 up to N threads.
+ * 
+ * Usage: SquirmScaling [size] [max threads] [steps] [reaction set] [density]
+ */
+public class SquirmScaling {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmScaling.class);
+
+    /** every run starts from the same world */
+    private static final long SEED = 1;
+
+    public static void main(final String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        final int max_threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime()
+                .availableProcessors();
+        final int steps = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        final int variant = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        final double density = args.length > 4 ? Double.parseDouble(args[4]) : 0.2;
+
+        final SquirmChemistry chemistry = new SquirmChemistry();
+        SquirmReactionSets.addReactions(chemistry, variant);
+
+        LOGGER.info("Scaling : size=" + size + " steps=" + steps + " reactionSet=" + variant + " density=" + density);
+        double single = 0;
+        for (int threads = 0; threads <= max_threads; threads = nextThreads(threads, max_threads)) {
+            final SquirmGrid grid = makeGrid(size, density);
+            // threads==0 is the strict order sweep, for comparison
+            if (threads > 0)
+                grid.setThreads(threads, SquirmGrid.DEFAULT_TILE);
+            final double rate = stepsPerSecond(grid, chemistry, steps);
+            if (threads == 1)
+                single = rate;
+            LOGGER.info((threads == 0 ? "sequential" : "threads=" + threads) + " stepsPerSec="
+                    + String.format("%.2f", rate) + " atomUpdatesPerSec="
+                    + String.format("%.3g", rate * grid.getWorld().getAtomCount())
+                    + (threads > 1 && single > 0 ? " speedup=" + String.format("%.2f", rate / single) : ""));
+            grid.setThreads(1);
+        }
+    }
+
+    /** 0 (sequential), 1, 2, 4, ... up to max */
+    private static int nextThreads(int threads, int max) {
+        if (threads == 0)
+            return 1;
+        if (threads == max)
+            return max + 1;
+        return Math.min(threads * 2, max);
+    }
+
+    private static SquirmGrid makeGrid(int size, double density) {
+        final SquirmGrid grid = new SquirmGrid(size, size, SEED);
+        final SquirmWorld world = grid.getWorld();
+        final SquirmRandom random = grid.getRandom();
+        final int target = (int) (density * size * size);
+        for (int i = world.getAtomCount(); i < target; i++) {
+            final int px = random.nextInt(size);
+            final int py = random.nextInt(size);
+            if (world.isEmpty(world.index(px, py)))
+                world.spawn(px, py, SquirmCellProperties.getRandomType(random), 0);
+        }
+        return grid;
+    }
+
+    private static double stepsPerSecond(final SquirmGrid grid, final SquirmChemistry chemistry, int steps) {
+        // warm up
+        for (int i = 0; i < Math.max(1, steps / 5); i++)
+            grid.doTimeStep(chemistry);
+        final long start = System.nanoTime();
+        for (int i = 0; i < steps; i++)
+            grid.doTimeStep(chemistry);
+        return steps / ((System.nanoTime() - start) / 1e9);
+    }
+
+} // End of the class //
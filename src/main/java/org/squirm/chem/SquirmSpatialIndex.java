@@ -0,0 +1,313 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmSpatialIndex.java
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds atoms of a given type and state by where they are: all of them in a
+ * rectangle, or the k nearest to a square, without going through every atom.
+ * 
+ * The grid is cut into buckets BUCKET squares wide and each (type, state)
+ * keeps a list of its atoms in each bucket, so a query looks only at the
+ * buckets it covers and the atoms of the right kind in them. An atom knows
+ * which list it's in and where, so it can be taken out again in one go.
+ * 
+ * Tiles stepped in parallel move atoms and change states at the same time,
+ * so each thread notes the atoms it changed and they are refiled between
+ * steps; reading catches up first, so it refiles too and must not run while
+ * a step is going on. Query between steps, on the stepping thread. A state
+ * of -1 in a query means any state.
+ */
+public class SquirmSpatialIndex implements SquirmStepListener {
+
+    static final int BUCKET_SHIFT = 5;
+    static final int BUCKET = 1 << BUCKET_SHIFT;
+
+    private final SquirmWorld world;
+    private final int buckets_x;
+    private final int buckets_y;
+
+    /** the atoms of one (type, state), bucket by bucket */
+    private final class Key {
+        final int lists[][] = new int[buckets_x * buckets_y][];
+        final int sizes[] = new int[buckets_x * buckets_y];
+        int total = 0;
+    }
+
+    /** by (state << 3 | type), as the cell has them above the bonds */
+    private Key keys[] = new Key[8];
+
+    /** where each atom id is filed, key -1 if nowhere */
+    private int key_of[] = new int[0];
+    private int bucket_of[] = new int[0];
+    private int slot_of[] = new int[0];
+
+    /** one thread's changed atoms */
+    private static final class Log {
+        int ids[] = new int[64];
+        int n = 0;
+    }
+
+    private final CopyOnWriteArrayList<Log> logs = new CopyOnWriteArrayList<Log>();
+    private final ThreadLocal<Log> local = new ThreadLocal<Log>() {
+        protected Log initialValue() {
+            final Log log = new Log();
+            logs.add(log);
+            return log;
+        }
+    };
+
+    // query results and nearest candidates, kept between calls
+    private int found[] = new int[64];
+    private int n_found = 0;
+    private long candidates[] = new long[64];
+
+    /**
+     * file the world's atoms now and keep them filed
+     */
+    public SquirmSpatialIndex(final SquirmWorld world) {
+        if (world.spatial != null)
+            throw new Error("SquirmSpatialIndex::SquirmSpatialIndex : the world is already indexed");
+        this.world = world;
+        buckets_x = (world.getSizeX() + BUCKET - 1) >> BUCKET_SHIFT;
+        buckets_y = (world.getSizeY() + BUCKET - 1) >> BUCKET_SHIFT;
+        for (int i = 0; i < world.getOrderLength(); i++)
+            refile(world.getOrderId(i));
+        world.spatial = this;
+    }
+
+    // ---- changes, from the world ----
+
+    /** the atom with this id moved, only matters from bucket to bucket */
+    void moved(int id, int from, int to) {
+        final int n_x = world.getSizeX();
+        if (((from % n_x) ^ (to % n_x)) >> BUCKET_SHIFT != 0 || ((from / n_x) ^ (to / n_x)) >> BUCKET_SHIFT != 0)
+            changed(id);
+    }
+
+    /** the atom with this id moved, changed state, arrived or went */
+    void changed(int id) {
+        final Log log = local.get();
+        if (log.n == log.ids.length)
+            log.ids = Arrays.copyOf(log.ids, log.n * 2);
+        log.ids[log.n++] = id;
+    }
+
+    // ----------------------------------------------------------
+
+    /** (stepping thread) refile the atoms that changed */
+    public void stepped(final SquirmGrid grid) {
+        flush();
+    }
+
+    /** stop keeping the index */
+    public void detach() {
+        if (world.spatial == this)
+            world.spatial = null;
+    }
+
+    private void flush() {
+        for (final Log log : logs) {
+            for (int i = 0; i < log.n; i++)
+                refile(log.ids[i]);
+            log.n = 0;
+        }
+    }
+
+    /** take an atom out of its list and put it in the right one, if alive */
+    private void refile(int id) {
+        if (id >= key_of.length) {
+            final int old = key_of.length;
+            final int n = Math.max(id + 1, old * 2);
+            key_of = Arrays.copyOf(key_of, n);
+            Arrays.fill(key_of, old, n, -1);
+            bucket_of = Arrays.copyOf(bucket_of, n);
+            slot_of = Arrays.copyOf(slot_of, n);
+        }
+        if (key_of[id] >= 0) {
+            final Key k = keys[key_of[id]];
+            final int b = bucket_of[id];
+            final int list[] = k.lists[b];
+            final int last = list[--k.sizes[b]];
+            list[slot_of[id]] = last;
+            slot_of[last] = slot_of[id];
+            k.total--;
+            key_of[id] = -1;
+        }
+        final int sq = world.getSquare(id);
+        if (sq < 0)
+            return;
+        final int code = world.getCell(sq) >>> SquirmWorld.TYPE_SHIFT;
+        if (code >= keys.length)
+            keys = Arrays.copyOf(keys, Math.max(code + 1, keys.length * 2));
+        if (keys[code] == null)
+            keys[code] = new Key();
+        final Key k = keys[code];
+        final int b = (world.getY(sq) >> BUCKET_SHIFT) * buckets_x + (world.getX(sq) >> BUCKET_SHIFT);
+        if (k.lists[b] == null)
+            k.lists[b] = new int[4];
+        else if (k.sizes[b] == k.lists[b].length)
+            k.lists[b] = Arrays.copyOf(k.lists[b], k.sizes[b] * 2);
+        slot_of[id] = k.sizes[b];
+        k.lists[b][k.sizes[b]++] = id;
+        k.total++;
+        key_of[id] = code;
+        bucket_of[id] = b;
+    }
+
+    // ----------------------------------------------------------
+
+    /** the keys a query covers: one (type, state), or all the type's states */
+    private boolean covers(int code, int type, int state) {
+        return keys[code] != null && (code & SquirmWorld.TYPE_MASK) == type
+                && (state < 0 || code >>> 3 == state);
+    }
+
+    /** (stepping thread) number of atoms of a type and state */
+    public int count(int type, int state) {
+        flush();
+        int n = 0;
+        for (int code = 0; code < keys.length; code++)
+            if (covers(code, type, state))
+                n += keys[code].total;
+        return n;
+    }
+
+    /**
+     * (stepping thread) squares of the atoms of a type and state in the
+     * rectangle x0..x1, y0..y1 (inclusive), in no particular order
+     */
+    public int[] find(int type, int state, int x0, int y0, int x1, int y1) {
+        flush();
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, world.getSizeX() - 1);
+        y1 = Math.min(y1, world.getSizeY() - 1);
+        n_found = 0;
+        if (x0 > x1 || y0 > y1)
+            return new int[0];
+        for (int code = 0; code < keys.length; code++) {
+            if (!covers(code, type, state))
+                continue;
+            final Key k = keys[code];
+            for (int by = y0 >> BUCKET_SHIFT; by <= y1 >> BUCKET_SHIFT; by++) {
+                for (int bx = x0 >> BUCKET_SHIFT; bx <= x1 >> BUCKET_SHIFT; bx++) {
+                    final int b = by * buckets_x + bx;
+                    // buckets wholly inside need no checks
+                    final boolean inside = bx << BUCKET_SHIFT >= x0 && ((bx + 1) << BUCKET_SHIFT) - 1 <= x1
+                            && by << BUCKET_SHIFT >= y0 && ((by + 1) << BUCKET_SHIFT) - 1 <= y1;
+                    for (int i = 0; i < k.sizes[b]; i++) {
+                        final int sq = world.getSquare(k.lists[b][i]);
+                        if (inside || (world.getX(sq) >= x0 && world.getX(sq) <= x1 && world.getY(sq) >= y0
+                                && world.getY(sq) <= y1))
+                            add(sq);
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(found, n_found);
+    }
+
+    private void add(int sq) {
+        if (n_found == found.length)
+            found = Arrays.copyOf(found, n_found * 2);
+        found[n_found++] = sq;
+    }
+
+    /**
+     * (stepping thread) squares of the k atoms of a type and state nearest
+     * to (x, y), nearest first (ties by square); fewer if there aren't k
+     */
+    public int[] nearest(int type, int state, int x, int y, int k) {
+        final int total = count(type, state);
+        final int want = Math.min(k, total);
+        if (want <= 0)
+            return new int[0];
+        final int cx = x >> BUCKET_SHIFT;
+        final int cy = y >> BUCKET_SHIFT;
+        final int rings = Math.max(Math.max(cx, buckets_x - 1 - cx), Math.max(cy, buckets_y - 1 - cy));
+        int n = 0;
+        for (int r = 0; r <= rings; r++) {
+            // the buckets at ring distance r
+            for (int by = cy - r; by <= cy + r; by++) {
+                if (by < 0 || by >= buckets_y)
+                    continue;
+                final boolean edge = by == cy - r || by == cy + r;
+                for (int bx = cx - r; bx <= cx + r; bx += edge ? 1 : 2 * r) {
+                    if (bx >= 0 && bx < buckets_x)
+                        n = gather(type, state, by * buckets_x + bx, x, y, n);
+                    if (r == 0)
+                        break;
+                }
+            }
+            if (n < want)
+                continue;
+            // no atom further out can be as near as the edge of the rings
+            final long reach = reach(x, y, cx, cy, r);
+            Arrays.sort(candidates, 0, n);
+            if ((candidates[want - 1] >>> 32) < reach * reach)
+                break;
+        }
+        Arrays.sort(candidates, 0, n);
+        final int result[] = new int[want];
+        for (int i = 0; i < want; i++)
+            result[i] = (int) candidates[i];
+        return result;
+    }
+
+    /** add the atoms of a bucket to the candidates, as (distance^2, square) */
+    private int gather(int type, int state, int b, int x, int y, int n) {
+        for (int code = 0; code < keys.length; code++) {
+            if (!covers(code, type, state))
+                continue;
+            final Key k = keys[code];
+            for (int i = 0; i < k.sizes[b]; i++) {
+                final int sq = world.getSquare(k.lists[b][i]);
+                final long dx = world.getX(sq) - x;
+                final long dy = world.getY(sq) - y;
+                if (n == candidates.length)
+                    candidates = Arrays.copyOf(candidates, n * 2);
+                candidates[n++] = (dx * dx + dy * dy) << 32 | sq;
+            }
+        }
+        return n;
+    }
+
+    /** distance from (x, y) to the nearest square outside rings 0..r */
+    private long reach(int x, int y, int cx, int cy, int r) {
+        long d = Long.MAX_VALUE;
+        if (cx - r > 0)
+            d = Math.min(d, x - ((cx - r) << BUCKET_SHIFT) + 1);
+        if (cx + r < buckets_x - 1)
+            d = Math.min(d, ((cx + r + 1) << BUCKET_SHIFT) - x);
+        if (cy - r > 0)
+            d = Math.min(d, y - ((cy - r) << BUCKET_SHIFT) + 1);
+        if (cy + r < buckets_y - 1)
+            d = Math.min(d, ((cy + r + 1) << BUCKET_SHIFT) - y);
+        return d == Long.MAX_VALUE ? Integer.MAX_VALUE : d;
+    }
+
+} // End of the class //
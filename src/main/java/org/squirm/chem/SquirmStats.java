@@ -0,0 +1,498 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmStats.java
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Where the time of a run goes: step time percentiles, the react, move and
+ * age phases, floods, painting, and how often each reaction is tried and
+ * fires. Published as a platform MBean, see register().
+ * 
+ * Nothing is measured unless a SquirmStats is attached to the world, the
+ * step only checks for it. Timing every atom would cost more than stepping
+ * it, so one atom in 1 << SAMPLE_SHIFT has its phases timed, and those
+ * split the measured step time between the phases.
+ * 
+ * The react, move and age times are estimates, not measurements. A phase
+ * of one atom takes about as long as reading the clock, so the cost of a
+ * clock read (timed alongside, around nothing) is taken off each phase. That
+ * correction is only roughly right, and a phase that comes out negative is
+ * shown as 0 rather than as the noise it is. Use them to compare the
+ * phases, and the step time percentiles for how long a step takes.
+ * 
+ * Like SquirmCensus, rule counts are kept per stepping thread. They are
+ * summed up on the stepping thread between steps and published every
+ * PUBLISH_NANOS, so reading them over JMX never touches the step. The step
+ * and paint time percentiles are published with them and cover the same
+ * window: the step times are cleared after, and the painter is given an
+ * empty histogram for the next window while the full one is read.
+ */
+public class SquirmStats implements SquirmStatsMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmStats.class);
+
+    /** one atom in 1 << SAMPLE_SHIFT has its phases timed */
+    static final int SAMPLE_SHIFT = 6;
+    static final int SAMPLE_MASK = (1 << SAMPLE_SHIFT) - 1;
+
+    /** how often the counts are published, and the window for the rates */
+    private static final long PUBLISH_NANOS = 500000000L;
+
+    /** number of MBeans registered so far, to keep their names unique */
+    private static int n_registered = 0;
+
+    private final SquirmWorld world;
+    private final SquirmChemistry chemistry;
+
+    /** one thread's counts */
+    private static final class Counts {
+        long attempts[] = new long[0];
+        long fires[] = new long[0];
+        long react_nanos = 0;
+        long move_nanos = 0;
+        long age_nanos = 0;
+        /** the clock timing nothing, to take off the phases */
+        long clock_nanos = 0;
+
+        void grow(int rules) {
+            attempts = Arrays.copyOf(attempts, rules);
+            fires = Arrays.copyOf(fires, rules);
+        }
+
+        void clear() {
+            attempts = new long[0];
+            fires = new long[0];
+            react_nanos = move_nanos = age_nanos = clock_nanos = 0;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Counts> all = new CopyOnWriteArrayList<Counts>();
+    private final ThreadLocal<Counts> local = new ThreadLocal<Counts>() {
+        protected Counts initialValue() {
+            final Counts c = new Counts();
+            all.add(c);
+            return c;
+        }
+    };
+
+    /**
+     * counts of times in buckets an eighth of a power of two wide, written by
+     * one thread and read by any
+     */
+    private static final class Histogram {
+        private static final int SUB_SHIFT = 3;
+        private static final int SUB = 1 << SUB_SHIFT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_SHIFT);
+        private volatile long max = 0;
+
+        private static int bucket(long nanos) {
+            if (nanos < SUB)
+                return nanos < 0 ? 0 : (int) nanos;
+            final int e = 63 - Long.numberOfLeadingZeros(nanos);
+            return ((e - SUB_SHIFT + 1) << SUB_SHIFT) + (int) ((nanos >>> (e - SUB_SHIFT)) & (SUB - 1));
+        }
+
+        /** the middle of bucket i */
+        private static double middle(int i) {
+            if (i < SUB)
+                return i;
+            final int e = (i >>> SUB_SHIFT) + SUB_SHIFT - 1;
+            final long low = (long) (SUB + (i & (SUB - 1))) << (e - SUB_SHIFT);
+            return low + (1L << (e - SUB_SHIFT)) / 2.0;
+        }
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucket(nanos));
+            if (nanos > max)
+                max = nanos;
+        }
+
+        long count() {
+            long n = 0;
+            for (int i = 0; i < counts.length(); i++)
+                n += counts.get(i);
+            return n;
+        }
+
+        /** the time p of them are under, to within an eighth */
+        long percentile(double p) {
+            final long total = count();
+            if (total == 0)
+                return 0;
+            final long target = Math.max(1, (long) Math.ceil(p * total));
+            long n = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                n += counts.get(i);
+                if (n >= target)
+                    return Math.min((long) middle(i), max);
+            }
+            return max;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        void clear() {
+            for (int i = 0; i < counts.length(); i++)
+                counts.set(i, 0);
+            max = 0;
+        }
+    }
+
+    /** what the getters show, replaced whole every PUBLISH_NANOS */
+    private static final class Published {
+        long steps = 0;
+        double steps_per_second = 0;
+        double atom_updates_per_second = 0;
+        double react_ms = 0;
+        double move_ms = 0;
+        double age_ms = 0;
+        long floods = 0;
+        double flood_ms = 0;
+        double step_p50_ms = 0;
+        double step_p99_ms = 0;
+        double step_max_ms = 0;
+        double paint_p50_ms = 0;
+        double paint_p99_ms = 0;
+        String rules[] = new String[0];
+        long attempts[] = new long[0];
+        long fires[] = new long[0];
+    }
+
+    private final Histogram step_times = new Histogram();
+    /** the painter's, swapped with spare_paint_times every publish */
+    private volatile Histogram paint_times = new Histogram();
+    private Histogram spare_paint_times = new Histogram();
+    private volatile long paints = 0;
+    private volatile Published published = new Published();
+    private volatile boolean reset_requested = false;
+
+    // ---- only touched by the stepping thread ----
+    private long steps = 0;
+    private long atom_updates = 0;
+    private long floods = 0;
+    private long step_nanos = 0;
+    private long flood_nanos = 0;
+    private long window_start = 0;
+    private long window_steps = 0;
+    private long window_atoms = 0;
+    private long window_step_nanos = 0;
+    private long window_flood_nanos = 0;
+    private long window_react = 0;
+    private long window_move = 0;
+    private long window_age = 0;
+    private long window_clock = 0;
+
+    private ObjectName name = null;
+
+    /**
+     * start measuring the steps of world, with the rules of chemistry; call
+     * between steps
+     */
+    public SquirmStats(final SquirmWorld world, final SquirmChemistry chemistry) {
+        if (world.stats != null)
+            throw new Error("SquirmStats::SquirmStats : the world is already being measured");
+        this.world = world;
+        this.chemistry = chemistry;
+        world.stats = this;
+    }
+
+    // ---- measurements, from the step ----
+
+    void tried(int rule, boolean fired) {
+        final Counts c = local.get();
+        if (rule >= c.attempts.length)
+            c.grow(rule + 1);
+        c.attempts[rule]++;
+        if (fired)
+            c.fires[rule]++;
+    }
+
+    /**
+     * react, move and age the atom id, timing each, see
+     * SquirmGrid.doTimeStep()
+     */
+    void stepAtom(final SquirmChemistry chemistry, final SquirmWorld world, int id, final SquirmRandom random) {
+        final Counts c = local.get();
+        final int sq = world.getSquare(id);
+        final long start = System.nanoTime();
+        final long clock = System.nanoTime();
+        SquirmCell.makeReactions(chemistry, world, sq);
+        final long reacted = System.nanoTime();
+        SquirmCell.makeMove(world, sq, random);
+        final long moved = System.nanoTime();
+        SquirmCell.ageSelf(world, world.getSquare(id));
+        final long aged = System.nanoTime();
+        c.clock_nanos += clock - start;
+        c.react_nanos += reacted - clock;
+        c.move_nanos += moved - reacted;
+        c.age_nanos += aged - moved;
+    }
+
+    void flooded(long nanos) {
+        floods++;
+        flood_nanos += nanos;
+    }
+
+    /** a whole time step of atoms took nanos, on the stepping thread */
+    void stepped(long nanos, int atoms) {
+        final long now = System.nanoTime();
+        if (reset_requested) {
+            reset_requested = false;
+            clear(now);
+        }
+        steps++;
+        atom_updates += atoms;
+        step_nanos += nanos;
+        step_times.record(nanos);
+        if (window_start == 0)
+            window_start = now - nanos;
+        if (now - window_start >= PUBLISH_NANOS)
+            publish(now);
+    }
+
+    /** a frame took nanos to paint */
+    public void painted(long nanos) {
+        paint_times.record(nanos);
+        paints++;
+    }
+
+    private void clear(long now) {
+        for (final Counts c : all)
+            c.clear();
+        step_times.clear();
+        paint_times.clear();
+        steps = atom_updates = floods = step_nanos = flood_nanos = 0;
+        window_start = now;
+        window_steps = window_atoms = window_step_nanos = window_flood_nanos = 0;
+        window_react = window_move = window_age = window_clock = 0;
+    }
+
+    /** sum up the threads' counts for the getters */
+    private void publish(long now) {
+        final Published p = new Published();
+        p.rules = ruleNames();
+        p.attempts = new long[p.rules.length];
+        p.fires = new long[p.rules.length];
+        long react = 0, move = 0, age = 0, clock = 0;
+        for (final Counts c : all) {
+            for (int r = 0; r < Math.min(p.rules.length, c.attempts.length); r++) {
+                p.attempts[r] += c.attempts[r];
+                p.fires[r] += c.fires[r];
+            }
+            react += c.react_nanos;
+            move += c.move_nanos;
+            age += c.age_nanos;
+            clock += c.clock_nanos;
+        }
+        // over the window: the sampled atoms, less the clock timing nothing,
+        // give each phase's share of the step time spent outside floods
+        final long n_steps = steps - window_steps;
+        final long n_atoms = atom_updates - window_atoms;
+        final long n_clock = clock - window_clock;
+        final double r = Math.max(0, react - window_react - n_clock);
+        final double m = Math.max(0, move - window_move - n_clock);
+        final double a = Math.max(0, age - window_age - n_clock);
+        final double sweep_ms = (step_nanos - window_step_nanos - (flood_nanos - window_flood_nanos)) / 1e6
+                / n_steps;
+        final double share = r + m + a == 0 ? 0 : sweep_ms / (r + m + a);
+        p.react_ms = r * share;
+        p.move_ms = m * share;
+        p.age_ms = a * share;
+        p.steps = steps;
+        final double seconds = (now - window_start) / 1e9;
+        p.steps_per_second = n_steps / seconds;
+        p.atom_updates_per_second = n_atoms / seconds;
+        p.floods = floods;
+        p.flood_ms = floods == 0 ? 0 : flood_nanos / 1e6 / floods;
+        p.step_p50_ms = millis(step_times.percentile(0.50));
+        p.step_p99_ms = millis(step_times.percentile(0.99));
+        p.step_max_ms = millis(step_times.getMax());
+        step_times.clear();
+        final Histogram painted = paint_times;
+        paint_times = spare_paint_times;
+        p.paint_p50_ms = millis(painted.percentile(0.50));
+        p.paint_p99_ms = millis(painted.percentile(0.99));
+        painted.clear();
+        spare_paint_times = painted;
+        window_start = now;
+        window_steps = steps;
+        window_atoms = atom_updates;
+        window_step_nanos = step_nanos;
+        window_flood_nanos = flood_nanos;
+        window_react = react;
+        window_move = move;
+        window_age = age;
+        window_clock = clock;
+        published = p;
+    }
+
+    private String[] ruleNames() {
+        final Object reactions[] = chemistry.getReactions().toArray();
+        final String names[] = new String[reactions.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = reactions[i].toString();
+        return names;
+    }
+
+    // ----------------------------------------------------------
+
+    /**
+     * publish these stats on the platform MBean server, returns the name
+     * they are under
+     */
+    public synchronized ObjectName register() {
+        if (name != null)
+            return name;
+        try {
+            final int n;
+            synchronized (SquirmStats.class) {
+                n = ++n_registered;
+            }
+            name = new ObjectName("org.squirm.chem:type=SquirmStats" + (n > 1 ? ",id=" + n : ""));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (final JMException e) {
+            name = null;
+            throw new Error("SquirmStats::register : " + e);
+        }
+        LOGGER.info("Stats published over JMX : name=" + name);
+        return name;
+    }
+
+    public synchronized void unregister() {
+        if (name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (final JMException e) {
+            LOGGER.warn("Couldn't unregister " + name + " : " + e);
+        }
+        name = null;
+    }
+
+    /** stop measuring */
+    public void detach() {
+        if (world.stats == this)
+            world.stats = null;
+        unregister();
+    }
+
+    public void reset() {
+        reset_requested = true;
+        paints = 0;
+        published = new Published();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    public long getSteps() {
+        return published.steps;
+    }
+
+    public double getStepsPerSecond() {
+        return published.steps_per_second;
+    }
+
+    public double getAtomUpdatesPerSecond() {
+        return published.atom_updates_per_second;
+    }
+
+    public double getStepTimeP50() {
+        return published.step_p50_ms;
+    }
+
+    public double getStepTimeP99() {
+        return published.step_p99_ms;
+    }
+
+    public double getStepTimeMax() {
+        return published.step_max_ms;
+    }
+
+    public double getReactTime() {
+        return published.react_ms;
+    }
+
+    public double getMoveTime() {
+        return published.move_ms;
+    }
+
+    public double getAgeTime() {
+        return published.age_ms;
+    }
+
+    public long getFloods() {
+        return published.floods;
+    }
+
+    public double getFloodTimeMean() {
+        return published.flood_ms;
+    }
+
+    public long getPaints() {
+        return paints;
+    }
+
+    public double getPaintTimeP50() {
+        return published.paint_p50_ms;
+    }
+
+    public double getPaintTimeP99() {
+        return published.paint_p99_ms;
+    }
+
+    public String[] getRules() {
+        return published.rules.clone();
+    }
+
+    public long[] getRuleAttempts() {
+        return published.attempts.clone();
+    }
+
+    public long[] getRuleFires() {
+        return published.fires.clone();
+    }
+
+    public double[] getRuleHitRates() {
+        final Published p = published;
+        final double rates[] = new double[p.attempts.length];
+        for (int i = 0; i < rates.length; i++)
+            rates[i] = p.attempts[i] == 0 ? 0 : (double) p.fires[i] / p.attempts[i];
+        return rates;
+    }
+
+} // End of the class //
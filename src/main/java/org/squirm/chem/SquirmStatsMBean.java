@@ -0,0 +1,80 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmStatsMBean.java
+
+/**
+ * What SquirmStats publishes over JMX, for watching a run live in JConsole
+ * or VisualVM. Times are in milliseconds.
+ */
+public interface SquirmStatsMBean {
+
+    long getSteps();
+
+    /** over the last half second or so, as are the phase times */
+    double getStepsPerSecond();
+
+    double getAtomUpdatesPerSecond();
+
+    /** over the same window, as are the paint times */
+    double getStepTimeP50();
+
+    double getStepTimeP99();
+
+    double getStepTimeMax();
+
+    /**
+     * per step, an estimate from the sampled atoms less the cost of reading
+     * the clock, never below 0 (see SquirmStats)
+     */
+    double getReactTime();
+
+    double getMoveTime();
+
+    double getAgeTime();
+
+    long getFloods();
+
+    double getFloodTimeMean();
+
+    /** since the start or reset */
+    long getPaints();
+
+    double getPaintTimeP50();
+
+    double getPaintTimeP99();
+
+    /** the reactions, in the order of the counts below */
+    String[] getRules();
+
+    long[] getRuleAttempts();
+
+    long[] getRuleFires();
+
+    /** fires over attempts, per rule */
+    double[] getRuleHitRates();
+
+    /** start counting again from zero */
+    void reset();
+
+} // End of the interface //
@@ -0,0 +1,384 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmTimeSeries.java
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the population of the world over time, from a SquirmCensus: a row
+ * of step, atoms, bonds, reactions fired since the last row and the atoms of
+ * each (type, state), then the number of molecules and the size of the
+ * largest if given a SquirmMolecules.
+ * 
+ * The census is read every so many steps and downsample readings are
+ * averaged into a row. Rows go through a ring buffer to a writer thread, so
+ * the stepping thread only copies a few numbers; it waits if the writer is a
+ * whole ring behind.
+ * 
+ * CSV has a header line of column names, lines ending in '\n' on any
+ * platform. BINARY is a header (MAGIC, VERSION, every, downsample, the
+ * number of columns and their names) then blocks of up to BLOCK rows: the
+ * number of rows, then each column in turn as zigzag varints of the change
+ * from the row before (from 0 at the start of a block). main() turns it back
+ * into the same CSV.
+ */
+public class SquirmTimeSeries implements SquirmStepListener {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmTimeSeries.class);
+
+    public enum Format {
+        CSV, BINARY
+    }
+
+    static final int MAGIC = 0x53515453; // "SQTS"
+    static final int VERSION = 1;
+    static final int BLOCK = 256;
+
+    /** step, atoms, bonds, reactions before the (type, state) counts */
+    private static final int FIXED = 4;
+
+    private final SquirmCensus census;
+    private final SquirmMolecules molecules;
+    private final int every;
+    private final int downsample;
+    private final Format format;
+    private final String names[];
+
+    // the readings being averaged into the next row
+    private final long counts[];
+    private final long sums[];
+    private int readings = 0;
+    private long last_fired = 0;
+
+    // single producer (stepping thread), single consumer (writer) ring
+    private final long ring[][];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private long waits = 0;
+    private volatile long rows = 0;
+    private volatile IOException failure = null;
+
+    /**
+     * write a row every every*downsample steps to file, through a ring of
+     * capacity rows; molecules can be null
+     */
+    public SquirmTimeSeries(final File file, final Format format, final SquirmCensus census,
+            final SquirmMolecules molecules, int every, int downsample, int capacity) throws IOException {
+        if (every < 1 || downsample < 1 || capacity < 1)
+            throw new Error("SquirmTimeSeries::SquirmTimeSeries : every, downsample and capacity must be at least 1");
+        this.census = census;
+        this.molecules = molecules;
+        this.every = every;
+        this.downsample = downsample;
+        this.format = format;
+        final int columns = FIXED + census.getColumns() + (molecules != null ? 2 : 0);
+        names = new String[columns];
+        names[0] = "step";
+        names[1] = "atoms";
+        names[2] = "bonds";
+        names[3] = "reactions";
+        for (int i = 0; i < census.getColumns(); i++)
+            names[FIXED + i] = census.getColumnName(i);
+        if (molecules != null) {
+            names[columns - 2] = "molecules";
+            names[columns - 1] = "largest";
+        }
+        counts = new long[census.getColumns()];
+        sums = new long[columns];
+        ring = new long[capacity][columns];
+        last_fired = census.getFired();
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    try {
+                        drain(out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (final IOException e) {
+                    failure = e;
+                    LOGGER.error("Can't write the time series : " + e);
+                    // keep emptying the ring so stepping doesn't stall
+                    while (!closed || tail.get() < head.get()) {
+                        tail.lazySet(head.get());
+                        LockSupport.parkNanos(1000000);
+                    }
+                }
+            }
+        }, "squirm-time-series");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * (stepping thread) read the census if it's time, queue a row once
+     * there are enough readings
+     */
+    public void stepped(final SquirmGrid grid) {
+        if (closed || grid.getCount() % every != 0)
+            return;
+        census.getCounts(counts);
+        sums[0] = grid.getCount();
+        sums[1] += grid.getWorld().getAtomCount();
+        sums[2] += census.getBonds();
+        for (int i = 0; i < counts.length; i++)
+            sums[FIXED + i] += counts[i];
+        if (molecules != null) {
+            sums[sums.length - 2] += molecules.getCount();
+            sums[sums.length - 1] += molecules.getLargest();
+        }
+        if (++readings == downsample)
+            emit();
+    }
+
+    /** average the readings into a row on the ring */
+    private void emit() {
+        final long h = head.get();
+        while (h - tail.get() >= ring.length) {
+            waits++;
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100000);
+        }
+        final long row[] = ring[(int) (h % ring.length)];
+        final long fired = census.getFired();
+        row[0] = sums[0];
+        row[3] = fired - last_fired;
+        last_fired = fired;
+        for (int i = 1; i < row.length; i++) {
+            if (i != 3)
+                row[i] = (sums[i] + readings / 2) / readings;
+            sums[i] = 0;
+        }
+        readings = 0;
+        head.lazySet(h + 1);
+        LockSupport.unpark(writer);
+    }
+
+    /** (writer thread) write rows as they come until closed */
+    private void drain(final OutputStream out) throws IOException {
+        final PrintWriter csv = format == Format.CSV ? new PrintWriter(new OutputStreamWriter(out, "US-ASCII"))
+                : null;
+        final DataOutputStream bin = format == Format.BINARY ? new DataOutputStream(out) : null;
+        final long block[][] = format == Format.BINARY ? new long[names.length][BLOCK] : null;
+        int n_block = 0;
+        if (csv != null) {
+            csv.print(join(names) + "\n");
+        } else {
+            bin.writeInt(MAGIC);
+            bin.writeInt(VERSION);
+            bin.writeInt(every);
+            bin.writeInt(downsample);
+            bin.writeInt(names.length);
+            for (final String name : names)
+                bin.writeUTF(name);
+        }
+        final StringBuilder line = new StringBuilder();
+        while (true) {
+            final long h = head.get();
+            long t = tail.get();
+            if (t == h) {
+                if (closed && head.get() == h)
+                    break;
+                // caught up, let what's written be seen
+                if (csv != null && csv.checkError())
+                    throw new IOException("CSV write failed");
+                out.flush();
+                LockSupport.parkNanos(10000000);
+                continue;
+            }
+            for (; t < h; t++) {
+                final long row[] = ring[(int) (t % ring.length)];
+                if (csv != null) {
+                    line.setLength(0);
+                    for (int i = 0; i < row.length; i++)
+                        line.append(i == 0 ? "" : ",").append(row[i]);
+                    csv.print(line.append('\n'));
+                } else {
+                    for (int i = 0; i < row.length; i++)
+                        block[i][n_block] = row[i];
+                    if (++n_block == BLOCK) {
+                        writeBlock(bin, block, n_block);
+                        n_block = 0;
+                    }
+                }
+                tail.lazySet(t + 1);
+                rows++;
+            }
+        }
+        if (csv != null) {
+            csv.flush();
+            if (csv.checkError())
+                throw new IOException("CSV write failed");
+        } else {
+            if (n_block > 0)
+                writeBlock(bin, block, n_block);
+            bin.flush();
+        }
+    }
+
+    private static void writeBlock(final DataOutputStream out, final long block[][], int n) throws IOException {
+        out.writeInt(n);
+        for (final long column[] : block) {
+            long last = 0;
+            for (int i = 0; i < n; i++) {
+                final long delta = column[i] - last;
+                last = column[i];
+                for (long v = (delta << 1) ^ (delta >> 63);; v >>>= 7) {
+                    if ((v & ~0x7FL) == 0) {
+                        out.write((int) v);
+                        break;
+                    }
+                    out.write((int) (v & 0x7F) | 0x80);
+                }
+            }
+        }
+    }
+
+    private static String join(final String names[]) {
+        final StringBuilder s = new StringBuilder();
+        for (int i = 0; i < names.length; i++)
+            s.append(i == 0 ? "" : ",").append(names[i]);
+        return s.toString();
+    }
+
+    /**
+     * write out any readings not yet averaged into a row and everything
+     * queued, then stop
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        if (readings > 0)
+            emit();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /** rows written so far */
+    public long getRows() {
+        return rows;
+    }
+
+    /** times the stepping thread had to wait for the writer */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * turn a BINARY time series back into CSV
+     */
+    public static void toCsv(final InputStream in, final Writer out) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC)
+            throw new IOException("not a squirm time series");
+        final int version = data.readInt();
+        if (version != VERSION)
+            throw new IOException("time series version " + version + " not supported");
+        data.readInt();
+        data.readInt();
+        final String names[] = new String[data.readInt()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = data.readUTF();
+        out.write(join(names) + "\n");
+        final long block[][] = new long[names.length][BLOCK];
+        final StringBuilder line = new StringBuilder();
+        while (true) {
+            final int n;
+            try {
+                n = data.readInt();
+            } catch (final EOFException e) {
+                break;
+            }
+            if (n < 1 || n > BLOCK)
+                throw new IOException("corrupt time series block of " + n + " rows");
+            for (final long column[] : block) {
+                long last = 0;
+                for (int i = 0; i < n; i++) {
+                    long v = 0;
+                    for (int shift = 0;; shift += 7) {
+                        final int b = data.readUnsignedByte();
+                        v |= (long) (b & 0x7F) << shift;
+                        if ((b & 0x80) == 0)
+                            break;
+                    }
+                    last += (v >>> 1) ^ -(v & 1);
+                    column[i] = last;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                line.setLength(0);
+                for (int c = 0; c < names.length; c++)
+                    line.append(c == 0 ? "" : ",").append(block[c][i]);
+                out.write(line.append('\n').toString());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * SquirmTimeSeries FILE : prints a BINARY time series as CSV
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1) {
+            LOGGER.error("usage: SquirmTimeSeries FILE");
+            System.exit(1);
+        }
+        final InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            toCsv(in, new BufferedWriter(new OutputStreamWriter(System.out, "US-ASCII")));
+        } finally {
+            in.close();
+        }
+    }
+
+} // End of the class //
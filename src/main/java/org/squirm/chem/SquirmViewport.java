@@ -0,0 +1,155 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmViewport.java
+
+/**
+ * Which part of the world is on screen, and how big. Zoom levels are powers
+ * of two: at zoom z >= 0 a square is 2^z pixels wide, at z < 0 a pixel is a
+ * block of 2^-z by 2^-z squares and the density view is shown instead of the
+ * atoms.
+ */
+public final class SquirmViewport {
+
+    public static final int MIN_ZOOM = -6;
+    public static final int MAX_ZOOM = 5;
+
+    private final int n_x, n_y;
+    private final int width, height;
+    private int zoom;
+    /** world square at the top left of the view */
+    private int origin_x = 0, origin_y = 0;
+
+    /**
+     * a width by height pixel view of an x by y world, zoomed so that the
+     * world fits across
+     */
+    public SquirmViewport(int x, int y, int width, int height) {
+        n_x = x;
+        n_y = y;
+        this.width = width;
+        this.height = height;
+        int z = MAX_ZOOM;
+        while (z > MIN_ZOOM && scale(n_x, z) > width)
+            z--;
+        zoom = z;
+    }
+
+    /** how many pixels n squares take up at zoom z */
+    private static int scale(int n, int z) {
+        return z >= 0 ? n << z : (n + (1 << -z) - 1) >> -z;
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    /** true when zoomed out past one pixel per square */
+    public boolean isDensity() {
+        return zoom < 0;
+    }
+
+    /** pixels across a square (1 when zoomed out) */
+    public int getSquarePixels() {
+        return zoom >= 0 ? 1 << zoom : 1;
+    }
+
+    /** squares across a pixel (1 when zoomed in) */
+    public int getBlock() {
+        return zoom < 0 ? 1 << -zoom : 1;
+    }
+
+    public int getOriginX() {
+        return origin_x;
+    }
+
+    public int getOriginY() {
+        return origin_y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** how many squares fit across the view */
+    public int getSquaresX() {
+        return zoom >= 0 ? (width + (1 << zoom) - 1) >> zoom : width << -zoom;
+    }
+
+    public int getSquaresY() {
+        return zoom >= 0 ? (height + (1 << zoom) - 1) >> zoom : height << -zoom;
+    }
+
+    /** the world x under pixel column px */
+    public int squareX(int px) {
+        return origin_x + (zoom >= 0 ? px >> zoom : px << -zoom);
+    }
+
+    public int squareY(int py) {
+        return origin_y + (zoom >= 0 ? py >> zoom : py << -zoom);
+    }
+
+    /**
+     * put world square (x,y) at the top left, as near as it will go
+     */
+    public void setOrigin(int x, int y) {
+        origin_x = x;
+        origin_y = y;
+        clamp();
+    }
+
+    /**
+     * drag the world by (dx,dy) pixels
+     */
+    public void pan(int dx, int dy) {
+        origin_x -= zoom >= 0 ? dx >> zoom : dx << -zoom;
+        origin_y -= zoom >= 0 ? dy >> zoom : dy << -zoom;
+        clamp();
+    }
+
+    /**
+     * zoom in (dz > 0) or out, keeping the square under pixel (px,py) put
+     */
+    public void zoom(int px, int py, int dz) {
+        final int sx = squareX(px);
+        final int sy = squareY(py);
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom + dz));
+        origin_x = sx - (zoom >= 0 ? px >> zoom : px << -zoom);
+        origin_y = sy - (zoom >= 0 ? py >> zoom : py << -zoom);
+        clamp();
+    }
+
+    /** keep as much of the world in view as fits, blocks lined up */
+    private void clamp() {
+        origin_x = Math.max(0, Math.min(origin_x, n_x - getSquaresX()));
+        origin_y = Math.max(0, Math.min(origin_y, n_y - getSquaresY()));
+        final int block = getBlock();
+        origin_x -= origin_x % block;
+        origin_y -= origin_y % block;
+    }
+
+} // End of the class //
@@ -0,0 +1,645 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmWorld.java
+
+import java.util.Arrays;
+
+/**
+ * The SquirmWorld class stores the whole grid and its atoms as flat primitive
+ * arrays. Squares are indexed by y*n_x+x and each square holds one packed int
+ * with the occupancy, type, state and bonds of the atom sitting there:
+ *
+ * <pre>
+ *  bits 0-7   : bond direction mask (bit i set = bonded with neighbour i)
+ *  bit  8     : occupied
+ *  bits 9-11  : type (0-5, see SquirmCellProperties)
+ *  bits 12-31 : state
+ * </pre>
+ *
+ * Atoms also have an id which stays the same while they move about, this is
+ * what the SquirmCell views hold on to. The order array keeps the ids in the
+ * order the atoms were created, which is the order they get to move in.
+ * 
+ * Every atom's step only looks at its own 3x3 neighbourhood, so an atom that
+ * had nothing to do (no reaction changed anything and it couldn't move) will
+ * have nothing to do until something in that neighbourhood changes. Such an
+ * atom can be put to sleep with setAsleep(); every change to a square wakes
+ * the atoms around it again.
+ */
+public class SquirmWorld {
+
+    public static final int EMPTY = 0;
+    public static final int BOND_MASK = 0xFF;
+    public static final int OCCUPIED = 0x100;
+    public static final int TYPE_SHIFT = 9;
+    public static final int TYPE_MASK = 0x7;
+    public static final int STATE_SHIFT = 12;
+    public static final int MAX_STATE = (1 << (32 - STATE_SHIFT)) - 1;
+
+    /*
+     * encoding of an 8-neighbourhood: 1 2 3 0 8 4 7 6 5
+     */
+    public static final int EIGHT_x[] = { -1, -1, 0, 1, 1, 1, 0, -1 };
+    public static final int EIGHT_y[] = { 0, -1, -1, -1, 0, 1, 1, 1 };
+
+    /** direction of the step dx,dy stored at (dy+1)*3+(dx+1), -1 for no step */
+    private static final int DIRECTION[] = { 1, 2, 3, 0, -1, 4, 7, 6, 5 };
+
+    /**
+     * for each bond mask, the mask of move directions that keep every bonded
+     * atom a neighbour
+     */
+    private static final int MOVE_OK[] = new int[256];
+
+    /**
+     * REAIM[move*8+d] is the direction bond d points in after a move in
+     * direction move, -1 if that breaks it
+     */
+    private static final int REAIM[] = new int[64];
+
+    /**
+     * for a diagonal direction, the two squares sharing a face with both ends
+     * (as directions from us) and the direction of a bond from the first to
+     * the second; -1 for face directions
+     */
+    private static final int DIAGONAL_A[] = new int[8];
+    private static final int DIAGONAL_B[] = new int[8];
+    private static final int DIAGONAL_AB[] = new int[8];
+
+    static {
+        for (int move = 0; move < 8; move++) {
+            for (int d = 0; d < 8; d++)
+                REAIM[move * 8 + d] = direction(EIGHT_x[d] - EIGHT_x[move], EIGHT_y[d] - EIGHT_y[move]);
+            if (EIGHT_x[move] != 0 && EIGHT_y[move] != 0) {
+                DIAGONAL_A[move] = direction(0, EIGHT_y[move]);
+                DIAGONAL_B[move] = direction(EIGHT_x[move], 0);
+                DIAGONAL_AB[move] = direction(EIGHT_x[move], -EIGHT_y[move]);
+            } else {
+                DIAGONAL_A[move] = DIAGONAL_B[move] = DIAGONAL_AB[move] = -1;
+            }
+        }
+        for (int bonds = 0; bonds < 256; bonds++) {
+            int ok = 0;
+            for (int move = 0; move < 8; move++) {
+                boolean keeps = true;
+                for (int d = 0; d < 8 && keeps; d++)
+                    if ((bonds & (1 << d)) != 0 && REAIM[move * 8 + d] < 0)
+                        keeps = false;
+                if (keeps)
+                    ok |= 1 << move;
+            }
+            MOVE_OK[bonds] = ok;
+        }
+    }
+
+    /** the x and y size of the grid */
+    protected final int n_x, n_y;
+
+    /** packed contents of each square, EMPTY if there is no atom there */
+    protected final int cells[];
+
+    /** id of the atom on each square (only meaningful if occupied) */
+    protected final int ids[];
+
+    /** square of each atom id, -1 if the id is not in use */
+    protected int pos[];
+
+    /** atom ids in sweep order, killed atoms stay in here until compact() */
+    protected int order[];
+    protected int n_order = 0;
+    protected int n_dead = 0;
+
+    /** ids released by compact() and ready to be handed out again */
+    protected int free_ids[];
+    protected int n_free = 0;
+    protected int next_id = 0;
+
+    /** times each id has been handed out again, so old views can tell */
+    protected int reissued[];
+
+    /** 1 for a square whose atom is asleep, see setAsleep() */
+    protected final byte asleep[];
+
+    /** a snapshot being taken, wants pages before they change */
+    SquirmWorldSnapshot snapshot = null;
+
+    /** records every change, see SquirmJournal */
+    SquirmJournal journal = null;
+
+    /** keeps population counts, see SquirmCensus */
+    SquirmCensus census = null;
+
+    /** keeps track of molecules, see SquirmMolecules */
+    SquirmMolecules molecules = null;
+
+    /** files atoms by kind and place, see SquirmSpatialIndex */
+    SquirmSpatialIndex spatial = null;
+
+    /** times the steps and counts the rules, see SquirmStats */
+    SquirmStats stats = null;
+
+    /** square index offset of each of the 8 neighbour directions */
+    protected final int offsets[] = new int[8];
+
+    public SquirmWorld(int x, int y) {
+        if (x <= 0 || y <= 0)
+            throw new Error("SquirmWorld::SquirmWorld : grid size must be positive");
+        n_x = x;
+        n_y = y;
+        cells = new int[n_x * n_y];
+        ids = new int[n_x * n_y];
+        asleep = new byte[n_x * n_y];
+        pos = new int[64];
+        reissued = new int[64];
+        order = new int[64];
+        free_ids = new int[64];
+        for (int i = 0; i < 8; i++)
+            offsets[i] = EIGHT_y[i] * n_x + EIGHT_x[i];
+    }
+
+    // ----------------------------------------------------------
+
+    public int getSizeX() {
+        return n_x;
+    }
+
+    public int getSizeY() {
+        return n_y;
+    }
+
+    public int index(int x, int y) {
+        return y * n_x + x;
+    }
+
+    public int getX(int sq) {
+        return sq % n_x;
+    }
+
+    public int getY(int sq) {
+        return sq / n_x;
+    }
+
+    public boolean inside(int x, int y) {
+        return x >= 0 && x < n_x && y >= 0 && y < n_y;
+    }
+
+    /**
+     * square in direction dir from sq, or -1 if that is off the grid
+     */
+    public int neighbour(int sq, int dir) {
+        final int tx = sq % n_x + EIGHT_x[dir];
+        final int ty = sq / n_x + EIGHT_y[dir];
+        if (tx < 0 || tx >= n_x || ty < 0 || ty >= n_y)
+            return -1;
+        return sq + offsets[dir];
+    }
+
+    /**
+     * mask of the directions from sq that stay on the grid
+     */
+    public int insideMask(int sq) {
+        final int x = sq % n_x;
+        final int y = sq / n_x;
+        int mask = BOND_MASK;
+        if (x == 0)
+            mask &= ~((1 << 0) | (1 << 1) | (1 << 7));
+        if (x == n_x - 1)
+            mask &= ~((1 << 3) | (1 << 4) | (1 << 5));
+        if (y == 0)
+            mask &= ~((1 << 1) | (1 << 2) | (1 << 3));
+        if (y == n_y - 1)
+            mask &= ~((1 << 5) | (1 << 6) | (1 << 7));
+        return mask;
+    }
+
+    /**
+     * mask of the directions from sq that hold an atom
+     */
+    public int occupiedMask(int sq) {
+        final int inside = insideMask(sq);
+        int mask = 0;
+        for (int rest = inside; rest != 0; rest &= rest - 1) {
+            final int d = Integer.numberOfTrailingZeros(rest);
+            if (cells[sq + offsets[d]] != EMPTY)
+                mask |= 1 << d;
+        }
+        return mask;
+    }
+
+    /**
+     * the direction (0-7) of the step dx,dy, or -1 if it isn't a single step
+     */
+    public static int direction(int dx, int dy) {
+        if (dx < -1 || dx > 1 || dy < -1 || dy > 1)
+            return -1;
+        return DIRECTION[(dy + 1) * 3 + (dx + 1)];
+    }
+
+    /**
+     * the mask of move directions that keep all of these bonds
+     */
+    public static int movesKeepingBonds(int bonds) {
+        return MOVE_OK[bonds & BOND_MASK];
+    }
+
+    /**
+     * can the atom on sq react with its neighbour in direction dir? face
+     * neighbours always can, over a diagonal only if the other diagonal isn't
+     * bonded across
+     */
+    public boolean canReact(int sq, int dir) {
+        if (DIAGONAL_A[dir] < 0)
+            return true;
+        final int a = cells[sq + offsets[DIAGONAL_A[dir]]];
+        // if either other diagonal square is empty then OK, otherwise if
+        // there is no bond between the diagonals then still OK
+        return a == EMPTY || cells[sq + offsets[DIAGONAL_B[dir]]] == EMPTY || (a & (1 << DIAGONAL_AB[dir])) == 0;
+    }
+
+    /**
+     * square index offset of a step in direction dir (no bounds check)
+     */
+    public int getOffset(int dir) {
+        return offsets[dir];
+    }
+
+    public static int opposite(int dir) {
+        return (dir + 4) & 7;
+    }
+
+    // ----------------------------------------------------------
+
+    public boolean isEmpty(int sq) {
+        return cells[sq] == EMPTY;
+    }
+
+    public int getCell(int sq) {
+        return cells[sq];
+    }
+
+    public int getType(int sq) {
+        return (cells[sq] >>> TYPE_SHIFT) & TYPE_MASK;
+    }
+
+    public int getState(int sq) {
+        return cells[sq] >>> STATE_SHIFT;
+    }
+
+    public int getBonds(int sq) {
+        return cells[sq] & BOND_MASK;
+    }
+
+    public boolean hasBond(int sq, int dir) {
+        return (cells[sq] & (1 << dir)) != 0;
+    }
+
+    public int getId(int sq) {
+        if (cells[sq] == EMPTY)
+            throw new Error("SquirmWorld::getId : no occupant!");
+        return ids[sq];
+    }
+
+    /**
+     * square of the atom with this id, -1 if it has been killed
+     */
+    public int getSquare(int id) {
+        return pos[id];
+    }
+
+    /**
+     * times the id has been handed out again since it was first used, see
+     * compact()
+     */
+    public int getReissued(int id) {
+        return reissued[id];
+    }
+
+    // ----------------------------------------------------------
+
+    public boolean isAsleep(int sq) {
+        return asleep[sq] != 0;
+    }
+
+    /**
+     * put the atom on sq to sleep, it stays asleep until a square within one
+     * of it changes
+     */
+    public void setAsleep(int sq) {
+        asleep[sq] = 1;
+    }
+
+    public void wakeAll() {
+        Arrays.fill(asleep, (byte) 0);
+    }
+
+    /**
+     * the square sq changed, wake the atoms that can see it
+     */
+    protected void wakeAround(int sq) {
+        final int x = sq % n_x;
+        final int lo = x > 0 ? -1 : 0;
+        final int hi = x < n_x - 1 ? 1 : 0;
+        for (int row = sq - n_x; row <= sq + n_x; row += n_x) {
+            if (row < 0 || row >= cells.length)
+                continue;
+            for (int i = lo; i <= hi; i++)
+                asleep[row + i] = 0;
+        }
+    }
+
+    // ----------------------------------------------------------
+
+    public static int pack(int type, int state) {
+        return OCCUPIED | (type << TYPE_SHIFT) | (state << STATE_SHIFT);
+    }
+
+    public void setState(int sq, int s) {
+        if (s < 0 || s > MAX_STATE)
+            throw new Error("SquirmWorld::setState : state not in valid range");
+        final int c = (cells[sq] & ~(-1 << STATE_SHIFT)) | (s << STATE_SHIFT);
+        if (c != cells[sq]) {
+            if (journal != null)
+                journal.state(sq, s);
+            if (census != null)
+                census.change(cells[sq], c);
+            if (spatial != null)
+                spatial.changed(ids[sq]);
+            touch(sq);
+            cells[sq] = c;
+            wakeAround(sq);
+        }
+    }
+
+    /**
+     * a reaction has just fired for the atom on sq
+     */
+    public void reacted(int sq) {
+        if (census != null)
+            census.fired();
+    }
+
+    /**
+     * a reaction rule (by its position in the list) was tried, returns
+     * whether it fired
+     */
+    public boolean tried(int rule, boolean fired) {
+        if (stats != null)
+            stats.tried(rule, fired);
+        return fired;
+    }
+
+    // ----------------------------------------------------------
+
+    /** number of live atoms */
+    public int getAtomCount() {
+        return n_order - n_dead;
+    }
+
+    /** length of the sweep order, including killed atoms not yet compacted */
+    public int getOrderLength() {
+        return n_order;
+    }
+
+    /** one more than the highest atom id handed out so far */
+    public int getIdLimit() {
+        return next_id;
+    }
+
+    /** id at position i of the sweep order */
+    public int getOrderId(int i) {
+        return order[i];
+    }
+
+    /**
+     * place a new atom on an empty square, returns its id
+     */
+    public int spawn(int x, int y, int type, int state) {
+        if (!inside(x, y))
+            throw new Error("SquirmWorld::spawn : square is off the grid!");
+        if (type < 0 || type > 5)
+            throw new Error("SquirmWorld::spawn : type not in valid range");
+        if (state < 0 || state > MAX_STATE)
+            throw new Error("SquirmWorld::spawn : state not in valid range");
+        final int sq = index(x, y);
+        if (cells[sq] != EMPTY)
+            throw new Error("SquirmWorld::spawn : couldn't create, square is occupied!");
+        return add(sq, pack(type, state));
+    }
+
+    /**
+     * put an atom with a whole packed cell, bonds and all, on an empty
+     * square; for restoring a saved world, where the bonded neighbours are
+     * put back with the matching bonds
+     */
+    int place(int sq, int cell) {
+        if (sq < 0 || sq >= cells.length)
+            throw new Error("SquirmWorld::place : square is off the grid!");
+        if ((cell & OCCUPIED) == 0 || ((cell >>> TYPE_SHIFT) & TYPE_MASK) > 5)
+            throw new Error("SquirmWorld::place : not an atom");
+        if (cells[sq] != EMPTY)
+            throw new Error("SquirmWorld::place : couldn't create, square is occupied!");
+        return add(sq, cell);
+    }
+
+    private int add(int sq, int cell) {
+        final int id;
+        if (n_free > 0) {
+            id = free_ids[--n_free];
+            reissued[id]++;
+        } else {
+            id = next_id++;
+            if (id >= pos.length) {
+                pos = grow(pos);
+                reissued = grow(reissued);
+            }
+        }
+        if (n_order >= order.length)
+            order = grow(order);
+
+        if (journal != null)
+            journal.spawn(sq, cell);
+        if (census != null)
+            census.add(cell);
+        touch(sq);
+        if (snapshot != null)
+            snapshot.touchOrder(n_order);
+        cells[sq] = cell;
+        wakeAround(sq);
+        ids[sq] = id;
+        pos[id] = sq;
+        order[n_order++] = id;
+        if (molecules != null)
+            molecules.spawn(sq, id);
+        if (spatial != null)
+            spatial.changed(id);
+        return id;
+    }
+
+    /**
+     * remove the atom on this square, breaking any bonds it has
+     */
+    public void kill(int sq) {
+        if (cells[sq] == EMPTY)
+            throw new Error("SquirmWorld::kill : no occupant!");
+        for (int rest = cells[sq] & BOND_MASK; rest != 0; rest &= rest - 1)
+            breakBond(sq, Integer.numberOfTrailingZeros(rest));
+        if (journal != null)
+            journal.kill(sq);
+        if (census != null)
+            census.remove(cells[sq]);
+        if (molecules != null)
+            molecules.kill(ids[sq]);
+        if (spatial != null)
+            spatial.changed(ids[sq]);
+        pos[ids[sq]] = -1;
+        touch(sq);
+        cells[sq] = EMPTY;
+        wakeAround(sq);
+        n_dead++;
+    }
+
+    /**
+     * drop killed atoms from the sweep order, keeping the order of the rest
+     */
+    public void compact() {
+        if (n_dead == 0)
+            return;
+        if (journal != null)
+            journal.compact();
+        if (snapshot != null)
+            for (int i = 0; i < n_order; i += 1 << SquirmWorldSnapshot.PAGE_SHIFT)
+                snapshot.touchOrder(i);
+        int j = 0;
+        for (int i = 0; i < n_order; i++) {
+            final int id = order[i];
+            if (pos[id] >= 0) {
+                order[j++] = id;
+            } else {
+                if (n_free >= free_ids.length)
+                    free_ids = grow(free_ids);
+                free_ids[n_free++] = id;
+            }
+        }
+        n_order = j;
+        n_dead = 0;
+    }
+
+    /**
+     * bond the atom on sq with its neighbour in direction dir
+     */
+    public void makeBond(int sq, int dir) {
+        final int other = sq + offsets[dir];
+        if (cells[sq] == EMPTY || cells[other] == EMPTY)
+            throw new Error("SquirmWorld::makeBond : no atom to bond with!");
+        if ((cells[sq] & (1 << dir)) != 0)
+            return;
+        if (journal != null)
+            journal.bond(sq, dir);
+        if (census != null)
+            census.bond(1);
+        if (molecules != null)
+            molecules.bond(ids[sq], ids[other]);
+        touch(sq);
+        touch(other);
+        cells[sq] |= 1 << dir;
+        cells[other] |= 1 << opposite(dir);
+        wakeAround(sq);
+        wakeAround(other);
+    }
+
+    /**
+     * break the bond between the atom on sq and its neighbour in direction dir
+     */
+    public void breakBond(int sq, int dir) {
+        final int other = sq + offsets[dir];
+        if ((cells[sq] & (1 << dir)) == 0)
+            throw new Error("SquirmWorld::breakBond : we have no such bond with them!");
+        if ((cells[other] & (1 << opposite(dir))) == 0)
+            throw new Error("SquirmWorld::breakBond : they have no such bond with us!");
+        if (journal != null)
+            journal.unbond(sq, dir);
+        if (census != null)
+            census.bond(-1);
+        if (molecules != null)
+            molecules.unbond(ids[sq], ids[other]);
+        touch(sq);
+        touch(other);
+        cells[sq] &= ~(1 << dir);
+        cells[other] &= ~(1 << opposite(dir));
+        wakeAround(sq);
+        wakeAround(other);
+    }
+
+    /**
+     * move the atom on sq one step in direction dir, the target must be empty
+     * and every bonded atom must still be a neighbour afterwards
+     */
+    public void move(int sq, int dir) {
+        final int to = sq + offsets[dir];
+        if (cells[to] != EMPTY)
+            throw new Error("SquirmWorld::move : target square is occupied!");
+        final int c = cells[sq];
+        final int bonds = c & BOND_MASK;
+        if ((MOVE_OK[bonds] & (1 << dir)) == 0)
+            throw new Error("SquirmWorld::move : move would break a bond!");
+        if (journal != null)
+            journal.move(sq, dir);
+        if (spatial != null)
+            spatial.moved(ids[sq], sq, to);
+        int moved_bonds = 0;
+        for (int rest = bonds; rest != 0; rest &= rest - 1) {
+            final int d = Integer.numberOfTrailingZeros(rest);
+            // re-aim the bond from its partner's point of view
+            final int partner = sq + offsets[d];
+            final int nd = REAIM[dir * 8 + d];
+            touch(partner);
+            cells[partner] = (cells[partner] & ~(1 << opposite(d))) | (1 << opposite(nd));
+            moved_bonds |= 1 << nd;
+            wakeAround(partner);
+        }
+        final int id = ids[sq];
+        touch(sq);
+        touch(to);
+        cells[sq] = EMPTY;
+        cells[to] = (c & ~BOND_MASK) | moved_bonds;
+        ids[to] = id;
+        pos[id] = to;
+        wakeAround(sq);
+        wakeAround(to);
+    }
+
+    /** let a snapshot copy the square's page before it changes */
+    private void touch(int sq) {
+        final SquirmWorldSnapshot s = snapshot;
+        if (s != null)
+            s.touchSquare(sq);
+    }
+
+    private static int[] grow(int a[]) {
+        final int b[] = new int[a.length * 2];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+} // End of the class //
@@ -0,0 +1,388 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmWorldGenerator.java
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Fills a world with raw material to an exact density, and with copies of
+ * seed strings such as "e8-a1-b1-c1-f1" (type letter and state for each
+ * atom, '-' for a bond), however big the grid.
+ * 
+ * The seed strings go first, each copy in a straight line in one of the 8
+ * directions, not touching another copy. Then the free squares are counted
+ * tile by tile in parallel, the raw material still needed is shared out
+ * between the tiles in proportion, and each tile picks its squares
+ * (selection sampling, so exactly its share) and types from its own random
+ * stream. The atoms are put in the world in a shuffled order, so the strict
+ * order sweep has no bias across the grid.
+ * 
+ * The same seed and settings give the same world, whatever the number of
+ * threads; the tile size is one of the settings.
+ */
+public class SquirmWorldGenerator {
+
+    private static final Logger LOGGER = Logger.getLogger(SquirmWorldGenerator.class);
+
+    // random stream keys, apart from the time steps (see SquirmParallelStepper)
+    private static final long STREAM_STRINGS = -1;
+    private static final long STREAM_TILES = -2;
+    private static final long STREAM_SHUFFLE = -3;
+
+    private final long seed;
+    private double density = 0.1;
+    /** cumulative type weights, null for all types alike */
+    private double cumulative[] = null;
+    private final List<int[]> strings = new ArrayList<int[]>();
+    private final List<Integer> copies = new ArrayList<Integer>();
+    private int threads = 1;
+    private int tile = SquirmGrid.DEFAULT_TILE;
+
+    public SquirmWorldGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /** fraction of the squares to fill, seed strings included */
+    public SquirmWorldGenerator setDensity(double density) {
+        if (!(density >= 0 && density <= 1))
+            throw new Error("SquirmWorldGenerator::setDensity : density must be between 0 and 1");
+        this.density = density;
+        return this;
+    }
+
+    /**
+     * relative amounts of the raw material types, in type order (e, f, a, b,
+     * c, d)
+     */
+    public SquirmWorldGenerator setTypeWeights(final double weights[]) {
+        if (weights.length != 6)
+            throw new Error("SquirmWorldGenerator::setTypeWeights : need a weight for each of the 6 types");
+        final double c[] = new double[6];
+        double total = 0;
+        for (int t = 0; t < 6; t++) {
+            if (!(weights[t] >= 0))
+                throw new Error("SquirmWorldGenerator::setTypeWeights : weights can't be negative");
+            total += weights[t];
+            c[t] = total;
+        }
+        if (total <= 0)
+            throw new Error("SquirmWorldGenerator::setTypeWeights : some type needs a weight");
+        for (int t = 0; t < 6; t++)
+            c[t] /= total;
+        cumulative = c;
+        return this;
+    }
+
+    /** place n copies of a seed string, e.g. "e8-a1-b1-c1-f1" */
+    public SquirmWorldGenerator addSeedString(final String string, int n) {
+        if (n < 0)
+            throw new Error("SquirmWorldGenerator::addSeedString : can't have fewer than no copies");
+        strings.add(parse(string));
+        copies.add(n);
+        return this;
+    }
+
+    public SquirmWorldGenerator setThreads(int threads) {
+        if (threads < 1)
+            throw new Error("SquirmWorldGenerator::setThreads : need at least one thread");
+        this.threads = threads;
+        return this;
+    }
+
+    public SquirmWorldGenerator setTileSize(int tile) {
+        if (tile < 1)
+            throw new Error("SquirmWorldGenerator::setTileSize : tiles must be at least one square");
+        this.tile = tile;
+        return this;
+    }
+
+    /** packed cells of a seed string, all bonded in a line */
+    static int[] parse(final String string) {
+        final String atoms[] = string.trim().split("-");
+        final int cells[] = new int[atoms.length];
+        for (int i = 0; i < atoms.length; i++) {
+            final String a = atoms[i].trim();
+            if (a.length() < 2)
+                throw new Error("SquirmWorldGenerator::parse : bad atom '" + a + "' in " + string);
+            final int state;
+            try {
+                state = Integer.parseInt(a.substring(1));
+            } catch (final NumberFormatException e) {
+                throw new Error("SquirmWorldGenerator::parse : bad state in '" + a + "' in " + string);
+            }
+            if (state < 0 || state > SquirmWorld.MAX_STATE)
+                throw new Error("SquirmWorldGenerator::parse : state out of range in " + string);
+            cells[i] = SquirmWorld.pack(SquirmCellProperties.getType(a.charAt(0)), state);
+        }
+        return cells;
+    }
+
+    // ----------------------------------------------------------
+
+    /**
+     * a new grid of the given size filled by this generator, with the
+     * generator's seed as its run seed
+     */
+    public SquirmGrid newGrid(int n_x, int n_y) {
+        final SquirmWorld world = new SquirmWorld(n_x, n_y);
+        fill(world);
+        return new SquirmGrid(world, seed, seed, 0, true);
+    }
+
+    /**
+     * add the seed strings to world, then raw material until the given
+     * density of it is filled
+     */
+    public void fill(final SquirmWorld world) {
+        final long start = System.nanoTime();
+        placeStrings(world);
+        final long area = (long) world.getSizeX() * world.getSizeY();
+        final int target = (int) Math.round(density * area);
+        final int more = target - world.getAtomCount();
+        if (more < 0)
+            throw new Error("SquirmWorldGenerator::fill : the seed strings alone are denser than " + density);
+        if (more > 0)
+            placeRaw(world, more);
+        LOGGER.info("Generated world : size=" + world.getSizeX() + "x" + world.getSizeY() + " atoms="
+                + world.getAtomCount() + " density=" + density + " threads=" + threads + " ms="
+                + (System.nanoTime() - start) / 1000000);
+    }
+
+    /** the copies of each seed string, in straight lines not touching */
+    private void placeStrings(final SquirmWorld world) {
+        final int n_x = world.getSizeX();
+        final int n_y = world.getSizeY();
+        final SquirmRandom random = SquirmRandom.stream(seed, STREAM_STRINGS, 0);
+        // squares taken by a string or next to one
+        final BitSet kept = new BitSet(n_x * n_y);
+        for (int s = 0; s < strings.size(); s++) {
+            final int cells[] = strings.get(s);
+            final int n = copies.get(s);
+            int placed = 0;
+            for (int attempts = 0; placed < n; attempts++) {
+                if (attempts > 1000 + 100L * n)
+                    throw new Error("SquirmWorldGenerator::placeStrings : only room for " + placed + " of " + n
+                            + " copies of a seed string");
+                final int dir = random.nextInt(8);
+                final int x = random.nextInt(n_x);
+                final int y = random.nextInt(n_y);
+                if (fits(world, kept, cells.length, x, y, dir)) {
+                    put(world, kept, cells, x, y, dir);
+                    placed++;
+                }
+            }
+        }
+    }
+
+    private static boolean fits(final SquirmWorld world, final BitSet kept, int length, int x, int y, int dir) {
+        final int dx = SquirmWorld.EIGHT_x[dir];
+        final int dy = SquirmWorld.EIGHT_y[dir];
+        if (!world.inside(x + (length - 1) * dx, y + (length - 1) * dy))
+            return false;
+        for (int i = 0; i < length; i++) {
+            final int sq = world.index(x + i * dx, y + i * dy);
+            if (kept.get(sq) || !world.isEmpty(sq))
+                return false;
+        }
+        return true;
+    }
+
+    private static void put(final SquirmWorld world, final BitSet kept, final int cells[], int x, int y, int dir) {
+        final int dx = SquirmWorld.EIGHT_x[dir];
+        final int dy = SquirmWorld.EIGHT_y[dir];
+        for (int i = 0; i < cells.length; i++) {
+            final int px = x + i * dx;
+            final int py = y + i * dy;
+            world.place(world.index(px, py), cells[i]);
+            if (i > 0)
+                world.makeBond(world.index(px, py), SquirmWorld.opposite(dir));
+            for (int n = 0; n < 8; n++)
+                if (world.inside(px + SquirmWorld.EIGHT_x[n], py + SquirmWorld.EIGHT_y[n]))
+                    kept.set(world.index(px + SquirmWorld.EIGHT_x[n], py + SquirmWorld.EIGHT_y[n]));
+            kept.set(world.index(px, py));
+        }
+    }
+
+    /** exactly more atoms of raw material on free squares */
+    private void placeRaw(final SquirmWorld world, int more) {
+        final int tiles_x = (world.getSizeX() + tile - 1) / tile;
+        final int tiles_y = (world.getSizeY() + tile - 1) / tile;
+        final List<TileTask> tasks = new ArrayList<TileTask>();
+        for (int ty = 0; ty < tiles_y; ty++)
+            for (int tx = 0; tx < tiles_x; tx++)
+                tasks.add(new TileTask(world, tx * tile, ty * tile, ty * tiles_x + tx));
+        final ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            // count the free squares of each tile
+            run(pool, tasks);
+            long free = 0;
+            for (final TileTask t : tasks)
+                free += t.free;
+            if (more > free)
+                throw new Error("SquirmWorldGenerator::placeRaw : only " + free + " free squares for " + more
+                        + " atoms");
+
+            // share the atoms out in proportion, the remainders going to the
+            // tiles with the largest fractions
+            long given = 0;
+            final double fraction[] = new double[tasks.size()];
+            for (int i = 0; i < tasks.size(); i++) {
+                final TileTask t = tasks.get(i);
+                final double exact = (double) more * t.free / free;
+                t.share = (int) Math.min(t.free, Math.floor(exact));
+                fraction[i] = exact - t.share;
+                given += t.share;
+            }
+            while (given < more) {
+                int best = -1;
+                for (int i = 0; i < tasks.size(); i++)
+                    if (tasks.get(i).share < tasks.get(i).free && (best < 0 || fraction[i] > fraction[best]))
+                        best = i;
+                fraction[best] = -1;
+                tasks.get(best).share++;
+                given++;
+            }
+
+            // each tile picks its squares and types
+            for (final TileTask t : tasks)
+                t.picking = true;
+            run(pool, tasks);
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+
+        // shuffled into the world, so the sweep order is random
+        final int squares[] = new int[more];
+        final int cells[] = new int[more];
+        int k = 0;
+        for (final TileTask t : tasks) {
+            System.arraycopy(t.squares, 0, squares, k, t.share);
+            System.arraycopy(t.cells, 0, cells, k, t.share);
+            k += t.share;
+        }
+        final SquirmRandom random = SquirmRandom.stream(seed, STREAM_SHUFFLE, 0);
+        for (int i = more - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int sq = squares[i];
+            squares[i] = squares[j];
+            squares[j] = sq;
+            final int c = cells[i];
+            cells[i] = cells[j];
+            cells[j] = c;
+        }
+        for (int i = 0; i < more; i++)
+            world.place(squares[i], cells[i]);
+    }
+
+    private static void run(final ForkJoinPool pool, final List<TileTask> tasks) {
+        if (pool == null) {
+            for (final TileTask t : tasks)
+                t.compute();
+        } else {
+            for (final TileTask t : tasks)
+                t.reinitialize();
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+    }
+
+    private int randomType(final SquirmRandom random) {
+        if (cumulative == null)
+            return random.nextInt(6);
+        final double u = random.nextDouble();
+        for (int t = 0; t < 5; t++)
+            if (u < cumulative[t])
+                return t;
+        return 5;
+    }
+
+    /** counts a tile's free squares, then picks its share of them */
+    private final class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SquirmWorld world;
+        private final int x0, y0;
+        private final int index;
+        boolean picking = false;
+        int free = 0;
+        int share = 0;
+        int squares[];
+        int cells[];
+
+        TileTask(final SquirmWorld world, int x0, int y0, int index) {
+            this.world = world;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.index = index;
+        }
+
+        protected void compute() {
+            final int x1 = Math.min(x0 + tile, world.getSizeX());
+            final int y1 = Math.min(y0 + tile, world.getSizeY());
+            if (!picking) {
+                int n = 0;
+                for (int y = y0; y < y1; y++)
+                    for (int x = x0; x < x1; x++)
+                        if (world.isEmpty(world.index(x, y)))
+                            n++;
+                free = n;
+                return;
+            }
+            // selection sampling: each free square is taken with the chance
+            // still needed over the squares left
+            final SquirmRandom random = SquirmRandom.stream(seed, STREAM_TILES, index);
+            squares = new int[share];
+            cells = new int[share];
+            int left = free;
+            int k = 0;
+            for (int y = y0; y < y1 && k < share; y++) {
+                for (int x = x0; x < x1 && k < share; x++) {
+                    final int sq = world.index(x, y);
+                    if (!world.isEmpty(sq))
+                        continue;
+                    if (random.nextInt(left) < share - k) {
+                        squares[k] = sq;
+                        cells[k] = SquirmWorld.pack(randomType(random), 0);
+                        k++;
+                    }
+                    left--;
+                }
+            }
+        }
+    }
+
+} // End of the class //
@@ -0,0 +1,226 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmWorldSnapshot.java
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A copy-on-write image of a grid at one time step, for saving while the
+ * simulation carries on.
+ * 
+ * The cells, ids and sweep order are split into pages. Starting a snapshot
+ * only copies the grid's few scalars; after that whoever gets to a page first
+ * copies it: the world just before it changes anything on the page (see
+ * SquirmWorld.touch), or the saving thread in copyAll(). A page is claimed
+ * with a CAS, so it's copied exactly once and the other side waits at most
+ * for one page copy. Every page copied holds what it held at the step the
+ * snapshot was started.
+ */
+final class SquirmWorldSnapshot {
+
+    static final int PAGE_SHIFT = 12;
+    private static final int PAGE = 1 << PAGE_SHIFT;
+
+    private static final int LIVE = 0, BUSY = 1, DONE = 2;
+
+    private final SquirmWorld world;
+
+    // the grid's settings at the step
+    final int n_x, n_y;
+    final int count;
+    final boolean on_right;
+    final boolean flood;
+    final int flood_period;
+    final long seed;
+    final long random_state;
+    final boolean active_set;
+    final Vector<SquirmReaction> reactions;
+    final int n_order;
+    final int id_limit;
+
+    final int n_squares;
+
+    // the copies, a page at a time as they're made
+    private final int cell_pages[][];
+    private final int id_pages[][];
+    private final int order_pages_copy[][];
+
+    private final AtomicIntegerArray square_pages;
+    private final AtomicIntegerArray order_pages;
+    /** pages not yet copied */
+    private final AtomicInteger remaining;
+    /** the saving thread is done with it, whether or not every page was copied */
+    private volatile boolean released = false;
+
+    /** pages the simulation had to copy itself, and how long that took */
+    private volatile int world_copies = 0;
+    private volatile long world_copy_nanos = 0;
+
+    /**
+     * start a snapshot of the grid at its current step, between steps
+     */
+    SquirmWorldSnapshot(final SquirmGrid grid, final SquirmChemistry chemistry) {
+        world = grid.getWorld();
+        n_x = world.getSizeX();
+        n_y = world.getSizeY();
+        count = grid.getCount();
+        on_right = grid.getOnRight();
+        flood = grid.getFloodOnOff();
+        flood_period = grid.getFloodPeriod();
+        seed = grid.getSeed();
+        random_state = grid.getRandom().getState();
+        active_set = grid.getActiveSet();
+        reactions = new Vector<SquirmReaction>(chemistry.getReactions());
+        if (world.snapshot != null)
+            throw new Error("SquirmWorldSnapshot::SquirmWorldSnapshot : a snapshot is already being taken");
+        n_order = world.getOrderLength();
+        id_limit = world.getIdLimit();
+        n_squares = n_x * n_y;
+        // nothing big is allocated here, that's left to whoever copies
+        square_pages = new AtomicIntegerArray((n_squares + PAGE - 1) >> PAGE_SHIFT);
+        order_pages = new AtomicIntegerArray((n_order + PAGE - 1) >> PAGE_SHIFT);
+        cell_pages = new int[square_pages.length()][];
+        id_pages = new int[square_pages.length()][];
+        order_pages_copy = new int[order_pages.length()][];
+        remaining = new AtomicInteger(square_pages.length() + order_pages.length());
+        world.snapshot = this;
+    }
+
+    /**
+     * (world) the square is about to change
+     */
+    void touchSquare(int sq) {
+        final int page = sq >>> PAGE_SHIFT;
+        if (square_pages.get(page) != DONE)
+            claimSquares(page, true);
+    }
+
+    /**
+     * (world) the i'th entry of the sweep order is about to change
+     */
+    void touchOrder(int i) {
+        final int page = i >>> PAGE_SHIFT;
+        if (page < order_pages.length() && order_pages.get(page) != DONE)
+            claimOrder(page, true);
+    }
+
+    private void claimSquares(int page, boolean by_world) {
+        if (square_pages.compareAndSet(page, LIVE, BUSY)) {
+            final long start = by_world ? System.nanoTime() : 0;
+            final int from = page << PAGE_SHIFT;
+            final int n = Math.min(PAGE, n_squares - from);
+            cell_pages[page] = Arrays.copyOfRange(world.cells, from, from + n);
+            id_pages[page] = Arrays.copyOfRange(world.ids, from, from + n);
+            square_pages.set(page, DONE);
+            remaining.decrementAndGet();
+            if (by_world)
+                countWorldCopy(start);
+        } else {
+            while (square_pages.get(page) != DONE)
+                Thread.yield();
+        }
+    }
+
+    private void claimOrder(int page, boolean by_world) {
+        if (order_pages.compareAndSet(page, LIVE, BUSY)) {
+            final long start = by_world ? System.nanoTime() : 0;
+            final int from = page << PAGE_SHIFT;
+            order_pages_copy[page] = Arrays.copyOfRange(world.order, from, from + Math.min(PAGE, n_order - from));
+            order_pages.set(page, DONE);
+            remaining.decrementAndGet();
+            if (by_world)
+                countWorldCopy(start);
+        } else {
+            while (order_pages.get(page) != DONE)
+                Thread.yield();
+        }
+    }
+
+    private synchronized void countWorldCopy(long start) {
+        world_copies++;
+        world_copy_nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * (saving thread) copy every page the world hasn't already
+     */
+    void copyAll() {
+        for (int page = 0; page < square_pages.length(); page++)
+            if (square_pages.get(page) != DONE)
+                claimSquares(page, false);
+        for (int page = 0; page < order_pages.length(); page++)
+            if (order_pages.get(page) != DONE)
+                claimOrder(page, false);
+    }
+
+    // reading the copies, once copyAll() has been called
+
+    int cell(int sq) {
+        return cell_pages[sq >>> PAGE_SHIFT][sq & (PAGE - 1)];
+    }
+
+    int id(int sq) {
+        return id_pages[sq >>> PAGE_SHIFT][sq & (PAGE - 1)];
+    }
+
+    int orderAt(int i) {
+        return order_pages_copy[i >>> PAGE_SHIFT][i & (PAGE - 1)];
+    }
+
+    /**
+     * (saving thread) finished with the snapshot, even part way through after
+     * a failure; the world lets go of it at its next detachIfComplete()
+     */
+    void release() {
+        released = true;
+    }
+
+    /**
+     * (world's thread) stop the world calling in once every page is copied,
+     * or the saving thread has released it
+     */
+    boolean detachIfComplete() {
+        if (remaining.get() != 0 && !released)
+            return false;
+        if (world.snapshot == this)
+            world.snapshot = null;
+        return true;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getWorldCopies() {
+        return world_copies;
+    }
+
+    long getWorldCopyNanos() {
+        return world_copy_nanos;
+    }
+
+} // End of the class //
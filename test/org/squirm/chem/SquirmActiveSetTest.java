@@ -0,0 +1,70 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmActiveSetTest.java
+
+import junit.framework.TestCase;
+
+/**
+ * Skipping the dormant atoms gives the same run as stepping them all.
+ */
+public class SquirmActiveSetTest extends TestCase {
+
+    private static final long SEED = 33;
+    private static final int STEPS = 2000;
+
+    private static void assertSameRun(int threads, int variant) {
+        final SquirmGrid all = new SquirmGrid(80, 80, SEED);
+        final SquirmGrid active = new SquirmGrid(80, 80, SEED);
+        active.setActiveSet(true);
+        for (final SquirmGrid grid : new SquirmGrid[] { all, active }) {
+            grid.setFloodOnOff(true);
+            grid.setFloodPeriod(700);
+            if (threads > 0)
+                grid.setThreads(threads, 16);
+        }
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), variant);
+        try {
+            for (int step = 1; step <= STEPS; step++) {
+                all.doTimeStep(chemistry);
+                active.doTimeStep(chemistry);
+                if (step % 100 == 0)
+                    SquirmTestWorlds.assertSameWorld("set " + variant + " threads " + threads + " step " + step,
+                            all.getWorld(), active.getWorld());
+            }
+        } finally {
+            all.setThreads(1);
+            active.setThreads(1);
+        }
+    }
+
+    public void testSweepSameAsSteppingAll() {
+        assertSameRun(0, 0);
+        assertSameRun(0, 9);
+    }
+
+    public void testTilesSameAsSteppingAll() {
+        assertSameRun(2, 0);
+    }
+
+} // End of the class //
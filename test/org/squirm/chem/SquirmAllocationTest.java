@@ -0,0 +1,83 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmAllocationTest.java
+
+import java.lang.management.ManagementFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that once the world has settled a time step allocates nothing.
+ */
+public class SquirmAllocationTest extends TestCase {
+
+    private static final int WARM_UP_STEPS = 20000;
+    private static final int MEASURED_STEPS = 2000;
+
+    /** the same world every run */
+    private static final long SEED = 5;
+
+    private static SquirmChemistry replicationChemistry(final SquirmChemistry chemistry) {
+        // new slimline replication reactions (for: e8-a1-b1-...-f1)
+        chemistry.addReaction(new SquirmReaction('e', 8, false, 'e', 0, 4, true, 3));
+        chemistry.addReaction(new SquirmReaction('x', 4, true, 'y', 1, 2, true, 5));
+        chemistry.addReaction(new SquirmReaction('x', 5, false, 'x', 0, 7, true, 6));
+        chemistry.addReaction(new SquirmReaction('x', 3, false, 'y', 6, 2, true, 3));
+        chemistry.addReaction(new SquirmReaction('x', 7, true, 'y', 3, 4, true, 3));
+        chemistry.addReaction(new SquirmReaction('f', 4, true, 'f', 3, 8, false, 8));
+        chemistry.addReaction(new SquirmReaction('x', 2, true, 'y', 8, 9, true, 1));
+        chemistry.addReaction(new SquirmReaction('x', 9, true, 'y', 9, 8, false, 8));
+        return chemistry;
+    }
+
+    private static long allocatedBytes() {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long allocatedPerRun(final SquirmGrid grid, final SquirmChemistry chemistry) {
+        for (int i = 0; i < WARM_UP_STEPS; i++)
+            grid.doTimeStep(chemistry);
+
+        // the counter itself may allocate, measure that first
+        final long a = allocatedBytes();
+        final long b = allocatedBytes();
+        for (int i = 0; i < MEASURED_STEPS; i++)
+            grid.doTimeStep(chemistry);
+        final long c = allocatedBytes();
+        return (c - b) - (b - a);
+    }
+
+    public void testStepDoesNotAllocate() {
+        final SquirmGrid grid = new SquirmGrid(50, 50, SEED);
+        assertEquals(0, allocatedPerRun(grid, replicationChemistry(new SquirmChemistry())));
+    }
+
+    public void testCompiledStepDoesNotAllocate() {
+        final SquirmGrid grid = new SquirmGrid(50, 50, SEED);
+        assertEquals(0, allocatedPerRun(grid, replicationChemistry(new SquirmCompiledChemistry())));
+    }
+
+} // End of the class //
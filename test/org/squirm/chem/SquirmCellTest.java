@@ -0,0 +1,76 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCellTest.java
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+/**
+ * Views of the same atom are equal, so the bond lists can be searched, and
+ * a view kept past the reuse of its id throws.
+ */
+public class SquirmCellTest extends TestCase {
+
+    public void testBondsHoldEqualViews() {
+        final SquirmWorld world = new SquirmWorld(10, 10);
+        final SquirmCell e = new SquirmCell(4, 4, 0, 8, world);
+        final SquirmCell a = new SquirmCell(5, 4, 2, 1, world);
+        final SquirmCell b = new SquirmCell(4, 5, 3, 1, world);
+        world.makeBond(e.getSquare(), SquirmWorld.direction(1, 0));
+        world.makeBond(e.getSquare(), SquirmWorld.direction(0, 1));
+
+        final Vector<SquirmCell> bonds = e.getBonds();
+        assertEquals(2, bonds.size());
+        assertTrue(bonds.contains(a));
+        assertTrue(bonds.contains(b));
+        assertFalse(bonds.contains(e));
+        assertTrue(bonds.indexOf(b) >= 0);
+        assertEquals(new SquirmCell(world, a.getId()).hashCode(), a.hashCode());
+        assertTrue(bonds.removeElement(a));
+        assertFalse(bonds.contains(a));
+        assertFalse(a.equals(new SquirmCell(new SquirmWorld(10, 10), 0)));
+    }
+
+    public void testStaleViewThrows() {
+        final SquirmWorld world = new SquirmWorld(10, 10);
+        final SquirmCell dead = new SquirmCell(1, 1, 0, 1, world);
+        final SquirmCell live = new SquirmCell(2, 2, 1, 1, world);
+        dead.killSelf();
+        world.compact();
+        // the live atom's view is still good
+        assertEquals(world.index(2, 2), live.getSquare());
+        final SquirmCell reborn = new SquirmCell(7, 7, 2, 3, world);
+        assertEquals("the id is handed out again", dead.getId(), reborn.getId());
+        assertFalse(dead.equals(reborn));
+        try {
+            dead.getState();
+            fail("a stale view read another atom");
+        } catch (final Error e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("stale"));
+        }
+        assertEquals(3, reborn.getState());
+    }
+
+} // End of the class //
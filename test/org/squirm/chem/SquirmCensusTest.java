@@ -0,0 +1,111 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCensusTest.java
+
+import junit.framework.TestCase;
+
+/**
+ * The counts kept up to date as the world changes are the ones a walk over
+ * every square gives.
+ */
+public class SquirmCensusTest extends TestCase {
+
+    private static final long SEED = 19;
+    private static final int STEPS = 3000;
+
+    private static void assertSameCounts(final String message, final SquirmWorld world, final SquirmCensus census) {
+        final int n_states = census.getStates();
+        final long walked[] = new long[census.getColumns()];
+        long bond_ends = 0;
+        for (int sq = 0; sq < world.getSizeX() * world.getSizeY(); sq++) {
+            if (world.isEmpty(sq))
+                continue;
+            walked[world.getType(sq) * (n_states + 1) + Math.min(world.getState(sq), n_states)]++;
+            bond_ends += Integer.bitCount(world.getBonds(sq));
+        }
+        final long counts[] = new long[census.getColumns()];
+        census.getCounts(counts);
+        long atoms = 0;
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(message + " : " + census.getColumnName(i), walked[i], counts[i]);
+            atoms += counts[i];
+        }
+        for (int type = 0; type < 6; type++)
+            for (int state = 0; state <= n_states + 2; state++)
+                assertEquals(message + " : type " + type + " state " + state,
+                        walked[type * (n_states + 1) + Math.min(state, n_states)], census.getCount(type, state));
+        assertEquals(message + " : atoms", world.getAtomCount(), atoms);
+        assertEquals(message + " : bonds", bond_ends / 2, census.getBonds());
+    }
+
+    /** swept for 0 threads, no flood for flood_period 0 */
+    private static void assertCounted(int threads, int flood_period) {
+        final SquirmGrid grid = new SquirmGrid(64, 64, SEED);
+        grid.setFloodOnOff(flood_period > 0);
+        if (flood_period > 0)
+            grid.setFloodPeriod(flood_period);
+        if (threads > 0)
+            grid.setThreads(threads, 16);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmCensus census = new SquirmCensus(grid.getWorld(), SquirmCensus.statesOf(chemistry));
+        try {
+            assertSameCounts("start", grid.getWorld(), census);
+            for (int step = 1; step <= STEPS; step++) {
+                grid.doTimeStep(chemistry);
+                if (step % 250 == 0)
+                    assertSameCounts("threads " + threads + " flood " + flood_period + " step " + step,
+                            grid.getWorld(), census);
+            }
+            assertTrue("nothing reacted", census.getFired() > 0);
+        } finally {
+            census.detach();
+            grid.setThreads(1);
+        }
+    }
+
+    public void testSweptCounts() {
+        assertCounted(0, 0);
+        assertCounted(0, 700);
+    }
+
+    public void testTiledCounts() {
+        assertCounted(4, 0);
+        assertCounted(4, 700);
+    }
+
+    /** states past the chemistry's are lumped into the last column */
+    public void testFewStates() {
+        final SquirmGrid grid = new SquirmGrid(48, 48, SEED);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmCensus census = new SquirmCensus(grid.getWorld(), 2);
+        try {
+            for (int step = 1; step <= 500; step++)
+                grid.doTimeStep(chemistry);
+            assertSameCounts("2 states", grid.getWorld(), census);
+        } finally {
+            census.detach();
+        }
+    }
+
+} // End of the class //
@@ -0,0 +1,99 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCheckpointTest.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+/**
+ * A loaded checkpoint carries on exactly as the run it was saved from, and a
+ * damaged one isn't loaded.
+ */
+public class SquirmCheckpointTest extends TestCase {
+
+    private static final long SEED = 51;
+    private static final int STEPS = 1500;
+
+    private File file;
+
+    protected void setUp() throws IOException {
+        file = File.createTempFile("squirm", ".sqc");
+    }
+
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private SquirmGrid savedRun(final SquirmChemistry chemistry) throws IOException {
+        final SquirmGrid grid = new SquirmGrid(64, 64, SEED);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(600);
+        for (int step = 0; step < 500; step++)
+            grid.doTimeStep(chemistry);
+        SquirmCheckpoint.save(file, grid, chemistry);
+        return grid;
+    }
+
+    public void testLoadedRunCarriesOn() throws IOException {
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmGrid saved = savedRun(chemistry);
+        final SquirmChemistry loaded_chemistry = new SquirmChemistry();
+        final SquirmGrid loaded = SquirmCheckpoint.load(file, loaded_chemistry);
+        assertEquals(saved.getCount(), loaded.getCount());
+        assertEquals(chemistry.getReactions().size(), loaded_chemistry.getReactions().size());
+        SquirmTestWorlds.assertSameWorld("loaded", saved.getWorld(), loaded.getWorld());
+        for (int step = 1; step <= STEPS; step++) {
+            saved.doTimeStep(chemistry);
+            loaded.doTimeStep(loaded_chemistry);
+            if (step % 100 == 0)
+                SquirmTestWorlds.assertSameWorld("step " + step, saved.getWorld(), loaded.getWorld());
+        }
+    }
+
+    public void testDamagedCheckpointIsRefused() throws IOException {
+        savedRun(SquirmTestWorlds.chemistry(new SquirmChemistry(), 0));
+        assertTrue(SquirmCheckpoint.verify(file));
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long at = raf.length() / 2;
+            raf.seek(at);
+            final int b = raf.read();
+            raf.seek(at);
+            raf.write(b ^ 0x10);
+        } finally {
+            raf.close();
+        }
+        assertFalse(SquirmCheckpoint.verify(file));
+        try {
+            SquirmCheckpoint.load(file, new SquirmChemistry());
+            fail("a damaged checkpoint was loaded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+} // End of the class //
@@ -0,0 +1,116 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCheckpointerTest.java
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Checkpoints written in the background, while the run carries on, hold the
+ * world as it was at their step, and a failed one doesn't stop the next.
+ */
+public class SquirmCheckpointerTest extends TestCase {
+
+    private static final long SEED = 52;
+    private static final int EVERY = 200;
+
+    private File directory;
+
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("squirm").toFile();
+    }
+
+    protected void tearDown() {
+        final File files[] = directory.listFiles();
+        if (files != null)
+            for (final File f : files)
+                f.delete();
+        directory.delete();
+    }
+
+    private static SquirmGrid newGrid() {
+        final SquirmGrid grid = new SquirmGrid(64, 64, SEED);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(300);
+        return grid;
+    }
+
+    public void testCheckpointsHoldTheirStep() throws IOException {
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmGrid grid = newGrid();
+        final SquirmGrid reference = newGrid();
+        final SquirmCheckpointer checkpointer = new SquirmCheckpointer(directory, chemistry, EVERY, 100);
+        final File expected = new File(directory, "expected");
+        expected.mkdir();
+        for (int step = 1; step <= 1000; step++) {
+            grid.doTimeStep(chemistry);
+            checkpointer.stepped(grid);
+            reference.doTimeStep(chemistry);
+            if (step % EVERY == 0)
+                SquirmCheckpoint.save(new File(expected, SquirmCheckpointer.name(step)), reference, chemistry);
+        }
+        checkpointer.close();
+        assertEquals(0, checkpointer.getFailed());
+        assertTrue(checkpointer.getWritten() > 0);
+        assertEquals(checkpointer.getWritten(), SquirmCheckpointer.list(directory).length);
+        for (final File file : SquirmCheckpointer.list(directory)) {
+            final SquirmGrid loaded = SquirmCheckpoint.load(file, new SquirmChemistry());
+            final SquirmGrid saved = SquirmCheckpoint.load(new File(expected, file.getName()), new SquirmChemistry());
+            assertEquals(SquirmCheckpointer.stepOf(file), loaded.getCount());
+            SquirmTestWorlds.assertSameWorld(file.getName(), saved.getWorld(), loaded.getWorld());
+        }
+        for (final File f : expected.listFiles())
+            f.delete();
+        expected.delete();
+    }
+
+    public void testFailedCheckpointIsLetGo() throws InterruptedException {
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmGrid grid = newGrid();
+        final SquirmCheckpointer checkpointer = new SquirmCheckpointer(directory, chemistry, EVERY, 100);
+        // nowhere to write the first one
+        directory.delete();
+        for (int step = 1; step <= EVERY; step++) {
+            grid.doTimeStep(chemistry);
+            checkpointer.stepped(grid);
+        }
+        for (int i = 0; i < 1000 && checkpointer.getFailed() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, checkpointer.getFailed());
+        directory.mkdir();
+        for (int step = EVERY + 1; step <= 2 * EVERY; step++) {
+            grid.doTimeStep(chemistry);
+            checkpointer.stepped(grid);
+        }
+        checkpointer.close();
+        assertNull("snapshot left attached", grid.getWorld().snapshot);
+        assertEquals(0, checkpointer.getSkipped());
+        assertEquals(1, checkpointer.getWritten());
+        assertEquals(2 * EVERY, SquirmCheckpointer.stepOf(SquirmCheckpointer.list(directory)[0]));
+    }
+
+} // End of the class //
@@ -0,0 +1,61 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmCompiledChemistryTest.java
+
+import junit.framework.TestCase;
+
+/**
+ * The compiled reactor must give exactly the run the interpreted table
+ * gives.
+ */
+public class SquirmCompiledChemistryTest extends TestCase {
+
+    private static final long SEED = 11;
+
+    public void testSameWorldAsInterpreted() {
+        for (final int variant : SquirmReactionSets.VARIANTS) {
+            final SquirmGrid interpreted = new SquirmGrid(64, 64, SEED);
+            final SquirmGrid compiled = new SquirmGrid(64, 64, SEED);
+            final SquirmChemistry a = SquirmTestWorlds.chemistry(new SquirmChemistry(), variant);
+            final SquirmChemistry b = SquirmTestWorlds.chemistry(new SquirmCompiledChemistry(), variant);
+            for (int step = 1; step <= 2000; step++) {
+                interpreted.doTimeStep(a);
+                compiled.doTimeStep(b);
+                if (step % 250 == 0)
+                    SquirmTestWorlds.assertSameWorld("set " + variant + " step " + step, interpreted.getWorld(),
+                            compiled.getWorld());
+            }
+        }
+    }
+
+    public void testSameRulesShareAReactor() {
+        final SquirmCompiledChemistry a = (SquirmCompiledChemistry) SquirmTestWorlds.chemistry(
+                new SquirmCompiledChemistry(), 9);
+        final SquirmCompiledChemistry b = (SquirmCompiledChemistry) SquirmTestWorlds.chemistry(
+                new SquirmCompiledChemistry(), 9);
+        assertSame(a.recompile(), b.recompile());
+        assertEquals(a.getGeneratedSource(), b.getGeneratedSource());
+    }
+
+} // End of the class //
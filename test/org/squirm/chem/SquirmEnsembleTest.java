@@ -0,0 +1,201 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmEnsembleTest.java
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+/**
+ * An ensemble keeps no more runs going than it has threads, stops early when
+ * cancelled, and reports a run that throws as failed without stopping the
+ * others.
+ */
+public class SquirmEnsembleTest extends TestCase {
+
+    private static final int THREADS = 3;
+
+    private static SquirmRunSpec spec(int i, long steps) {
+        final SquirmConfig config = new SquirmConfig();
+        config.setSize(30, 30);
+        config.setSeed(i + 1);
+        return new SquirmRunSpec("run" + i, config, steps);
+    }
+
+    /** runs, noting how many were taken before the listener heard of them */
+    private static class Specs implements Iterator<SquirmRunSpec> {
+        final int runs;
+        final long steps;
+        int taken = 0;
+        int heard = 0;
+        int most_in_flight = 0;
+
+        Specs(int runs, long steps) {
+            this.runs = runs;
+            this.steps = steps;
+        }
+
+        public boolean hasNext() {
+            return taken < runs;
+        }
+
+        public SquirmRunSpec next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            most_in_flight = Math.max(most_in_flight, ++taken - heard);
+            return make(taken - 1);
+        }
+
+        SquirmRunSpec make(int i) {
+            return spec(i, steps);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public void testRunsAreBoundedByThreads() {
+        final Specs specs = new Specs(10, 300);
+        final List<SquirmRunResult> results = new ArrayList<SquirmRunResult>();
+        final SquirmEnsemble ensemble = new SquirmEnsemble(THREADS);
+        try {
+            assertEquals(10, ensemble.run(specs, new SquirmEnsemble.Listener() {
+                public void finished(final SquirmRunResult result) {
+                    specs.heard++;
+                    results.add(result);
+                }
+            }));
+        } finally {
+            ensemble.shutdown();
+        }
+        assertEquals(THREADS, specs.most_in_flight);
+        for (final SquirmRunResult r : results) {
+            assertFalse(r.toString(), r.isFailed());
+            assertFalse(r.toString(), r.isCancelled());
+            assertEquals(r.toString(), 300, r.getSteps());
+        }
+    }
+
+    public void testCancelStopsTheRunsInFlight() {
+        final Specs specs = new Specs(20, Long.MAX_VALUE / 2);
+        final List<SquirmRunResult> results = new ArrayList<SquirmRunResult>();
+        final SquirmEnsemble ensemble = new SquirmEnsemble(THREADS);
+        final Thread canceller = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                ensemble.cancel();
+            }
+        };
+        canceller.start();
+        try {
+            assertEquals(THREADS, ensemble.run(specs, new SquirmEnsemble.Listener() {
+                public void finished(final SquirmRunResult result) {
+                    results.add(result);
+                }
+            }));
+        } finally {
+            ensemble.shutdown();
+        }
+        assertEquals("no runs handed out after the cancel", THREADS, specs.taken);
+        for (final SquirmRunResult r : results) {
+            assertTrue(r.toString(), r.isCancelled());
+            assertFalse(r.toString(), r.isFailed());
+            assertTrue(r.toString(), r.getSteps() > 0 && r.getSteps() < Long.MAX_VALUE / 2);
+        }
+    }
+
+    public void testReplicatorIsReported() {
+        final SquirmRunSpec spec = spec(0, 3000);
+        final List<SquirmRunResult> results = new ArrayList<SquirmRunResult>();
+        final SquirmEnsemble ensemble = new SquirmEnsemble(1);
+        try {
+            ensemble.run(Collections.singletonList(spec), new SquirmEnsemble.Listener() {
+                public void finished(final SquirmRunResult result) {
+                    results.add(result);
+                }
+            });
+        } finally {
+            ensemble.shutdown();
+        }
+        // the same run by hand
+        final SquirmEngine engine = SquirmEngine.create(spec.getConfig());
+        final SquirmReplicators replicators = engine.getReplicators(SquirmEnsemble.REPLICATOR_LENGTH);
+        engine.step(3000);
+        SquirmReplicators.Sequence top = null;
+        for (final SquirmReplicators.Sequence s : replicators.getTop(Integer.MAX_VALUE))
+            if (top == null && s.getLetters().length() >= 3)
+                top = s;
+        assertNotNull("no chain to report", top);
+        final SquirmRunResult result = results.get(0);
+        assertEquals(top.getLetters(), result.getReplicator());
+        assertEquals(top.getCopies(), result.getReplicatorCopies());
+        assertEquals(replicators.getBirthRate(top), result.getReplicatorBirthRate(), 1e-9);
+    }
+
+    public void testFailingRunIsReported() {
+        final Specs specs = new Specs(6, 200) {
+            SquirmRunSpec make(final int i) {
+                if (i != 2)
+                    return super.make(i);
+                return new SquirmRunSpec("bad", new SquirmConfig(), 200) {
+                    public SquirmConfig getConfig() {
+                        throw new IllegalArgumentException("no config for run " + i);
+                    }
+                };
+            }
+        };
+        final List<SquirmRunResult> results = new ArrayList<SquirmRunResult>();
+        final SquirmEnsemble ensemble = new SquirmEnsemble(THREADS);
+        try {
+            assertEquals(6, ensemble.run(specs, new SquirmEnsemble.Listener() {
+                public void finished(final SquirmRunResult result) {
+                    results.add(result);
+                }
+            }));
+        } finally {
+            ensemble.shutdown();
+        }
+        int failed = 0;
+        for (final SquirmRunResult r : results) {
+            if (r.isFailed()) {
+                failed++;
+                assertEquals("bad", r.getSpec().getName());
+                assertTrue(r.getError(), r.getError().contains("no config for run 2"));
+            } else {
+                assertEquals(r.toString(), 200, r.getSteps());
+            }
+        }
+        assertEquals(1, failed);
+    }
+
+} // End of the class //
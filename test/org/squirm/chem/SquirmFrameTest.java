@@ -0,0 +1,53 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmFrameTest.java
+
+import junit.framework.TestCase;
+
+/**
+ * A frame captured again and again, as the exchange reuses them, says what
+ * was on each square at its own capture and nothing left over from before.
+ */
+public class SquirmFrameTest extends TestCase {
+
+    private static final long SEED = 14;
+
+    public void testContentsAfterEachCapture() {
+        final SquirmGrid grid = new SquirmGrid(48, 48, SEED);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(100);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmFrame frame = new SquirmFrame(48, 48);
+        for (int capture = 0; capture < 20; capture++) {
+            frame.capture(grid);
+            for (int y = -1; y <= 48; y++)
+                for (int x = -1; x <= 48; x++)
+                    assertEquals("capture " + capture + " square " + x + "," + y, grid.getContents(x, y),
+                            frame.getContents(x, y));
+            for (int step = 0; step < 37; step++)
+                grid.doTimeStep(chemistry);
+        }
+    }
+
+} // End of the class //
@@ -0,0 +1,148 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmJournalTest.java
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Replaying a journal to a step gives the world the live run had at that
+ * step, either side of a keyframe and seeking back, swept or tiled on
+ * several threads; a keyframe damaged after it was read isn't used again.
+ */
+public class SquirmJournalTest extends TestCase {
+
+    private static final long SEED = 18;
+    private static final int KEYFRAME = 250;
+    private static final int STEPS = 1000;
+
+    private File directory;
+
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("squirm").toFile();
+    }
+
+    protected void tearDown() {
+        final File files[] = directory.listFiles();
+        if (files != null)
+            for (final File f : files)
+                f.delete();
+        directory.delete();
+    }
+
+    /** swept for 0 threads, else tiled */
+    private static SquirmGrid newGrid(int threads) {
+        final SquirmGrid grid = new SquirmGrid(64, 64, SEED);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(400);
+        if (threads > 0)
+            grid.setThreads(threads, 16);
+        return grid;
+    }
+
+    /** a live run on one thread, stepped on to each step asked for */
+    private static SquirmWorld liveAt(int threads, int step) {
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmGrid grid = newGrid(Math.min(threads, 1));
+        try {
+            while (grid.getCount() < step)
+                grid.doTimeStep(chemistry);
+        } finally {
+            grid.setThreads(1);
+        }
+        return grid.getWorld();
+    }
+
+    private void record(int threads) throws IOException {
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmGrid grid = newGrid(threads);
+        final SquirmJournal journal = new SquirmJournal(directory, grid, chemistry, KEYFRAME, 50);
+        try {
+            for (int step = 0; step < STEPS; step++) {
+                grid.doTimeStep(chemistry);
+                journal.stepped(grid);
+            }
+        } finally {
+            journal.close();
+            grid.setThreads(1);
+        }
+        assertTrue(SquirmCheckpointer.list(directory).length > 1);
+    }
+
+    private void assertReplays(int threads) throws IOException {
+        record(threads);
+        final SquirmReplay replay = new SquirmReplay(directory, new SquirmChemistry());
+        try {
+            for (final int step : new int[] { KEYFRAME - 1, KEYFRAME, KEYFRAME + 1, 2 * KEYFRAME + 37, STEPS })
+                SquirmTestWorlds.assertSameWorld("threads " + threads + " step " + step, liveAt(threads, step),
+                        replay.seek(step).getWorld());
+            // back to before the last seek, from a keyframe again
+            final int step = KEYFRAME + 10;
+            SquirmTestWorlds.assertSameWorld("threads " + threads + " back to step " + step, liveAt(threads, step),
+                    replay.seek(step).getWorld());
+        } finally {
+            replay.close();
+        }
+    }
+
+    public void testSweepReplays() throws IOException {
+        assertReplays(0);
+    }
+
+    public void testTilesReplay() throws IOException {
+        assertReplays(4);
+    }
+
+    public void testDamagedKeyframe() throws IOException {
+        record(0);
+        final SquirmReplay replay = new SquirmReplay(directory, new SquirmChemistry());
+        try {
+            replay.seek(2 * KEYFRAME + 10);
+            File keyframe = null;
+            for (final File f : SquirmCheckpointer.list(directory))
+                if (SquirmCheckpointer.stepOf(f) == 2 * KEYFRAME)
+                    keyframe = f;
+            final RandomAccessFile raf = new RandomAccessFile(keyframe, "rw");
+            try {
+                raf.seek(raf.length() / 2);
+                final int b = raf.read();
+                raf.seek(raf.length() / 2);
+                raf.write(b ^ 0xFF);
+            } finally {
+                raf.close();
+            }
+            assertTrue(keyframe.setLastModified(keyframe.lastModified() + 10000));
+            // back past it, then on past it from the keyframe before
+            for (final int step : new int[] { 10, 2 * KEYFRAME + 20 })
+                SquirmTestWorlds.assertSameWorld("step " + step, liveAt(0, step), replay.seek(step).getWorld());
+        } finally {
+            replay.close();
+        }
+    }
+
+} // End of the class //
@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmMoleculesTest.java
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * The molecules kept up to date as bonds are made and broken are the ones a
+ * search along the bonds finds.
+ */
+public class SquirmMoleculesTest extends TestCase {
+
+    private static final long SEED = 21;
+    private static final int STEPS = 3000;
+
+    /** a breadth first search from every atom not yet reached */
+    private static void assertSameMolecules(final String message, final SquirmWorld world,
+            final SquirmMolecules molecules) {
+        final int n_squares = world.getSizeX() * world.getSizeY();
+        final int component[] = new int[n_squares];
+        final int queue[] = new int[n_squares];
+        final Map<Integer, Integer> component_of = new HashMap<Integer, Integer>();
+        int n_components = 0;
+        int largest = 0;
+        for (int start = 0; start < n_squares; start++) {
+            if (world.isEmpty(start) || component[start] != 0)
+                continue;
+            final int c = ++n_components;
+            component[start] = c;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            while (head < tail) {
+                final int sq = queue[head++];
+                for (int rest = world.getBonds(sq); rest != 0; rest &= rest - 1) {
+                    final int n = sq + world.getOffset(Integer.numberOfTrailingZeros(rest));
+                    if (component[n] == 0) {
+                        component[n] = c;
+                        queue[tail++] = n;
+                    }
+                }
+            }
+            final int m = molecules.getMolecule(world.getId(start));
+            assertNull(message + " : molecule " + m + " is in two places", component_of.put(m, c));
+            assertEquals(message + " : size of molecule " + m, tail, molecules.getSize(m));
+            for (int i = 0; i < tail; i++)
+                assertEquals(message + " : atom on square " + queue[i], m, molecules.getMolecule(world.getId(queue[i])));
+            largest = Math.max(largest, tail);
+        }
+        assertEquals(message + " : molecules", n_components, molecules.getCount());
+        assertEquals(message + " : largest", largest, molecules.getLargest());
+    }
+
+    /** swept for 0 threads, no flood for flood_period 0 */
+    private static void assertTracked(int threads, int flood_period) {
+        final SquirmGrid grid = SquirmTestWorlds.newGrid(SEED, 64, 0.3);
+        grid.setFloodOnOff(flood_period > 0);
+        if (flood_period > 0)
+            grid.setFloodPeriod(flood_period);
+        if (threads > 0)
+            grid.setThreads(threads, 16);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmMolecules molecules = new SquirmMolecules(grid.getWorld());
+        int largest = 0;
+        try {
+            assertSameMolecules("start", grid.getWorld(), molecules);
+            for (int step = 1; step <= STEPS; step++) {
+                grid.doTimeStep(chemistry);
+                molecules.stepped(grid);
+                if (step % 250 == 0) {
+                    assertSameMolecules("threads " + threads + " flood " + flood_period + " step " + step,
+                            grid.getWorld(), molecules);
+                    largest = Math.max(largest, molecules.getLargest());
+                }
+            }
+            // the seeded replicators are 5 atoms long
+            assertTrue("nothing grew", largest > 5);
+        } finally {
+            molecules.detach();
+            grid.setThreads(1);
+        }
+    }
+
+    public void testSweptMolecules() {
+        assertTracked(0, 0);
+        assertTracked(0, 700);
+    }
+
+    public void testTiledMolecules() {
+        assertTracked(4, 0);
+        assertTracked(4, 700);
+    }
+
+} // End of the class //
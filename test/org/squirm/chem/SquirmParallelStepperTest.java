@@ -0,0 +1,61 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmParallelStepperTest.java
+
+import junit.framework.TestCase;
+
+/**
+ * The same seed and tile size give the same run on any number of threads.
+ */
+public class SquirmParallelStepperTest extends TestCase {
+
+    private static final long SEED = 21;
+    private static final int TILE = 16;
+    private static final int STEPS = 1500;
+
+    private static SquirmGrid run(int threads, int variant) {
+        final SquirmGrid grid = new SquirmGrid(96, 96, SEED);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(500);
+        grid.setThreads(threads, TILE);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), variant);
+        try {
+            for (int i = 0; i < STEPS; i++)
+                grid.doTimeStep(chemistry);
+        } finally {
+            grid.setThreads(1);
+        }
+        return grid;
+    }
+
+    public void testSameRunWhateverTheThreads() {
+        for (final int variant : new int[] { 0, 9 }) {
+            final SquirmGrid one = run(1, variant);
+            for (final int threads : new int[] { 2, 4 })
+                SquirmTestWorlds.assertSameWorld("set " + variant + " threads " + threads, one.getWorld(),
+                        run(threads, variant).getWorld());
+        }
+    }
+
+} // End of the class //
@@ -0,0 +1,170 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmRecorderTest.java
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * With the worker held up, BLOCK waits for it, DROP_NEWEST keeps the frames
+ * queued first and DROP_OLDEST the last, each dropped frame counted; a
+ * frame that fails to draw doesn't stop the recording.
+ */
+public class SquirmRecorderTest extends TestCase {
+
+    private static final long SEED = 15;
+    private static final int CAPACITY = 2;
+
+    private File directory;
+    private SquirmGrid grid;
+    private SquirmChemistry chemistry;
+
+    /** writes nothing, the steps it's given are kept */
+    private static class Recorder extends SquirmRecorder {
+        /** open to let the worker write */
+        final CountDownLatch gate = new CountDownLatch(1);
+        /** counted down as the worker starts its first write */
+        final CountDownLatch writing = new CountDownLatch(1);
+        final List<Integer> steps = new CopyOnWriteArrayList<Integer>();
+
+        Recorder(final File directory, final Policy policy) {
+            super(directory, 32, 32, 1, Format.RAW, policy, CAPACITY, 1, 1);
+        }
+
+        void write(final SquirmRaster raster, int step) throws IOException {
+            writing.countDown();
+            try {
+                gate.await();
+            } catch (final InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+            steps.add(step);
+        }
+    }
+
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("squirm").toFile();
+        grid = new SquirmGrid(32, 32, SEED);
+        chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+    }
+
+    protected void tearDown() {
+        final File files[] = directory.listFiles();
+        if (files != null)
+            for (final File f : files)
+                f.delete();
+        directory.delete();
+    }
+
+    private void step(final SquirmRecorder recorder, int n) {
+        for (int i = 0; i < n; i++) {
+            grid.doTimeStep(chemistry);
+            recorder.stepped(grid);
+        }
+    }
+
+    /** step 1 taken by the held up worker, then steps 2..10 */
+    private Recorder heldUp(final SquirmRecorder.Policy policy) throws InterruptedException {
+        final Recorder recorder = new Recorder(directory, policy);
+        step(recorder, 1);
+        assertTrue("worker never wrote", recorder.writing.await(10, TimeUnit.SECONDS));
+        step(recorder, 9);
+        return recorder;
+    }
+
+    private static void assertWritten(final Recorder recorder, final Integer... steps) {
+        recorder.gate.countDown();
+        recorder.close();
+        final List<Integer> written = recorder.steps;
+        Collections.sort(written);
+        assertEquals("steps written", Arrays.asList(steps), written);
+        assertEquals("captured", 10, recorder.getCaptured());
+        assertEquals("written", steps.length, recorder.getWritten());
+        assertEquals("dropped", 10 - steps.length, recorder.getDropped());
+        assertEquals("failed", 0, recorder.getFailed());
+    }
+
+    public void testDropNewest() throws InterruptedException {
+        assertWritten(heldUp(SquirmRecorder.Policy.DROP_NEWEST), 1, 2, 3);
+    }
+
+    public void testDropOldest() throws InterruptedException {
+        assertWritten(heldUp(SquirmRecorder.Policy.DROP_OLDEST), 1, 9, 10);
+    }
+
+    public void testBlock() throws InterruptedException {
+        final Recorder recorder = new Recorder(directory, SquirmRecorder.Policy.BLOCK);
+        step(recorder, 1);
+        assertTrue("worker never wrote", recorder.writing.await(10, TimeUnit.SECONDS));
+        final Thread stepping = new Thread(new Runnable() {
+            public void run() {
+                step(recorder, 9);
+            }
+        });
+        stepping.start();
+        // the queue holds two, so the stepping thread waits on step 4
+        stepping.join(500);
+        assertTrue("stepping didn't wait for the worker", stepping.isAlive());
+        assertEquals("captured while waiting", 4, recorder.getCaptured());
+        recorder.gate.countDown();
+        stepping.join(10000);
+        assertFalse("stepping still waiting", stepping.isAlive());
+        recorder.close();
+        assertEquals("written", 10, recorder.getWritten());
+        assertEquals("dropped", 0, recorder.getDropped());
+    }
+
+    /** a worker that throws carries on, so BLOCK doesn't hang */
+    public void testFailingFrame() throws InterruptedException {
+        final SquirmRecorder recorder = new SquirmRecorder(directory, 32, 32, 1, SquirmRecorder.Format.RAW,
+                SquirmRecorder.Policy.BLOCK, 1, 1, 1) {
+            void write(final SquirmRaster raster, int step) throws IOException {
+                if (step % 3 == 0)
+                    throw new IllegalStateException("frame " + step);
+            }
+        };
+        final Thread stepping = new Thread(new Runnable() {
+            public void run() {
+                step(recorder, 30);
+            }
+        });
+        stepping.start();
+        stepping.join(10000);
+        assertFalse("stepping hung on a dead worker", stepping.isAlive());
+        recorder.close();
+        assertEquals("failed", 10, recorder.getFailed());
+        assertEquals("written", 20, recorder.getWritten());
+        assertEquals("dropped", 0, recorder.getDropped());
+    }
+
+} // End of the class //
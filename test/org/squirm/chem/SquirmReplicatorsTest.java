@@ -0,0 +1,160 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmReplicatorsTest.java
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * The copies and births counted from the molecules that changed are those a
+ * scan of every chain in the world gives, step by step.
+ */
+public class SquirmReplicatorsTest extends TestCase {
+
+    private static final long SEED = 22;
+    private static final int STEPS = 3000;
+    private static final int MAX_LENGTH = 12;
+
+    /** copies of each sequence of the chains of up to MAX_LENGTH atoms */
+    private static Map<String, Integer> scan(final SquirmWorld world) {
+        final Map<String, Integer> copies = new HashMap<String, Integer>();
+        final int n_squares = world.getSizeX() * world.getSizeY();
+        final boolean seen[] = new boolean[n_squares];
+        final int molecule[] = new int[n_squares];
+        for (int start = 0; start < n_squares; start++) {
+            if (world.isEmpty(start) || seen[start])
+                continue;
+            // the molecule, and whether it's a chain
+            int n = 0;
+            int end = -1, ends = 0;
+            boolean branched = false;
+            seen[start] = true;
+            molecule[n++] = start;
+            for (int i = 0; i < n; i++) {
+                final int sq = molecule[i];
+                final int bonds = Integer.bitCount(world.getBonds(sq));
+                if (bonds > 2)
+                    branched = true;
+                if (bonds == 1) {
+                    ends++;
+                    end = sq;
+                }
+                for (int rest = world.getBonds(sq); rest != 0; rest &= rest - 1) {
+                    final int next = sq + world.getOffset(Integer.numberOfTrailingZeros(rest));
+                    if (!seen[next]) {
+                        seen[next] = true;
+                        molecule[n++] = next;
+                    }
+                }
+            }
+            if (branched || ends != 2 || n > MAX_LENGTH)
+                continue;
+            final StringBuilder forward = new StringBuilder();
+            int last = -1;
+            for (int sq = end; sq >= 0;) {
+                forward.append(SquirmCellProperties.getStringType(world.getType(sq)));
+                int to = -1;
+                for (int rest = world.getBonds(sq); rest != 0 && to < 0; rest &= rest - 1) {
+                    final int next = sq + world.getOffset(Integer.numberOfTrailingZeros(rest));
+                    if (next != last)
+                        to = next;
+                }
+                last = sq;
+                sq = to;
+            }
+            final String f = forward.toString();
+            final String b = forward.reverse().toString();
+            final String letters;
+            if (f.startsWith("e") && f.endsWith("f"))
+                letters = f;
+            else if (f.startsWith("f") && f.endsWith("e"))
+                letters = b;
+            else
+                letters = SquirmReplicators.hash(b) < SquirmReplicators.hash(f) ? b : f;
+            final Integer c = copies.get(letters);
+            copies.put(letters, c == null ? 1 : c + 1);
+        }
+        return copies;
+    }
+
+    private static void assertCounted(int threads) {
+        final SquirmGrid grid = SquirmTestWorlds.newGrid(SEED, 64, 0.3);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(1500);
+        if (threads > 0)
+            grid.setThreads(threads, 16);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmWorld world = grid.getWorld();
+        final SquirmMolecules molecules = new SquirmMolecules(world);
+        final SquirmReplicators replicators = new SquirmReplicators(molecules, world, MAX_LENGTH);
+        // the most copies of each sequence, and the births they add up to
+        final Map<String, Integer> most = new HashMap<String, Integer>(scan(world));
+        final Map<String, Long> births = new HashMap<String, Long>();
+        try {
+            for (int step = 1; step <= STEPS; step++) {
+                grid.doTimeStep(chemistry);
+                molecules.stepped(grid);
+                replicators.stepped(grid);
+                final Map<String, Integer> copies = scan(world);
+                int linear = 0;
+                for (final Map.Entry<String, Integer> e : copies.entrySet()) {
+                    final String letters = e.getKey();
+                    final int c = e.getValue();
+                    linear += c;
+                    final Integer m = most.get(letters);
+                    if (m == null || c > m) {
+                        final Long b = births.get(letters);
+                        births.put(letters, (b == null ? 0 : b) + c - (m == null ? 0 : m));
+                        most.put(letters, c);
+                    }
+                }
+                final String at = "threads " + threads + " step " + step;
+                assertEquals(at + " : chains", linear, replicators.getLinear());
+                assertEquals(at + " : sequences", copies.size(), replicators.getDistinct());
+                assertEquals(at + " : top", copies.size(), replicators.getTop(Integer.MAX_VALUE).size());
+                for (final Map.Entry<String, Integer> e : copies.entrySet())
+                    assertEquals(at + " : copies of " + e.getKey(), (int) e.getValue(),
+                            replicators.getCopies(e.getKey()));
+            }
+            assertTrue("nothing was born", !births.isEmpty());
+            for (final Map.Entry<String, Long> e : births.entrySet())
+                assertEquals("births of " + e.getKey(), (long) e.getValue(),
+                        replicators.getSequence(e.getKey()).getBirths());
+        } finally {
+            molecules.detach();
+            grid.setThreads(1);
+        }
+    }
+
+    public void testSweptCounts() {
+        assertCounted(0);
+    }
+
+    public void testTiledCounts() {
+        assertCounted(4);
+    }
+
+} // End of the class //
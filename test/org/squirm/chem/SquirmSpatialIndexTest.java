@@ -0,0 +1,123 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmSpatialIndexTest.java
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * What the spatial index finds, counts and calls nearest is what a look at
+ * every square finds.
+ */
+public class SquirmSpatialIndexTest extends TestCase {
+
+    private static final long SEED = 23;
+    private static final int STEPS = 2000;
+    private static final int SIZE = 80;
+
+    /** the squares of a type and state (-1 any) in a rectangle, in order */
+    private static int[] scan(final SquirmWorld world, int type, int state, int x0, int y0, int x1, int y1) {
+        int found[] = new int[0];
+        for (int sq = 0; sq < world.getSizeX() * world.getSizeY(); sq++) {
+            final int x = world.getX(sq), y = world.getY(sq);
+            if (!world.isEmpty(sq) && world.getType(sq) == type && (state < 0 || world.getState(sq) == state)
+                    && x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                found = Arrays.copyOf(found, found.length + 1);
+                found[found.length - 1] = sq;
+            }
+        }
+        return found;
+    }
+
+    /** the k nearest by distance then square, as the index orders them */
+    private static int[] scanNearest(final SquirmWorld world, int type, int state, int x, int y, int k) {
+        final int all[] = scan(world, type, state, 0, 0, world.getSizeX() - 1, world.getSizeY() - 1);
+        final long keyed[] = new long[all.length];
+        for (int i = 0; i < all.length; i++) {
+            final long dx = world.getX(all[i]) - x, dy = world.getY(all[i]) - y;
+            keyed[i] = (dx * dx + dy * dy) << 32 | all[i];
+        }
+        Arrays.sort(keyed);
+        final int nearest[] = new int[Math.min(k, all.length)];
+        for (int i = 0; i < nearest.length; i++)
+            nearest[i] = (int) keyed[i];
+        return nearest;
+    }
+
+    private static void assertSameAnswers(final String message, final SquirmWorld world,
+            final SquirmSpatialIndex index, final Random random) {
+        for (int type = 0; type <= SquirmWorld.TYPE_MASK; type++) {
+            for (int state = -1; state < 10; state++) {
+                final String what = message + " : type " + type + " state " + state;
+                assertEquals(what + " count", scan(world, type, state, 0, 0, SIZE - 1, SIZE - 1).length,
+                        index.count(type, state));
+                // rectangles that may run off the grid or be empty
+                final int x0 = random.nextInt(SIZE + 10) - 5, y0 = random.nextInt(SIZE + 10) - 5;
+                final int x1 = x0 + random.nextInt(SIZE / 2) - 3, y1 = y0 + random.nextInt(SIZE / 2) - 3;
+                final int found[] = index.find(type, state, x0, y0, x1, y1);
+                Arrays.sort(found);
+                assertTrue(what + " in " + x0 + "," + y0 + " - " + x1 + "," + y1,
+                        Arrays.equals(scan(world, type, state, x0, y0, x1, y1), found));
+                final int x = random.nextInt(SIZE), y = random.nextInt(SIZE), k = 1 + random.nextInt(12);
+                assertTrue(what + " " + k + " nearest " + x + "," + y,
+                        Arrays.equals(scanNearest(world, type, state, x, y, k), index.nearest(type, state, x, y, k)));
+            }
+        }
+    }
+
+    /** swept for 0 threads */
+    private static void assertIndexed(int threads) {
+        final SquirmGrid grid = SquirmTestWorlds.newGrid(SEED, SIZE, 0.3);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(600);
+        if (threads > 0)
+            grid.setThreads(threads, 16);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmSpatialIndex index = new SquirmSpatialIndex(grid.getWorld());
+        final Random random = new Random(SEED);
+        try {
+            assertSameAnswers("start", grid.getWorld(), index, random);
+            for (int step = 1; step <= STEPS; step++) {
+                grid.doTimeStep(chemistry);
+                index.stepped(grid);
+                if (step % 100 == 0)
+                    assertSameAnswers("threads " + threads + " step " + step, grid.getWorld(), index, random);
+            }
+        } finally {
+            index.detach();
+            grid.setThreads(1);
+        }
+    }
+
+    public void testSweptIndex() {
+        assertIndexed(0);
+    }
+
+    public void testTiledIndex() {
+        assertIndexed(4);
+    }
+
+} // End of the class //
@@ -0,0 +1,67 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmTestWorlds.java
+
+import junit.framework.Assert;
+
+/**
+ * Seeded worlds and reaction sets for the tests, and a square by square
+ * comparison of two worlds.
+ */
+final class SquirmTestWorlds {
+
+    /** an e8-a1-b1-c1-f1 replicator for the reactions of set 0 */
+    static final String REPLICATOR = "e8-a1-b1-c1-f1";
+
+    private SquirmTestWorlds() {
+    }
+
+    /**
+     * a size by size grid, filled to density with raw material and a few
+     * replicators, the same for the same seed
+     */
+    static SquirmGrid newGrid(long seed, int size, double density) {
+        return new SquirmWorldGenerator(seed).setDensity(density)
+                .addSeedString(REPLICATOR, Math.max(1, size * size / 1000)).newGrid(size, size);
+    }
+
+    static SquirmChemistry chemistry(final SquirmChemistry chemistry, int variant) {
+        SquirmReactionSets.addReactions(chemistry, variant);
+        return chemistry;
+    }
+
+    /** every square holds the same atom (type, state and bonds) or none */
+    static void assertSameWorld(final String message, final SquirmWorld a, final SquirmWorld b) {
+        Assert.assertEquals(message + " : width", a.getSizeX(), b.getSizeX());
+        Assert.assertEquals(message + " : height", a.getSizeY(), b.getSizeY());
+        Assert.assertEquals(message + " : atoms", a.getAtomCount(), b.getAtomCount());
+        for (int y = 0; y < a.getSizeY(); y++)
+            for (int x = 0; x < a.getSizeX(); x++) {
+                final int sq = a.index(x, y);
+                if (a.getCell(sq) != b.getCell(sq))
+                    Assert.fail(message + " : square " + x + "," + y + " differs");
+            }
+    }
+
+} // End of the class //
@@ -0,0 +1,110 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmTimeSeriesTest.java
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * A BINARY time series turned back into CSV is, byte for byte, the CSV
+ * written from the same run, and the rows add up to the census.
+ */
+public class SquirmTimeSeriesTest extends TestCase {
+
+    private static final long SEED = 19;
+    // not a whole number of rows, so close() writes a part row
+    private static final int STEPS = 2000;
+
+    private File csv;
+    private File binary;
+
+    protected void setUp() throws IOException {
+        csv = File.createTempFile("squirm", ".csv");
+        binary = File.createTempFile("squirm", ".sqts");
+    }
+
+    protected void tearDown() {
+        csv.delete();
+        binary.delete();
+    }
+
+    public void testBinaryRoundTrip() throws IOException {
+        final SquirmGrid grid = new SquirmGrid(64, 64, SEED);
+        grid.setFloodOnOff(true);
+        grid.setFloodPeriod(700);
+        final SquirmChemistry chemistry = SquirmTestWorlds.chemistry(new SquirmChemistry(), 0);
+        final SquirmCensus census = new SquirmCensus(grid.getWorld(), SquirmCensus.statesOf(chemistry));
+        final SquirmMolecules molecules = new SquirmMolecules(grid.getWorld());
+        // more rows than a binary block, through a ring of 4 so it waits
+        final SquirmTimeSeries a = new SquirmTimeSeries(csv, SquirmTimeSeries.Format.CSV, census, molecules, 2, 3, 4);
+        final SquirmTimeSeries b = new SquirmTimeSeries(binary, SquirmTimeSeries.Format.BINARY, census, molecules, 2,
+                3, 4);
+        try {
+            for (int step = 1; step <= STEPS; step++) {
+                grid.doTimeStep(chemistry);
+                molecules.stepped(grid);
+                a.stepped(grid);
+                b.stepped(grid);
+            }
+        } finally {
+            a.close();
+            b.close();
+            molecules.detach();
+            census.detach();
+        }
+        final long rows = (STEPS / 2 + 2) / 3;
+        assertTrue("rows for more than one block", rows > SquirmTimeSeries.BLOCK);
+        assertEquals("CSV rows", rows, a.getRows());
+        assertEquals("binary rows", rows, b.getRows());
+
+        final byte written[] = Files.readAllBytes(csv.toPath());
+        final ByteArrayOutputStream converted = new ByteArrayOutputStream();
+        final InputStream in = new BufferedInputStream(new FileInputStream(binary));
+        try {
+            SquirmTimeSeries.toCsv(in, new OutputStreamWriter(converted, "US-ASCII"));
+        } finally {
+            in.close();
+        }
+        assertTrue("binary as CSV differs", Arrays.equals(written, converted.toByteArray()));
+
+        // the reactions column is the reactions fired in each row's steps
+        final String lines[] = new String(written, "US-ASCII").split("\n");
+        assertEquals("lines", rows + 1, lines.length);
+        long fired = 0;
+        for (int i = 1; i < lines.length; i++)
+            fired += Long.parseLong(lines[i].split(",")[3]);
+        assertEquals("reactions", census.getFired(), fired);
+        assertEquals("last step", STEPS, Long.parseLong(lines[lines.length - 1].split(",")[0]));
+    }
+
+} // End of the class //
@@ -0,0 +1,115 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright Tim Hutton and Berlin Brown <berlin dot brown at gmail.com> 2011
+ *
+ * Tim Hutton is the original author, but a license not provided in source,
+ * GPL was used for similar projects.  If Tim or anyone else has questions, please contact Berlin Brown.
+ *
+ * http://www.sq3.org.uk/Evolution/Squirm3/
+ */
+package org.squirm.chem;
+
+// SquirmWorldGeneratorTest.java
+
+import junit.framework.TestCase;
+
+/**
+ * A generated world has exactly the atoms asked for and is the same on any
+ * number of threads, and the engine generates one whenever seed strings or
+ * type weights are given.
+ */
+public class SquirmWorldGeneratorTest extends TestCase {
+
+    private static final long SEED = 20;
+
+    /** bonds counted from both ends, so twice over */
+    private static int countBonds(final SquirmWorld world) {
+        int n = 0;
+        for (int sq = 0; sq < world.getSizeX() * world.getSizeY(); sq++)
+            n += Integer.bitCount(world.getBonds(sq));
+        return n / 2;
+    }
+
+    private static SquirmWorld generate(int threads, int n_x, int n_y, double density) {
+        return new SquirmWorldGenerator(SEED).setDensity(density).setThreads(threads)
+                .setTypeWeights(new double[] { 1, 1, 2, 2, 3, 3 }).addSeedString(SquirmTestWorlds.REPLICATOR, 7)
+                .newGrid(n_x, n_y).getWorld();
+    }
+
+    public void testExactAtomCount() {
+        // sizes off the tile edges, densities that round
+        final int sizes[][] = { { 64, 64 }, { 77, 53 }, { 131, 40 } };
+        final double densities[] = { 0.05, 0.123, 0.5, 0.99 };
+        for (final int size[] : sizes) {
+            for (final double density : densities) {
+                final SquirmWorld world = generate(1, size[0], size[1], density);
+                final String what = size[0] + "x" + size[1] + " density " + density;
+                assertEquals(what + " atoms", Math.round(density * size[0] * size[1]), world.getAtomCount());
+                // only the 7 seed strings are bonded, 4 bonds each
+                assertEquals(what + " bonds", 7 * 4, countBonds(world));
+            }
+        }
+    }
+
+    public void testSameOnAnyThreads() {
+        final SquirmWorld one = generate(1, 300, 170, 0.3);
+        for (final int threads : new int[] { 2, 4, 7 })
+            SquirmTestWorlds.assertSameWorld(threads + " threads", one, generate(threads, 300, 170, 0.3));
+    }
+
+    private static SquirmEngine engine(int threads) {
+        final SquirmConfig config = new SquirmConfig();
+        config.setSize(90, 70);
+        config.setSeed(SEED);
+        config.setThreads(threads);
+        config.addSeedString(SquirmTestWorlds.REPLICATOR, 5);
+        return SquirmEngine.create(config);
+    }
+
+    public void testEngineGeneratesForSeedStrings() {
+        final SquirmEngine one = engine(1);
+        final SquirmEngine four = engine(4);
+        try {
+            // no density given, so the generator's own
+            final SquirmWorld generated = new SquirmWorldGenerator(SEED).addSeedString(SquirmTestWorlds.REPLICATOR, 5)
+                    .newGrid(90, 70).getWorld();
+            SquirmTestWorlds.assertSameWorld("1 thread", generated, one.getWorld());
+            SquirmTestWorlds.assertSameWorld("4 threads", generated, four.getWorld());
+            assertEquals("bonds", 5 * 4, countBonds(one.getWorld()));
+        } finally {
+            one.close();
+            four.close();
+        }
+    }
+
+    public void testEngineGeneratesForTypeWeights() {
+        final SquirmConfig config = new SquirmConfig();
+        config.setSize(50, 50);
+        config.setSeed(SEED);
+        config.setTypeWeights(new double[] { 1, 0, 0, 0, 0, 0 });
+        final SquirmEngine engine = SquirmEngine.create(config);
+        try {
+            final SquirmWorld world = engine.getWorld();
+            // the generator's own density of a tenth
+            assertEquals("atoms", 250, world.getAtomCount());
+            for (int sq = 0; sq < 50 * 50; sq++)
+                if (!world.isEmpty(sq))
+                    assertEquals("type on square " + sq, SquirmCellProperties.getType('e'), world.getType(sq));
+        } finally {
+            engine.close();
+        }
+    }
+
+} // End of the class //